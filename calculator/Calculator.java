@@ -1,63 +1,24 @@
 package calculator;
 
-import java.util.Stack;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Arrays;
 
 public class Calculator {
-    private Functions m_functions;
-    private OperatorList m_operators;
-	private Constants m_constants;
-
-
     /**
-     * Term represents an OPERAND or OPERATOR and appropriate extracted value and index.
+     * Default limit on nesting while compiling and on nested user function calls while evaluating.
+     * Neither uses the Java stack, so the limit only guards against runaway input.
      */
-    public static class Term {
-        public enum Type {
-            OPERATOR,
-            OPERAND
-        }
-
-        public Term(Type type, int extract, Object value)
-        {
-            this.type = type;
-            this.extract = extract;
-            this.value = value;
-        }
-
-        public Type type;
-        public int extract;
-        public Object value;
-    }
+    public static final int DEFAULT_MAX_DEPTH = 100000;
 
     /**
-     * Parsing contains an extracted value, ending index, and optional closing delimiter.
+     * Default number of evaluations a compiled expression is interpreted for before code is generated for it.
      */
-    public static class Parsing {
-        public int extract;
-        public Double value;
-        public Character closer;
-
-        public Parsing(Double value, int extract, Character closer) {
-            this.value = value;
-            this.extract = extract;
-            this.closer = closer;
-        }
-    }
+    public static final int DEFAULT_TIER_THRESHOLD = 1000;
+
+    private Functions m_functions;
+    private OperatorList m_operators;
+	private Constants m_constants;
 
-    /**
-     * Arguments extracted from comma delimited arguments from a closed expression.
-     */
-	public static class ArgumentParse {
-		public ArrayList<Number> arguments;
-		public int extract;
-		
-		public ArgumentParse() {
-			this.arguments = new ArrayList<>();
-		}
-	}
 
     public enum Angle {
         DEGREES,
@@ -78,6 +39,12 @@ public class Calculator {
     }
 
     private Angle m_angle;
+    private EvaluationContext m_context;
+    private int m_maxDepth = DEFAULT_MAX_DEPTH;
+    private int m_tierThreshold = DEFAULT_TIER_THRESHOLD;
+    private ExpressionCache m_cache = ExpressionCache.SHARED;
+    private boolean m_canonicalize = true;
+    private boolean m_sortCommutative = false;
 
     public Calculator()
     {
@@ -91,12 +58,103 @@ public class Calculator {
 		this.m_constants = constants;
     }
 
+    /**
+     * A calculator evaluating within a session, whose variables are resolved before the shared constants.
+     * Expressions are compiled against the shared constants, so that every session shares one cache entry for each expression.
+     * @param context The session.
+     */
+    public Calculator(EvaluationContext context)
+    {
+        this(Functions.JMATH, OperatorList.PEMDAS, context.getShared());
+        m_context = context;
+    }
+
+    /**
+     * @param angle Angle mode used by trigonometric functions, which is also the session's if there is one.
+     */
     public void setAngle(Angle angle) {
+        if (m_context != null) {
+            m_context.setAngle(angle);
+        }
         m_angle = angle;
     }
 
     Angle getAngle() {
-        return m_angle;
+        return m_context != null ? m_context.getAngle() : m_angle;
+    }
+
+    public EvaluationContext getContext() {
+        return m_context;
+    }
+
+    /**
+     * @param context The session to evaluate within, whose shared constants replace this calculator's,
+     *                or null to evaluate against the constants alone.
+     */
+    public void setContext(EvaluationContext context) {
+        m_context = context;
+        if (context != null) {
+            m_constants = context.getShared();
+        }
+    }
+
+    /**
+     * @param maxDepth Maximum nesting of brackets, function calls, and pending operators while compiling,
+     *                 and of user function calls while evaluating. Deeper expressions fail with an error.
+     */
+    public void setMaxDepth(int maxDepth) {
+        m_maxDepth = maxDepth;
+    }
+
+    public int getMaxDepth() {
+        return m_maxDepth;
+    }
+
+    /**
+     * @param tierThreshold Evaluations of each compiled expression interpreted before generating code for it,
+     *                      or negative to always interpret.
+     */
+    public void setTierThreshold(int tierThreshold) {
+        m_tierThreshold = tierThreshold;
+    }
+
+    public int getTierThreshold() {
+        return m_tierThreshold;
+    }
+
+    /**
+     * @param cache Cache of compiled expressions to share, or null to compile every expression anew.
+     */
+    public void setCache(ExpressionCache cache) {
+        m_cache = cache;
+    }
+
+    public ExpressionCache getCache() {
+        return m_cache;
+    }
+
+    /**
+     * @param canonicalize True to rewrite expressions into their normal form before compiling them,
+     *                     so that different spellings of an expression share one cache entry.
+     */
+    public void setCanonicalize(boolean canonicalize) {
+        m_canonicalize = canonicalize;
+    }
+
+    public boolean isCanonicalize() {
+        return m_canonicalize;
+    }
+
+    /**
+     * @param sortCommutative True to also share one cache entry between expressions that differ only
+     *                        in the order of the operands of commutative operators.
+     */
+    public void setSortCommutative(boolean sortCommutative) {
+        m_sortCommutative = sortCommutative;
+    }
+
+    public boolean isSortCommutative() {
+        return m_sortCommutative;
     }
 
     public Functions getFunctions() {
@@ -123,6 +181,68 @@ public class Calculator {
     	m_constants = constants;
     }
 
+    /**
+     * Compile an expression once so that it can be evaluated repeatedly.
+     * @param expression The expression to compile.
+     * @return The compiled expression, bound to this calculator's functions, operators, constants, and angle.
+     */
+    public CompiledExpression compile(String expression)
+    {
+        return compile(expression, 0, expression.length());
+    }
+
+    /**
+     * Compile an expression whose identifiers may refer to positional parameters.
+     * @param expression The expression to compile.
+     * @param parameters Identifiers bound to the arguments passed to CompiledExpression.evaluate.
+     * @return The compiled expression.
+     */
+    public CompiledExpression compile(String expression, List<String> parameters)
+    {
+        return compile(expression, 0, expression.length(), parameters);
+    }
+
+    /**
+     * Compile an expression with respect to starting and ending indices.
+     * @param expression Expression and characters to compile.
+     * @param start Starting index to compile from.
+     * @param end Ending limiting index.
+     * @return The compiled expression.
+     */
+    public CompiledExpression compile(String expression, int start, int end)
+    {
+        return compile(expression, start, end, new ArrayList<>());
+    }
+
+    /**
+     * Compile an expression, reusing the cached compilation of the same text against the same registries.
+     * The text is canonicalized first, and whitespace around it is insignificant either way.
+     */
+    private CompiledExpression compile(String expression, int start, int end, List<String> parameters)
+    {
+        final Angle angle = getAngle();
+        final String text = m_canonicalize
+                ? Canonicalizer.canonicalize(expression, start, end, parameters, m_functions.snapshot(), m_operators.snapshot(), pinConstants())
+                : expression.substring(start, end).trim();
+        if (m_cache == null) {
+            return createCompiler(parameters).compile(text, 0, text.length(), m_constants, angle);
+        }
+        final ExpressionCache.Key key = createKey(text, parameters, angle);
+        return m_cache.get(key, () -> {
+            final CompiledExpression compiled = createCompiler(parameters).compile(text, 0, text.length(), m_constants, angle);
+            final String form = m_sortCommutative ? Canonicalizer.sortedForm(compiled) : null;
+            if (form == null) {
+                return compiled;
+            }
+            return m_cache.intern(createKey(form, parameters, angle), compiled);
+        });
+    }
+
+    private ExpressionCache.Key createKey(String text, List<String> parameters, Angle angle)
+    {
+        return new ExpressionCache.Key(text, parameters, m_functions, m_operators, m_constants, angle, m_maxDepth, m_tierThreshold);
+    }
+
     /**
      * Evaluate
      * @param expression The expression to evaluate.
@@ -142,29 +262,27 @@ public class Calculator {
 
     public double evaluatePostfix(String expression, int start, int end)
     {
-        Stack<Double> values = new Stack<>();
+        final Angle angle = getAngle();
+        final CompiledExpression compiled = createCompiler(new ArrayList<>()).compilePostfix(expression, start, end, m_constants, angle);
+        return compiled.getTape().execute(new double[0], m_functions.snapshot(), m_operators.snapshot(), pinConstants(), angle);
+    }
 
-        while ((start = skipWhitespace(expression, start, end)) < end) {
-            if (Character.isDigit(expression.charAt(start))) {
-                final Parsing parsing = parseDouble(expression, start, end);
-                values.push(parsing.value);
-                start = parsing.extract;
-            }
-            else {
-                final String token = parseOperator(expression, start, end);
-                final int operands = Math.min(2, Math.max(1, values.size()));
-                final Operator operator = m_operators.getPreferenceOrAny(token, operands);
-                final ArrayList<Double> arguments = new ArrayList<>();
-
-                for (int op = 0; op < operator.getOperands(); ++op) {
-                    arguments.add(0, values.pop());
-                }
-                values.push(operator.apply(arguments));
-                start += token.length();
-            }
-        }
+    /**
+     * @return A snapshot of the constants identifiers are resolved from, including the session's variables,
+     *         which is unaffected by changes made while it is in use, or null.
+     */
+    private Constants pinConstants()
+    {
+        final Constants constants = m_context != null ? m_context.getConstants() : m_constants;
+        return constants == null ? null : constants.snapshot();
+    }
 
-        return values.peek();
+    private ExpressionCompiler createCompiler(List<String> parameters)
+    {
+        final ExpressionCompiler compiler = new ExpressionCompiler(m_functions, m_operators, parameters);
+        compiler.setMaxDepth(m_maxDepth);
+        compiler.setTierThreshold(m_tierThreshold);
+        return compiler;
     }
 
     public static int skipWhitespace(String expression, int start, int end)
@@ -185,278 +303,11 @@ public class Calculator {
      */
     public double evaluate(String expression, int start, int end)
     {
-        return evaluateGrouping(expression, start, end, new ArrayList<>()).value;
-    }
-
-    public void processOperator(Stack<Operator> operations, Stack<Double> values) {
-        final Operator operator = operations.pop();
-        final ArrayList<Double> arguments = new ArrayList<>();
-
-        //Obtain all of the necessary arguments.
-        for (int op = 0; op < operator.getOperands(); ++op) {
-            arguments.add(0, values.pop());
-        }
-        final Double computed = operator.apply(arguments);
-        //Use computed value for further operations.
-        values.push(computed);
-    }
-
-    /**
-     * Process the operator stack if the future
-     * @param operations Stack containing all operations, ordered by high precedence.
-     * @param values Stack containing all extracted values.
-     * @param futureOp The next operator to account for.
-     */
-    public void processNextOperator(Stack<Operator> operations, Stack<Double> values, Operator futureOp)
-    {
-        while (!operations.empty() && operations.peek().hasPrecedence(futureOp)) {
-        	processOperator(operations, values);
+        final CompiledExpression compiled = compile(expression, start, end);
+        if (m_context != null) {
+            //Resolve the session's variables before the shared constants the expression was compiled against.
+            return compiled.evaluate(new double[0], m_context.getConstants(), getAngle());
         }
-        //Future operation must be processed later.
-        //It could have greater or smaller precedence than the following operations.
-        operations.push(futureOp);
-    }
-
-    /**
-     * Evaluate a grouping(formed via brackets/starting and ending indices).
-     * @param expression The expression to be parsed.
-     * @param start The starting index to begin evaluating from.
-     * @param end The ending and limiting index.
-     * @param closers List of limiting delimeters.
-     * @return Parsing containing the expression's value, ending index, and closing character.
-     */
-    public Parsing evaluateGrouping(String expression, int start, int end, List<Character> closers)
-    {
-    	//Stacks are FILO/LIFO data structures.
-    	//Processing infix notation via PEMDAS necessitates precedence.
-    	//Precedence means first occurring operators will process last,
-    	//iff they have lower precedence than sequential operators. 
-        Stack<Operator> operations = new Stack<>();
-        Stack<Double> values = new Stack<>();
-        Character closer = null;
-        final int UNARY = 1;
-        final int BINARY = 2;
-
-        boolean implicitMultiplication = false;
-
-        int futureOperands = UNARY;
-        int original = start;
-        while ((start = skipWhitespace(expression, start, end)) < end) {
-            if (closers.contains(expression.charAt(start))) {
-                closer = expression.charAt(start);
-                break;
-            }
-            final Term term = extractTerm(expression, start, end);
-            final Object backup = term.value;
-            final boolean spaced = original != start;
-
-            final boolean implicit = term.type != Term.Type.OPERATOR && implicitMultiplication;
-            if (implicit && spaced) {
-                throw new RuntimeException("Cannot process two separated operands");
-            }
-            else if (implicit) {
-                term.type = Term.Type.OPERATOR;
-                term.value = "*";
-            }
-            else if (term.type == Term.Type.OPERAND) {
-            	values.push((Double)term.value);
-            	implicitMultiplication = true;
-            	futureOperands = BINARY;
-            }
-
-            if (term.type == Term.Type.OPERATOR) {
-                final Operator futureOp = m_operators.getPreferenceOrAny((String)term.value, futureOperands);
-                final boolean futureUnary = futureOp.getOperands() == UNARY;
-
-                if (!futureUnary) {
-                    futureOperands = UNARY;
-                }
-                if (implicitMultiplication && futureUnary && futureOp.getAssociativity() == Operator.Associativity.RIGHT_TO_LEFT) {
-                	processNextOperator(operations, values, m_operators.getPreferenceOrAny("*", 2));
-                	implicitMultiplication = false;
-                }
-                processNextOperator(operations, values, futureOp);
-                if (!futureUnary) {
-                    implicitMultiplication = false;
-                }
-            }
-            if (implicit) {
-                values.push((Double)backup);
-                implicitMultiplication = true;
-            }
-            //Update term and index.
-            start = term.extract;
-            original = start;
-        }
-        if (!closers.isEmpty() && closer == null) {
-            throw new RuntimeException("Closing delimiter not found");
-        }
-
-        //Pop off remaining operations.
-        while (!operations.empty()) {
-            processOperator(operations, values);
-        }
-
-
-       final Double result = values.empty() ? null : values.peek();
-        return new Parsing(result, start+1, closer);
-    }
-
-    /**
-     * Extract the value of the corresponding term.
-     * @param expression The expression to be parsed.
-     * @param start The starting index to begin reading from.
-     * @param end The ending and limiting index.
-     * @return The term corresponding to an OPERAND or OPERATOR and extracted value.
-     */
-    public Term extractTerm(String expression, int start, int end) {
-        final char type = expression.charAt(start);
-
-        if (Configuration.isFloatingPoint(type)) {
-            //Must be an LHS operand.
-            final Parsing parsing = parseDouble(expression, start, end);
-            return new Term(Term.Type.OPERAND, parsing.extract, parsing.value);
-        }
-        else if (Configuration.isIdentifierChar(type)) {
-            //Must be an identifier mapped to a function or a constant.
-            final Parsing parsing = parseIdentifier(expression, start, end);
-            return new Term(Term.Type.OPERAND, parsing.extract, parsing.value);
-        }
-        else if (Configuration.isOpeningBracket(type)) {
-            //Evaluate internal expression first.
-            final Parsing parsing = evaluateGrouping(expression, start+1, end, Arrays.asList(Configuration.getClosingBracket(type)));
-            return new Term(Term.Type.OPERAND, parsing.extract, parsing.value);
-        }
-        else {
-            //Must be an operator.
-            final String operator = parseOperator(expression, start, end);
-            return new Term(Term.Type.OPERATOR, start+operator.length(), operator);
-        }
-    }
-
-    /**
-     * Extract a set of arguments from enclosing brackets.
-     * @param expression The expression to be parsed.
-     * @param start The starting index to begin parsing from.
-     * @param end The ending and limiting index.
-     * @param closingBracket Limiting closing bracket.
-     * @return A multiparsing containing the ending index, optional closer, and extracted list of arguments.
-     */
-	public ArgumentParse evaluateArguments(String expression, int start, int end, char closingBracket) {
-        final ArgumentParse parse = new ArgumentParse();
-
-        while (start < end) {
-            final Parsing argument = evaluateGrouping(expression, start, end, Arrays.asList(',', closingBracket));
-            if (!parse.arguments.isEmpty() || argument.value != null) {
-                parse.arguments.add(argument.value);
-            }
-            start = argument.extract;
-            if (argument.closer == closingBracket) {
-                break;
-            }
-        }
-        parse.extract = start;
-
-        return parse;
-    }
-
-    /**
-     * Parse and evaluate an identifier composed of alphanumeric values.
-     * @param expression The expression to be parsed.
-     * @param start The starting index to begin parsing from.
-     * @param end The ending and limiting index.
-     * @return Parsing containing ending index, numeric value, and closing character.
-     */
-    public Parsing parseIdentifier(String expression, int start, int end) {
-        String identifier = null;
-		//Extract the entire identifier.
-		int idx = start;
-        for (; idx <= end; ++idx) {
-            if (idx == end || !Configuration.isIdentifierChar(expression.charAt(idx))) {
-                identifier = expression.substring(start, idx);
-                break;
-            }
-        }
-		
-		//Expression and/or bounds are ill-formed.
-        if (identifier == null) {
-            throw new StringIndexOutOfBoundsException();
-        }
-		
-		final char endingChar = idx < end ? expression.charAt(idx) : '\0';
-		final boolean isFunction = Configuration.isOpeningBracket(endingChar);
-        if (isFunction && m_functions.contains(identifier)) {
-            final ArgumentParse multiParse = evaluateArguments(expression, idx+1, end, Configuration.getClosingBracket(endingChar));
-            final MathFunction.ParameterPack parameters = new MathFunction.ParameterPack(multiParse.arguments, m_functions, m_constants, m_operators, m_angle);
-
-            final double value = m_functions.apply(identifier, parameters);
-			return new Parsing(value, multiParse.extract, '\0');
-        }
-		else if (m_constants.containsKey(identifier)) {
-			final double value = m_constants.get(identifier);
-			return new Parsing(value, idx, '\0');
-		}
-		else {
-			//Identifier is not mapped to a function or constant.
-			throw new RuntimeException("Unknown identifier encountered.");
-		}
-    }
-
-
-    public Parsing parseDouble(String expression, int start, int end) {
-        int idx = start;
-        boolean decimal = false; //Can only exist one decimal point.
-        boolean scientific = false; //Can only exist a single E.
-        boolean inverse = false;
-
-        for (; idx < end; ++idx) {
-            final char ch = expression.charAt(idx);
-            //Check for a decimal point, if one isn't yet found.
-            if (ch == '.' && !decimal) {
-                decimal = true; //Toggle decimal flag.
-            }
-            else if (Character.toUpperCase(ch) == 'E' && !scientific) {
-                scientific = true;
-            }
-            else if (scientific && ch == '-' && !inverse) {
-                inverse = true;
-            }
-            else if (!Character.isDigit(ch)) {
-                break; //Break if another decimal point is encountered or any non-digit character.
-            }
-        }
-        if (scientific && expression.charAt(idx-1) == 'E') {
-            throw new RuntimeException("Scientific format requires an integer exponent.");
-        }
-        //Convert string to double.
-        final double value = Double.parseDouble(expression.substring(start, idx));
-
-        if (idx < end && Configuration.isIdentifierChar(expression.charAt(idx))) {
-            final Parsing binding = parseIdentifier(expression, idx, end);
-            return new Parsing(value * binding.value, binding.extract, binding.closer);
-        }
-        else {
-            return new Parsing(value, idx, '\0');
-        }
-    }
-
-    public String parseOperator(String expression, int start, int end) {
-        String operator = null;
-        for (int idx = start; idx <= end; ++idx) {
-            final String token = expression.substring(start, idx);
-
-            if (m_operators.contains(token)) {
-                operator = token;
-            }
-            if (idx < end && !Configuration.isOperatorChar(expression.charAt(idx))) {
-                break;
-            }
-        }
-
-        if (operator == null) {
-            throw new RuntimeException("No operator found.");
-        }
-
-        return operator;
+        return compiled.evaluate();
     }
 }
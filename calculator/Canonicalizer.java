@@ -0,0 +1,205 @@
+package calculator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rewrites expressions into a normal form, so that spellings of the same expression share one compiled form.
+ * The normal form is itself an expression which compiles identically to the original.
+ * Whitespace is removed wherever it cannot change how the expression is parsed,
+ * operators are respelled by the aliases declared in their OperatorList,
+ * and constants are respelled by the KeyConverter while both spellings hold the same value.
+ */
+public class Canonicalizer {
+    /**
+     * Largest compiled expression whose commutative operands are sorted.
+     */
+    public static final int MAX_SORTED = 256;
+
+    /**
+     * Longest structural form built when sorting commutative operands.
+     */
+    private static final int MAX_FORM = 1 << 16;
+
+    private Canonicalizer() {
+    }
+
+    /**
+     * Rewrite an expression into its normal form.
+     * @param expression The expression to rewrite.
+     * @param start Starting index to rewrite from.
+     * @param end Ending limiting index.
+     * @param parameters Identifiers compiled into positional parameter slots, which are never respelled.
+     * @param functions Functions the expression is compiled against.
+     * @param operators Operators the expression is compiled against.
+     * @param constants Constants the expression is evaluated against, or null.
+     * @return The normal form of the expression.
+     */
+    public static String canonicalize(String expression, int start, int end, List<String> parameters, Functions functions, OperatorList operators, Constants constants) {
+        final PrecedenceTable table = operators.getTable();
+        final TokenList tokens = new Lexer(table).tokenize(expression, start, end);
+        final StringBuilder builder = new StringBuilder(end - start);
+
+        for (int token = 0; token != tokens.size(); ++token) {
+            final int kind = tokens.getKind(token);
+            //Operators are always spaced, so that neighbouring tokens cannot merge when lexed again.
+            if (token != 0 && (kind == TokenList.OPERATOR || tokens.isSpaced(token) && isSeparating(tokens, table, token))) {
+                builder.append(' ');
+            }
+
+            switch (kind) {
+                case TokenList.OPERATOR:
+                    builder.append(table.getSymbol(table.getCanonical(tokens.getOperator(token))));
+                    break;
+                case TokenList.IDENTIFIER:
+                    builder.append(respell(tokens.getSymbol(token), parameters, functions, constants));
+                    break;
+                default:
+                    builder.append(expression, tokens.getStart(token), tokens.getEnd(token));
+                    break;
+            }
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Whitespace only matters between an operand, bracket or call and whatever may end the operand before it,
+     * where it marks two separated operands rather than an implicit multiplication, coefficient, or call.
+     * @return True if whitespace before the token changes how the expression is parsed.
+     */
+    private static boolean isSeparating(TokenList tokens, PrecedenceTable table, int token) {
+        final int kind = tokens.getKind(token);
+        if (kind != TokenList.NUMBER && kind != TokenList.IDENTIFIER && kind != TokenList.OPENING) {
+            return false;
+        }
+        switch (tokens.getKind(token - 1)) {
+            case TokenList.NUMBER:
+            case TokenList.IDENTIFIER:
+            case TokenList.CLOSING:
+                return true;
+            case TokenList.OPERATOR: {
+                //Only a postfix operator ends an operand.
+                final Operator operator = table.getOperator(table.select(tokens.getOperator(token - 1), 1));
+                return operator.getOperands() == 1 && operator.getAssociativity() == Operator.Associativity.LEFT_TO_RIGHT;
+            }
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Respell a constant by the KeyConverter, provided both spellings are constants of the same value.
+     */
+    private static String respell(String identifier, List<String> parameters, Functions functions, Constants constants) {
+        final String target = KeyConverter.converter.get(identifier);
+        if (target == null || constants == null || target.isEmpty() || parameters.contains(identifier) || parameters.contains(target)
+                || functions.contains(identifier) || functions.contains(target)
+                || ExpressionCompiler.CONDITIONAL.equals(identifier) || ExpressionCompiler.CONDITIONAL.equals(target)) {
+            return identifier;
+        }
+        //A spelling starting like a number could merge with a number written before it.
+        if (Configuration.isFloatingPoint(target.charAt(0)) || Character.toUpperCase(target.charAt(0)) == 'E') {
+            return identifier;
+        }
+        for (int i = 0; i != target.length(); ++i) {
+            if (!Configuration.isIdentifierChar(target.charAt(i))) {
+                return identifier;
+            }
+        }
+        final Double value = constants.get(identifier);
+        final Double other = constants.get(target);
+        return value != null && value.equals(other) ? target : identifier;
+    }
+
+    /**
+     * Describe the structure of a compiled expression with the operands of commutative operators in sorted order,
+     * so that expressions differing only in the order of those operands have the same form.
+     * @param expression The compiled expression.
+     * @return The structural form, or null if the expression is empty, too large, or computes values it discards.
+     */
+    public static String sortedForm(CompiledExpression expression) {
+        final int result = expression.getResult();
+        if (result < 0 || expression.size() > MAX_SORTED) {
+            return null;
+        }
+        //Every instruction must contribute to the result, since discarded ones would not be described.
+        if (result != expression.size() - 1) {
+            return null;
+        }
+        final boolean[] used = new boolean[expression.size()];
+        used[result] = true;
+        for (int idx = result; idx >= 0; --idx) {
+            final CompiledExpression.Instruction instruction = expression.getInstruction(idx);
+            if (!used[idx] && !instruction.isControl()) {
+                return null;
+            }
+            for (int i = 0; i != instruction.getOperandCount(); ++i) {
+                used[instruction.getOperand(i)] = true;
+            }
+        }
+
+        final String[] forms = new String[expression.size()];
+        for (int idx = 0; idx != forms.length; ++idx) {
+            final CompiledExpression.Instruction instruction = expression.getInstruction(idx);
+            if (instruction.isControl()) {
+                //Where the branches lie follows from the SELECT joining them.
+                continue;
+            }
+            final StringBuilder form = new StringBuilder();
+
+            switch (instruction.getType()) {
+                case CONSTANT:
+                    form.append('#').append(Long.toHexString(Double.doubleToRawLongBits(instruction.getValue())));
+                    break;
+                case PARAMETER:
+                    form.append('$').append(instruction.getSlot());
+                    break;
+                case VARIABLE:
+                    appendName(form.append('@'), instruction.getIdentifier());
+                    break;
+                case OPERATOR:
+                case FUNCTION: {
+                    final ArrayList<String> operands = new ArrayList<>(instruction.getOperandCount());
+                    for (int i = 0; i != instruction.getOperandCount(); ++i) {
+                        operands.add(forms[instruction.getOperand(i)]);
+                    }
+                    if (instruction.getType() == CompiledExpression.Instruction.Type.OPERATOR) {
+                        appendName(form.append('o'), instruction.getIdentifier()).append(operands.size());
+                        if (instruction.getOperator().isCommutative()) {
+                            operands.sort(null);
+                        }
+                    }
+                    else {
+                        appendName(form.append('f'), instruction.getIdentifier());
+                    }
+                    form.append('(');
+                    for (String operand : operands) {
+                        form.append(operand).append(',');
+                    }
+                    form.append(')');
+                    break;
+                }
+                case SELECT:
+                    form.append("s(").append(forms[instruction.getOperand(0)]).append(',').append(forms[instruction.getOperand(1)])
+                            .append(',').append(forms[instruction.getOperand(2)]).append(",)");
+                    break;
+                default:
+                    break;
+            }
+            if (form.length() > MAX_FORM) {
+                return null;
+            }
+            forms[idx] = form.toString();
+        }
+
+        return forms[result];
+    }
+
+    /**
+     * Append a name prefixed by its length, so that names never run into what follows.
+     */
+    private static StringBuilder appendName(StringBuilder builder, String name) {
+        return builder.append(name.length()).append(':').append(name);
+    }
+}
@@ -0,0 +1,437 @@
+package calculator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleSupplier;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Generates JVM code for compiled expressions.
+ * Every instruction becomes a method handle of type (double[])double combined with the handles of its operands.
+ * Instructions used more than once, or used within a branch they precede, are stored into temporaries following the parameters
+ * in instruction order, before the value of the branch they belong to is computed, and their users read the temporaries.
+ * Arithmetic on parameters and constants is left to the JIT, which already computes it once.
+ * Conditionals become tests choosing between the handles of their branches, so only one branch is evaluated.
+ * Primitive operators and functions, such as those of OperatorList.PEMDAS and Functions.JMATH, are called on
+ * constant receivers and small user functions are generated inline, so the JIT reduces them to their Math calls.
+ * The finished tree is bound as a constant into its own hidden class, which is unloaded once its Evaluator is discarded.
+ */
+public class CodeGenerator {
+    /**
+     * Deepest tree generated, since handles nest on the Java stack.
+     * Deeper expressions and user function bodies are evaluated by the interpreter instead.
+     */
+    public static final int MAX_DEPTH = 64;
+
+    /**
+     * Deepest nesting of user function bodies generated inline.
+     */
+    public static final int MAX_INLINE = 8;
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType EVALUATION = MethodType.methodType(double.class, double[].class);
+    private static final MethodHandle SLOT = MethodHandles.arrayElementGetter(double[].class);
+    private static final MethodHandle NULLARY;
+    private static final MethodHandle UNARY;
+    private static final MethodHandle BINARY;
+    private static final MethodHandle CONVERT;
+    private static final MethodHandle RESOLVE;
+    private static final MethodHandle OPERATE;
+    private static final MethodHandle INVOKE;
+    private static final MethodHandle APPLY;
+    private static final MethodHandle BORROW;
+    private static final MethodHandle GIVE_BACK;
+    private static final MethodHandle STORE;
+    private static final MethodHandle TEST;
+    private static final byte[] TEMPLATE = readTemplate();
+    static {
+        try {
+            NULLARY = LOOKUP.findVirtual(DoubleSupplier.class, "getAsDouble", MethodType.methodType(double.class));
+            UNARY = LOOKUP.findVirtual(DoubleUnaryOperator.class, "applyAsDouble", MethodType.methodType(double.class, double.class));
+            BINARY = LOOKUP.findVirtual(DoubleBinaryOperator.class, "applyAsDouble", MethodType.methodType(double.class, double.class, double.class));
+            CONVERT = LOOKUP.findVirtual(Calculator.Angle.class, "convertValue", MethodType.methodType(double.class, double.class));
+            RESOLVE = LOOKUP.findStatic(CompiledExpression.class, "resolve", MethodType.methodType(double.class, String.class, Map.class, Constants.class));
+            OPERATE = LOOKUP.findStatic(CodeGenerator.class, "operate", MethodType.methodType(double.class, Operator.class, double[].class));
+            INVOKE = LOOKUP.findStatic(CodeGenerator.class, "invoke", MethodType.methodType(double.class, UserFunction.class, CompiledExpression.class, double[].class));
+            APPLY = LOOKUP.findStatic(CodeGenerator.class, "apply", MethodType.methodType(double.class, String.class, CompiledExpression.class, double[].class));
+            BORROW = LOOKUP.findStatic(CodeGenerator.class, "borrow", MethodType.methodType(double[].class, int.class, int.class, double[].class));
+            GIVE_BACK = LOOKUP.findStatic(CodeGenerator.class, "giveBack", MethodType.methodType(double.class, Throwable.class, double.class, double[].class));
+            STORE = LOOKUP.findStatic(CodeGenerator.class, "store", MethodType.methodType(double.class, double[].class, int.class, double.class));
+            TEST = LOOKUP.findStatic(CodeGenerator.class, "test", MethodType.methodType(boolean.class, double.class));
+        } catch (ReflectiveOperationException exception) {
+            throw new ExceptionInInitializerError(exception);
+        }
+    }
+
+    private final CompiledExpression expression;
+    private final ArrayList<UserFunction> inlined;
+
+    private CodeGenerator(CompiledExpression expression) {
+        this.expression = expression;
+        this.inlined = new ArrayList<>();
+    }
+
+    /**
+     * Generate JVM code evaluating an expression against the constants and angle mode it was compiled with.
+     * Functions and operators are bound as they are now, so the code must be generated again after they change.
+     * @param expression The expression to generate code for.
+     * @return Evaluator taking one value per parameter of the expression, in slot order.
+     */
+    public static Evaluator generate(CompiledExpression expression) {
+        if (expression.getResult() < 0) {
+            throw new RuntimeException("Cannot evaluate an empty expression.");
+        }
+        if (depthOf(expression) > MAX_DEPTH) {
+            return (vars) -> {
+                return expression.interpret(vars, Collections.emptyMap(), expression.getConstants(), expression.getAngle());
+            };
+        }
+        return define(new CodeGenerator(expression).generate(expression, 0));
+    }
+
+    /**
+     * Combine the handles of every instruction.
+     * @param code The expression itself, or the body of a user function generated inline.
+     * @param depth Depth of the tree the code is generated within.
+     * @return Handle of type (double[])double taking the code's parameters.
+     */
+    private MethodHandle generate(CompiledExpression code, int depth) {
+        final int size = code.size();
+        final MethodHandle[] handles = new MethodHandle[size];
+        final int[] depths = new int[size];
+        final int[] uses = new int[size];
+        final boolean[] escapes = new boolean[size];
+        final boolean[] costly = new boolean[size];
+        final int[] slots = new int[size];
+        final int parameters = code.getParameters().size();
+        int temporaries = 0;
+        Arrays.fill(slots, -1);
+
+        //Number the branches, each within the one enclosing it, and note which branches each SELECT joins.
+        final int[] branches = new int[size];
+        final int[] enclosing = new int[size + 1];
+        final int[] taken = new int[size];
+        final int[] otherwise = new int[size];
+        final int[] open = new int[size];
+        int branch = 0;
+        int count = 1;
+        int nesting = 0;
+        for (int idx = 0; idx != size; ++idx) {
+            final CompiledExpression.Instruction instruction = code.getInstruction(idx);
+            switch (instruction.getType()) {
+                case BRANCH:
+                    branches[idx] = branch;
+                    enclosing[count] = branch;
+                    branch = count++;
+                    continue;
+                case JUMP:
+                    branches[idx] = branch;
+                    open[nesting++] = branch;
+                    enclosing[count] = enclosing[branch];
+                    branch = count++;
+                    continue;
+                case SELECT:
+                    taken[idx] = open[--nesting];
+                    otherwise[idx] = branch;
+                    branch = enclosing[branch];
+                    break;
+                default:
+                    break;
+            }
+            branches[idx] = branch;
+            for (int i = 0; i != instruction.getOperandCount(); ++i) {
+                final int operand = instruction.getOperand(i);
+                ++uses[operand];
+                escapes[operand] |= branchOf(instruction, i, branches[idx], taken[idx], otherwise[idx]) != branches[operand];
+            }
+        }
+
+        //Temporaries computed at the start of each branch, in instruction order.
+        final ArrayList<List<MethodHandle>> statements = new ArrayList<>(count);
+        for (int i = 0; i != count; ++i) {
+            statements.add(new ArrayList<>());
+        }
+
+        for (int idx = 0; idx != size; ++idx) {
+            final CompiledExpression.Instruction instruction = code.getInstruction(idx);
+            if (instruction.isControl()) {
+                continue;
+            }
+            final MethodHandle[] operands = new MethodHandle[instruction.getOperandCount()];
+            for (int i = 0; i != operands.length; ++i) {
+                final int operand = instruction.getOperand(i);
+                operands[i] = value(handles, slots, operand);
+                depths[idx] = Math.max(depths[idx], depths[operand]);
+                costly[idx] |= costly[operand];
+            }
+            ++depths[idx];
+
+            switch (instruction.getType()) {
+                case CONSTANT:
+                    handles[idx] = MethodHandles.dropArguments(MethodHandles.constant(double.class, instruction.getValue()), 0, double[].class);
+                    break;
+                case PARAMETER:
+                    handles[idx] = MethodHandles.insertArguments(SLOT, 1, instruction.getSlot());
+                    break;
+                case VARIABLE:
+                    handles[idx] = MethodHandles.dropArguments(
+                            MethodHandles.insertArguments(RESOLVE, 0, instruction.getIdentifier(), Collections.emptyMap(), expression.getConstants()),
+                            0, double[].class);
+                    break;
+                case OPERATOR:
+                    handles[idx] = combine(operate(instruction.getOperator(), operands.length), operands);
+                    break;
+                case FUNCTION:
+                    handles[idx] = combine(call(instruction.getIdentifier(), operands.length, depth + depths[idx]), operands);
+                    break;
+                case SELECT:
+                    handles[idx] = MethodHandles.guardWithTest(MethodHandles.filterReturnValue(operands[0], TEST),
+                            sequence(statements.get(taken[idx]), operands[1]), sequence(statements.get(otherwise[idx]), operands[2]));
+                    break;
+                default:
+                    break;
+            }
+            costly[idx] |= instruction.getType() == CompiledExpression.Instruction.Type.VARIABLE
+                    || instruction.getType() == CompiledExpression.Instruction.Type.FUNCTION
+                    || instruction.getType() == CompiledExpression.Instruction.Type.OPERATOR && !isPrimitive(instruction.getOperator(), operands.length);
+            //Whatever a branch uses from before it is computed whether or not the branch is taken, as the interpreter does.
+            if (costly[idx] && (uses[idx] > 1 || escapes[idx])) {
+                slots[idx] = parameters + temporaries++;
+                statements.get(branches[idx]).add(MethodHandles.dropReturn(store(handles[idx], slots[idx])));
+            }
+        }
+
+        final MethodHandle handle = sequence(statements.get(0), value(handles, slots, code.getResult()));
+        if (temporaries == 0) {
+            return handle;
+        }
+        //Copy the parameters into a frame borrowed from the thread's stack with room for the temporaries.
+        //A fresh copy per evaluation is only elided when the JIT inlines the whole tree, which large expressions defeat.
+        return MethodHandles.filterArguments(MethodHandles.tryFinally(handle, GIVE_BACK), 0, MethodHandles.insertArguments(BORROW, 0, parameters, parameters + temporaries));
+    }
+
+    /**
+     * @param instruction The instruction using an operand.
+     * @param operand Position of the operand.
+     * @param branch Branch the instruction is evaluated within.
+     * @param taken Branch joined by a SELECT as its second operand.
+     * @param otherwise Branch joined by a SELECT as its third operand.
+     * @return Branch the operand's value is used within.
+     */
+    private static int branchOf(CompiledExpression.Instruction instruction, int operand, int branch, int taken, int otherwise) {
+        if (instruction.getType() != CompiledExpression.Instruction.Type.SELECT || operand == 0) {
+            return branch;
+        }
+        return operand == 1 ? taken : otherwise;
+    }
+
+    /**
+     * @return Handle of type (double[])double reading an instruction's temporary, or computing it if it has none.
+     */
+    private static MethodHandle value(MethodHandle[] handles, int[] slots, int instruction) {
+        return slots[instruction] < 0 ? handles[instruction] : MethodHandles.insertArguments(SLOT, 1, slots[instruction]);
+    }
+
+    /**
+     * @param statements Handles of type (double[])void, run in order.
+     * @param value Handle of type (double[])double computed after them.
+     * @return Handle of type (double[])double.
+     */
+    private static MethodHandle sequence(List<MethodHandle> statements, MethodHandle value) {
+        MethodHandle handle = value;
+        for (int i = statements.size() - 1; i >= 0; --i) {
+            handle = MethodHandles.foldArguments(handle, statements.get(i));
+        }
+        return handle;
+    }
+
+    /**
+     * @param handle Handle of type (double[])double.
+     * @param slot Index of the frame to store the value in.
+     * @return Handle of type (double[])double storing the handle's value within the frame it reads, and returning it.
+     */
+    private static MethodHandle store(MethodHandle handle, int slot) {
+        final MethodHandle setter = MethodHandles.filterArguments(MethodHandles.insertArguments(STORE, 1, slot), 1, handle);
+        return MethodHandles.permuteArguments(setter, EVALUATION, 0, 0);
+    }
+
+    /**
+     * @return True if the operator is applied through a primitive lambda.
+     */
+    private static boolean isPrimitive(Operator operator, int operands) {
+        return operands == 1 && operator.getUnaryOperation() != null || operands == 2 && operator.getBinaryOperation() != null;
+    }
+
+    /**
+     * @return Handle of type (double...)double applying an operator.
+     */
+    private static MethodHandle operate(Operator operator, int operands) {
+        if (operands == 1 && operator.getUnaryOperation() != null) {
+            return UNARY.bindTo(operator.getUnaryOperation());
+        }
+        if (operands == 2 && operator.getBinaryOperation() != null) {
+            return BINARY.bindTo(operator.getBinaryOperation());
+        }
+        return OPERATE.bindTo(operator).asCollector(double[].class, operands);
+    }
+
+    /**
+     * @param identifier The function's name.
+     * @param arguments The number of arguments.
+     * @param depth Depth of the tree at the call.
+     * @return Handle of type (double...)double calling a function.
+     */
+    private MethodHandle call(String identifier, int arguments, int depth) {
+        final MathFunction function;
+        try {
+            function = expression.getFunctions().getFunction(identifier, arguments);
+        } catch (RuntimeException exception) {
+            //Fail when evaluated, as the interpreter does.
+            return MethodHandles.insertArguments(APPLY, 0, identifier, expression).asCollector(double[].class, arguments);
+        }
+
+        if (function instanceof JavaFunction && ((JavaFunction)function).isPrimitive()) {
+            final JavaFunction primitive = (JavaFunction)function;
+            switch (arguments) {
+                case 0:
+                    return NULLARY.bindTo(primitive.getNullary());
+                case 1:
+                    final MethodHandle unary = UNARY.bindTo(primitive.getUnary());
+                    if (primitive.isAngular()) {
+                        return MethodHandles.filterArguments(unary, 0, MethodHandles.insertArguments(CONVERT, 0, expression.getAngle()));
+                    }
+                    return unary;
+                default:
+                    return BINARY.bindTo(primitive.getBinary());
+            }
+        }
+        if (function instanceof UserFunction) {
+            final UserFunction user = (UserFunction)function;
+            final CompiledExpression body = user.compile(expression.getFunctions(), expression.getOperators())
+                    .optimize(expression.getConstants(), expression.getAngle());
+            //Recursive calls and deep bodies are left to the interpreter.
+            if (inlined.contains(user) || inlined.size() == MAX_INLINE || body.getResult() < 0 || depth + depthOf(body) > MAX_DEPTH) {
+                return MethodHandles.insertArguments(INVOKE, 0, user, expression).asCollector(double[].class, arguments);
+            }
+            inlined.add(user);
+            final MethodHandle handle = generate(body, depth);
+            inlined.remove(inlined.size() - 1);
+            return handle.asCollector(double[].class, arguments);
+        }
+        return MethodHandles.insertArguments(APPLY, 0, identifier, expression).asCollector(double[].class, arguments);
+    }
+
+    /**
+     * Pass the values of operand handles to a target.
+     * @param target Handle of type (double...)double.
+     * @param operands Handles of type (double[])double, one per argument of the target.
+     * @return Handle of type (double[])double.
+     */
+    private static MethodHandle combine(MethodHandle target, MethodHandle[] operands) {
+        if (operands.length == 0) {
+            return MethodHandles.dropArguments(target, 0, double[].class);
+        }
+        //Every operand reads the same parameters.
+        return MethodHandles.permuteArguments(MethodHandles.filterArguments(target, 0, operands), EVALUATION, new int[operands.length]);
+    }
+
+    /**
+     * @return The longest chain of instructions leading to the result.
+     */
+    private static int depthOf(CompiledExpression code) {
+        final int[] depths = new int[code.size()];
+        int deepest = 0;
+        for (int idx = 0; idx != depths.length; ++idx) {
+            final CompiledExpression.Instruction instruction = code.getInstruction(idx);
+            for (int i = 0; i != instruction.getOperandCount(); ++i) {
+                depths[idx] = Math.max(depths[idx], depths[instruction.getOperand(i)]);
+            }
+            deepest = Math.max(deepest, ++depths[idx]);
+        }
+        return deepest;
+    }
+
+    private static boolean test(double condition) {
+        return condition != 0;
+    }
+
+    private static double[] borrow(int parameters, int size, double[] arguments) {
+        final double[] frame = EvaluationStack.current().borrow(size);
+        System.arraycopy(arguments, 0, frame, 0, parameters);
+        return frame;
+    }
+
+    private static double giveBack(Throwable failure, double result, double[] frame) {
+        EvaluationStack.current().giveBack();
+        return result;
+    }
+
+    private static double store(double[] frame, int slot, double value) {
+        frame[slot] = value;
+        return value;
+    }
+
+    private static double operate(Operator operator, double[] operands) {
+        final ArrayList<Double> arguments = new ArrayList<>(operands.length);
+        for (double operand : operands) {
+            arguments.add(operand);
+        }
+        return operator.apply(arguments);
+    }
+
+    private static double invoke(UserFunction function, CompiledExpression expression, double[] arguments) {
+        return function.compile(expression.getFunctions(), expression.getOperators()).optimize(expression.getConstants(), expression.getAngle())
+                .interpret(arguments, Collections.emptyMap(), expression.getConstants(), expression.getAngle());
+    }
+
+    private static double apply(String identifier, CompiledExpression expression, double[] arguments) {
+        final ArrayList<Number> operands = new ArrayList<>(arguments.length);
+        for (double argument : arguments) {
+            operands.add(argument);
+        }
+        final MathFunction.ParameterPack parameters = new MathFunction.ParameterPack(operands, expression.getFunctions(), expression.getConstants(), expression.getOperators(), expression.getAngle());
+        return expression.getFunctions().apply(identifier, parameters).doubleValue();
+    }
+
+    /**
+     * Bind a handle into a new hidden class copied from GeneratedEvaluator.
+     * @param handle Handle of type (double[])double.
+     * @return The hidden class's instance, or an Evaluator invoking the handle if hidden classes are unavailable.
+     */
+    private static Evaluator define(MethodHandle handle) {
+        if (TEMPLATE != null) {
+            try {
+                final MethodHandles.Lookup lookup = LOOKUP.defineHiddenClassWithClassData(TEMPLATE, handle, true);
+                return (Evaluator)lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+            } catch (Throwable throwable) {
+                //Fall back to invoking the handle.
+            }
+        }
+        return (vars) -> {
+            try {
+                return (double)handle.invokeExact(vars);
+            } catch (RuntimeException | Error exception) {
+                throw exception;
+            } catch (Throwable throwable) {
+                throw new RuntimeException(throwable);
+            }
+        };
+    }
+
+    private static byte[] readTemplate() {
+        try (InputStream stream = CodeGenerator.class.getResourceAsStream("GeneratedEvaluator.class")) {
+            return stream == null ? null : stream.readAllBytes();
+        } catch (IOException exception) {
+            return null;
+        }
+    }
+}
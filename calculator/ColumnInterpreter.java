@@ -0,0 +1,609 @@
+package calculator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Interprets a compiled expression over columns of values, one instruction at a time over a chunk of rows,
+ * so that dispatching an instruction costs once per chunk rather than once per row.
+ * Every instruction's values for a chunk are held in a buffer from the thread's ColumnStack,
+ * except for instructions reading a column, which read it in place, and uniform instructions,
+ * which depend on no column and are computed once per chunk as a single value.
+ * The default operators are applied by ColumnKernels, tan and the hyperbolic functions by ColumnMath,
+ * and other primitive operations by a loop calling them once per row.
+ * Buffers are assigned before evaluating, and reused by later instructions once every use of their values has passed.
+ * At a BRANCH the rows of a chunk are split by their condition, and each branch is only evaluated over the rows taking it,
+ * so that conditionals are as lazy as they are row by row.
+ * Once prepared, the interpreter is never modified, so slices of the rows may be evaluated on several threads at once.
+ */
+public class ColumnInterpreter {
+    /**
+     * Rows up to which a range is evaluated on the calling thread, as splitting fewer would cost more than it saves.
+     */
+    public static final int SEQUENTIAL_CUTOFF = 16 * ColumnStack.CHUNK;
+    /**
+     * Slices made for each thread of a pool, so that threads finishing early take over the rows of slower ones.
+     */
+    private static final int SLICES_PER_THREAD = 4;
+
+    private final CompiledExpression code;
+    private final Constants constants;
+    private final Calculator.Angle angle;
+    private final MathFunction[] targets;
+    private final DoubleUnaryOperator[] unaries;
+    private final DoubleBinaryOperator[] binaries;
+    private final ColumnKernels.Kernel[] kernels;
+    private final ColumnMath.Kernel[] mathKernels;
+    private final double[][] columns;
+    private final boolean[] uniform;
+    private final int[] buffers;
+    private final int bufferCount;
+    private final int nesting;
+    private final String[] boundNames;
+    private final double[][] boundColumns;
+
+    /**
+     * Prepare to evaluate an expression over columns.
+     * @param code The expression, which should already be pinned to its registries.
+     * @param columns Values of parameters and variables, one array per name. Variables without a column are resolved from the constants,
+     *                as are variables named after a parameter, which only user function bodies inlined into the expression may read.
+     * @param rows The number of rows every column must hold.
+     * @param constants Constants used to resolve variables.
+     * @param angle Angle mode passed to functions.
+     */
+    public ColumnInterpreter(CompiledExpression code, Map<String, double[]> columns, int rows, Constants constants, Calculator.Angle angle) {
+        if (code.getResult() < 0) {
+            throw new RuntimeException("Cannot evaluate an empty expression.");
+        }
+        final int size = code.size();
+        this.code = code;
+        this.constants = constants;
+        this.angle = angle;
+        this.targets = new MathFunction[size];
+        this.unaries = new DoubleUnaryOperator[size];
+        this.binaries = new DoubleBinaryOperator[size];
+        this.kernels = new ColumnKernels.Kernel[size];
+        this.mathKernels = new ColumnMath.Kernel[size];
+        this.columns = new double[size][];
+        this.uniform = new boolean[size];
+        this.buffers = new int[size];
+
+        //Functions see the columns of variables as ordinary constants.
+        final ArrayList<String> names = new ArrayList<>();
+        for (String name : columns.keySet()) {
+            if (!code.getParameters().contains(name)) {
+                names.add(name);
+            }
+        }
+        this.boundNames = names.toArray(new String[0]);
+        this.boundColumns = new double[boundNames.length][];
+        for (int i = 0; i != boundNames.length; ++i) {
+            boundColumns[i] = columns.get(boundNames[i]);
+            if (boundColumns[i].length < rows) {
+                throw new RuntimeException("The column " + boundNames[i] + " holds fewer than " + rows + " rows.");
+            }
+        }
+
+        final int[] lastUse = new int[size];
+        int depth = 0;
+        int deepest = 0;
+        for (int idx = 0; idx != size; ++idx) {
+            final CompiledExpression.Instruction instruction = code.getInstruction(idx);
+            boolean constant = true;
+            for (int i = 0; i != instruction.getOperandCount(); ++i) {
+                constant &= uniform[instruction.getOperand(i)];
+                lastUse[instruction.getOperand(i)] = idx;
+            }
+            switch (instruction.getType()) {
+                case CONSTANT:
+                    uniform[idx] = true;
+                    break;
+                case PARAMETER:
+                case VARIABLE:
+                    //Parameters are positional, so their columns are not visible as variables, as with the bound names.
+                    this.columns[idx] = instruction.getType() == CompiledExpression.Instruction.Type.VARIABLE && code.getParameters().contains(instruction.getIdentifier())
+                            ? null : columns.get(instruction.getIdentifier());
+                    if (this.columns[idx] == null && instruction.getType() == CompiledExpression.Instruction.Type.PARAMETER) {
+                        throw new RuntimeException("No column holds the parameter " + instruction.getIdentifier() + ".");
+                    }
+                    if (this.columns[idx] != null && this.columns[idx].length < rows) {
+                        throw new RuntimeException("The column " + instruction.getIdentifier() + " holds fewer than " + rows + " rows.");
+                    }
+                    uniform[idx] = this.columns[idx] == null;
+                    break;
+                case SELECT:
+                    --depth;
+                    uniform[idx] = constant;
+                    break;
+                case OPERATOR:
+                    uniform[idx] = constant;
+                    operations(instruction.getOperator(), instruction.getOperandCount(), idx);
+                    break;
+                case FUNCTION:
+                    targets[idx] = code.getFunctions().getFunction(instruction.getIdentifier(), instruction.getOperandCount());
+                    operations(targets[idx], idx);
+                    //Functions that may read the constants see a different scope on every row with columns of variables.
+                    uniform[idx] = constant && targets[idx] instanceof JavaFunction && targets[idx].isPure()
+                            && (boundNames.length == 0 || ((JavaFunction)targets[idx]).isPrimitive());
+                    break;
+                case BRANCH:
+                    deepest = Math.max(deepest, ++depth);
+                    break;
+                case JUMP:
+                    break;
+            }
+        }
+        lastUse[code.getResult()] = size;
+        this.nesting = deepest;
+
+        //Uniform values used by instructions over rows are repeated across a buffer.
+        final boolean[] repeated = new boolean[size];
+        for (int idx = 0; idx != size; ++idx) {
+            final CompiledExpression.Instruction instruction = code.getInstruction(idx);
+            if (!uniform[idx] && !instruction.isControl()) {
+                for (int i = 0; i != instruction.getOperandCount(); ++i) {
+                    repeated[instruction.getOperand(i)] |= uniform[instruction.getOperand(i)];
+                }
+            }
+        }
+
+        //Assign buffers in order, freeing each once its last use has passed.
+        final int[] free = new int[size];
+        int available = 0;
+        int count = 0;
+        for (int idx = 0; idx != size; ++idx) {
+            final CompiledExpression.Instruction instruction = code.getInstruction(idx);
+            buffers[idx] = -1;
+            if (!instruction.isControl() && this.columns[idx] == null && (!uniform[idx] || repeated[idx])) {
+                buffers[idx] = available > 0 ? free[--available] : count++;
+            }
+            for (int i = 0; i != instruction.getOperandCount(); ++i) {
+                final int operand = instruction.getOperand(i);
+                if (lastUse[operand] == idx && buffers[operand] >= 0) {
+                    free[available++] = buffers[operand];
+                    lastUse[operand] = -1;
+                }
+            }
+        }
+        this.bufferCount = count;
+    }
+
+    /**
+     * Find the primitive operation applied to every row by an operator of one or two operands,
+     * and the kernel applying it if it is one of the operations shared by the default operators.
+     */
+    private void operations(Operator operator, int operands, int idx) {
+        if (operands == 1) {
+            unaries[idx] = operator.getUnaryOperation() != null ? operator.getUnaryOperation() : operator::apply;
+            kernels[idx] = ColumnKernels.of(operator.getUnaryOperation());
+        }
+        else if (operands == 2) {
+            binaries[idx] = operator.getBinaryOperation() != null ? operator.getBinaryOperation() : operator::apply;
+            kernels[idx] = ColumnKernels.of(operator.getBinaryOperation());
+        }
+    }
+
+    /**
+     * Find the primitive operation applied to every row by a primitive function of one or two arguments,
+     * and the kernel applying it if it is one of the operations shared by the default functions.
+     */
+    private void operations(MathFunction function, int idx) {
+        if (!(function instanceof JavaFunction) || !((JavaFunction)function).isPrimitive()) {
+            return;
+        }
+        final JavaFunction primitive = (JavaFunction)function;
+        if (primitive.getUnary() != null) {
+            unaries[idx] = primitive.isAngular() ? (value) -> { return primitive.apply(value, angle); } : primitive.getUnary();
+            mathKernels[idx] = ColumnMath.of(primitive.getUnary());
+        }
+        else if (primitive.getBinary() != null) {
+            binaries[idx] = primitive.getBinary();
+        }
+    }
+
+    /**
+     * Evaluate a range of rows, using the calling thread's ColumnStack for intermediate values.
+     * @param out Receives the value of each row, at the row's index.
+     * @param from Index of the first row.
+     * @param to Index after the last row.
+     */
+    public void evaluate(double[] out, int from, int to) {
+        final ColumnStack stack = ColumnStack.current();
+        final int base = stack.reserve(bufferCount);
+        final int rowsBase = stack.reserveRows(2 * nesting);
+        try {
+            final int size = code.size();
+            final double[][] data = new double[size][];
+            for (int idx = 0; idx != size; ++idx) {
+                if (buffers[idx] >= 0) {
+                    data[idx] = stack.getBuffer(base + buffers[idx]);
+                }
+            }
+            final State state = new State(size, nesting, stack, rowsBase);
+            for (int start = from; start < to; start += ColumnStack.CHUNK) {
+                evaluateChunk(state, data, out, start, Math.min(ColumnStack.CHUNK, to - start));
+            }
+        } finally {
+            stack.releaseRows(rowsBase);
+            stack.release(base);
+        }
+    }
+
+    /**
+     * Evaluate a range of rows on the threads of a pool, split into slices of whole chunks.
+     * Each slice is evaluated as by evaluate, using the ColumnStack of the thread running it and writing only its own rows of out,
+     * so the value of every row is the same as when evaluating on one thread.
+     * Functions may be invoked by several threads at once, and on rows in any order.
+     * @param out Receives the value of each row, at the row's index.
+     * @param from Index of the first row.
+     * @param to Index after the last row.
+     * @param pool Pool whose threads evaluate the slices.
+     */
+    public void evaluate(double[] out, int from, int to, ForkJoinPool pool) {
+        if (to - from <= SEQUENTIAL_CUTOFF || pool.getParallelism() == 1) {
+            evaluate(out, from, to);
+            return;
+        }
+        final int slices = pool.getParallelism() * SLICES_PER_THREAD;
+        final int grain = Math.max(SEQUENTIAL_CUTOFF, (to - from) / slices);
+        try {
+            pool.invoke(new Slice(out, from, to, grain));
+        } catch (RuntimeException exception) {
+            //An exception thrown on another thread is rethrown as a copy wrapping it, whose message would differ.
+            final Throwable cause = exception.getCause();
+            if (cause != null && cause.getClass() == exception.getClass()) {
+                throw (RuntimeException)cause;
+            }
+            throw exception;
+        }
+    }
+
+    /**
+     * Rows evaluated as one task, which splits itself in halves at a chunk boundary until it holds no more than grain rows.
+     */
+    private class Slice extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final double[] out;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        Slice(double[] out, int from, int to, int grain) {
+            this.out = out;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                evaluate(out, from, to);
+                return;
+            }
+            final int middle = from + ((to - from) / 2 + ColumnStack.CHUNK - 1) / ColumnStack.CHUNK * ColumnStack.CHUNK;
+            invokeAll(new Slice(out, from, middle, grain), new Slice(out, middle, to, grain));
+        }
+    }
+
+    /**
+     * Values of one evaluation, which are reused from chunk to chunk.
+     */
+    private static class State {
+        final double[] scalars;
+        final int[] offsets;
+        final int[][] outerRows;
+        final int[] outerCounts;
+        final int[][] otherRows;
+        final int[] otherCounts;
+        final ColumnStack stack;
+        final int rowsBase;
+        Constants local;
+
+        State(int size, int nesting, ColumnStack stack, int rowsBase) {
+            this.scalars = new double[size];
+            this.offsets = new int[size];
+            this.outerRows = new int[nesting][];
+            this.outerCounts = new int[nesting];
+            this.otherRows = new int[nesting][];
+            this.otherCounts = new int[nesting];
+            this.stack = stack;
+            this.rowsBase = rowsBase;
+        }
+    }
+
+    /**
+     * Evaluate every instruction over the rows of one chunk.
+     * The rows being evaluated are listed by index within the chunk, or are all of them while the list is null.
+     */
+    private void evaluateChunk(State state, double[][] data, double[] out, int start, int length) {
+        final int size = code.size();
+        int[] rows = null;
+        int count = length;
+        int level = 0;
+
+        for (int idx = 0; idx < size; ++idx) {
+            final CompiledExpression.Instruction instruction = code.getInstruction(idx);
+            switch (instruction.getType()) {
+                case BRANCH: {
+                    final int condition = instruction.getOperand(0);
+                    state.outerRows[level] = rows;
+                    state.outerCounts[level] = count;
+                    int[] taken = rows;
+                    int takenCount = count;
+                    int[] other = rows;
+                    int otherCount = 0;
+                    if (uniform[condition]) {
+                        if (state.scalars[condition] == 0) {
+                            takenCount = 0;
+                            otherCount = count;
+                        }
+                    }
+                    else {
+                        taken = state.stack.getRows(state.rowsBase + 2 * level);
+                        other = state.stack.getRows(state.rowsBase + 2 * level + 1);
+                        takenCount = 0;
+                        final double[] values = data[condition];
+                        final int offset = state.offsets[condition];
+                        //Every row is written to both lists, and kept by one, so that the split does not depend on predicting the condition.
+                        for (int k = 0; k != count; ++k) {
+                            final int row = rows == null ? k : rows[k];
+                            final int nonzero = values[offset + row] != 0 ? 1 : 0;
+                            taken[takenCount] = row;
+                            other[otherCount] = row;
+                            takenCount += nonzero;
+                            otherCount += 1 - nonzero;
+                        }
+                    }
+                    state.otherRows[level] = other;
+                    state.otherCounts[level] = otherCount;
+                    ++level;
+                    rows = taken;
+                    count = takenCount;
+                    if (count == 0) {
+                        //Skip the taken branch, continuing at its JUMP.
+                        idx = code.getTarget(idx) - 2;
+                    }
+                    continue;
+                }
+                case JUMP:
+                    rows = state.otherRows[level - 1];
+                    count = state.otherCounts[level - 1];
+                    if (count == 0) {
+                        //Skip the other branch, continuing at its SELECT.
+                        idx = code.getTarget(idx) - 1;
+                    }
+                    continue;
+                case SELECT:
+                    --level;
+                    rows = state.outerRows[level];
+                    count = state.outerCounts[level];
+                    break;
+                default:
+                    break;
+            }
+            if (count == 0) {
+                continue;
+            }
+            if (columns[idx] != null) {
+                data[idx] = columns[idx];
+                state.offsets[idx] = start;
+            }
+            else if (uniform[idx]) {
+                state.scalars[idx] = evaluateUniform(instruction, idx, state.scalars);
+                if (buffers[idx] >= 0) {
+                    fill(data[idx], rows, count, state.scalars[idx]);
+                }
+            }
+            else {
+                evaluateRows(state, instruction, idx, data, start, rows, count);
+            }
+        }
+
+        final int result = code.getResult();
+        if (columns[result] != null) {
+            System.arraycopy(columns[result], start, out, start, length);
+        }
+        else if (uniform[result]) {
+            Arrays.fill(out, start, start + length, state.scalars[result]);
+        }
+        else {
+            System.arraycopy(data[result], 0, out, start, length);
+        }
+    }
+
+    /**
+     * @return The value of an instruction that is the same for every row.
+     */
+    private double evaluateUniform(CompiledExpression.Instruction instruction, int idx, double[] scalars) {
+        switch (instruction.getType()) {
+            case CONSTANT:
+                return instruction.getValue();
+            case VARIABLE:
+                return constants.getValue(instruction.getIdentifier());
+            case SELECT:
+                return scalars[instruction.getOperand(scalars[instruction.getOperand(0)] != 0 ? 1 : 2)];
+            case OPERATOR: {
+                final Operator operator = instruction.getOperator();
+                switch (instruction.getOperandCount()) {
+                    case 1:
+                        return operator.apply(scalars[instruction.getOperand(0)]);
+                    case 2:
+                        return operator.apply(scalars[instruction.getOperand(0)], scalars[instruction.getOperand(1)]);
+                    default:
+                        final ArrayList<Double> arguments = new ArrayList<>(instruction.getOperandCount());
+                        for (int i = 0; i != instruction.getOperandCount(); ++i) {
+                            arguments.add(scalars[instruction.getOperand(i)]);
+                        }
+                        return operator.apply(arguments);
+                }
+            }
+            default: {
+                final JavaFunction function = (JavaFunction)targets[idx];
+                if (function.isPrimitive()) {
+                    switch (instruction.getOperandCount()) {
+                        case 0:
+                            return function.apply();
+                        case 1:
+                            return function.apply(scalars[instruction.getOperand(0)], angle);
+                        default:
+                            return function.apply(scalars[instruction.getOperand(0)], scalars[instruction.getOperand(1)]);
+                    }
+                }
+                final ArrayList<Number> arguments = new ArrayList<>(instruction.getOperandCount());
+                for (int i = 0; i != instruction.getOperandCount(); ++i) {
+                    arguments.add(scalars[instruction.getOperand(i)]);
+                }
+                return function.apply(new MathFunction.ParameterPack(arguments, code.getFunctions(), constants, code.getOperators(), angle)).doubleValue();
+            }
+        }
+    }
+
+    /**
+     * Evaluate an instruction over every listed row of a chunk, into its buffer.
+     */
+    private void evaluateRows(State state, CompiledExpression.Instruction instruction, int idx, double[][] data, int start, int[] rows, int count) {
+        final double[] values = data[idx];
+        final int[] offsets = state.offsets;
+
+        if (instruction.getType() == CompiledExpression.Instruction.Type.SELECT) {
+            final int condition = instruction.getOperand(0);
+            final int taken = instruction.getOperand(1);
+            final int other = instruction.getOperand(2);
+            select(data[condition], offsets[condition], data[taken], offsets[taken], data[other], offsets[other], values, rows, count);
+            return;
+        }
+        if (kernels[idx] != null) {
+            if (instruction.getOperandCount() == 1) {
+                final int operand = instruction.getOperand(0);
+                ColumnKernels.apply(kernels[idx], data[operand], offsets[operand], values, rows, count);
+            }
+            else {
+                final int lhs = instruction.getOperand(0);
+                final int rhs = instruction.getOperand(1);
+                ColumnKernels.apply(kernels[idx], data[lhs], offsets[lhs], data[rhs], offsets[rhs], values, rows, count);
+            }
+            return;
+        }
+        if (mathKernels[idx] != null) {
+            final int operand = instruction.getOperand(0);
+            final Calculator.Angle conversion = ((JavaFunction)targets[idx]).isAngular() ? angle : null;
+            ColumnMath.apply(mathKernels[idx], data[operand], offsets[operand], conversion, values, rows, count);
+            return;
+        }
+        if (unaries[idx] != null) {
+            final int operand = instruction.getOperand(0);
+            unary(unaries[idx], data[operand], offsets[operand], values, rows, count);
+            return;
+        }
+        if (binaries[idx] != null) {
+            final int lhs = instruction.getOperand(0);
+            final int rhs = instruction.getOperand(1);
+            binary(binaries[idx], data[lhs], offsets[lhs], data[rhs], offsets[rhs], values, rows, count);
+            return;
+        }
+        if (instruction.getType() == CompiledExpression.Instruction.Type.OPERATOR) {
+            for (int k = 0; k != count; ++k) {
+                final int row = rows == null ? k : rows[k];
+                final ArrayList<Double> arguments = new ArrayList<>(instruction.getOperandCount());
+                for (int i = 0; i != instruction.getOperandCount(); ++i) {
+                    arguments.add(data[instruction.getOperand(i)][offsets[instruction.getOperand(i)] + row]);
+                }
+                values[row] = instruction.getOperator().apply(arguments);
+            }
+            return;
+        }
+
+        final MathFunction function = targets[idx];
+        if (function instanceof JavaFunction && ((JavaFunction)function).isPrimitive()) {
+            for (int k = 0; k != count; ++k) {
+                values[rows == null ? k : rows[k]] = ((JavaFunction)function).apply();
+            }
+            return;
+        }
+        //Other functions, such as user functions, are invoked row by row.
+        for (int k = 0; k != count; ++k) {
+            final int row = rows == null ? k : rows[k];
+            final ArrayList<Number> arguments = new ArrayList<>(instruction.getOperandCount());
+            for (int i = 0; i != instruction.getOperandCount(); ++i) {
+                arguments.add(data[instruction.getOperand(i)][offsets[instruction.getOperand(i)] + row]);
+            }
+            final MathFunction.ParameterPack parameters = new MathFunction.ParameterPack(arguments, code.getFunctions(), scope(state, start + row), code.getOperators(), angle);
+            //Without a target, the functions report the missing overload.
+            values[row] = function != null ? function.apply(parameters).doubleValue() : code.getFunctions().apply(instruction.getIdentifier(), parameters);
+        }
+    }
+
+    /**
+     * Each evaluation reuses one scope of the bound names, whose values are replaced by those of every row in turn.
+     * @param row Index of a row within the columns.
+     * @return The constants seen by functions invoked for the row.
+     */
+    private Constants scope(State state, int row) {
+        if (boundNames.length == 0) {
+            return constants;
+        }
+        if (state.local == null) {
+            state.local = Constants.scope(constants, boundNames);
+        }
+        for (int i = 0; i != boundNames.length; ++i) {
+            state.local.setValue(i, boundColumns[i][row]);
+        }
+        return state.local;
+    }
+
+    private static void unary(DoubleUnaryOperator operation, double[] operands, int offset, double[] values, int[] rows, int count) {
+        if (rows == null) {
+            for (int i = 0; i != count; ++i) {
+                values[i] = operation.applyAsDouble(operands[offset + i]);
+            }
+            return;
+        }
+        for (int k = 0; k != count; ++k) {
+            final int row = rows[k];
+            values[row] = operation.applyAsDouble(operands[offset + row]);
+        }
+    }
+
+    private static void binary(DoubleBinaryOperator operation, double[] lhs, int lhsOffset, double[] rhs, int rhsOffset, double[] values, int[] rows, int count) {
+        if (rows == null) {
+            for (int i = 0; i != count; ++i) {
+                values[i] = operation.applyAsDouble(lhs[lhsOffset + i], rhs[rhsOffset + i]);
+            }
+            return;
+        }
+        for (int k = 0; k != count; ++k) {
+            final int row = rows[k];
+            values[row] = operation.applyAsDouble(lhs[lhsOffset + row], rhs[rhsOffset + row]);
+        }
+    }
+
+    private static void select(double[] conditions, int conditionOffset, double[] taken, int takenOffset, double[] other, int otherOffset, double[] values, int[] rows, int count) {
+        if (rows == null) {
+            for (int i = 0; i != count; ++i) {
+                values[i] = conditions[conditionOffset + i] != 0 ? taken[takenOffset + i] : other[otherOffset + i];
+            }
+            return;
+        }
+        for (int k = 0; k != count; ++k) {
+            final int row = rows[k];
+            values[row] = conditions[conditionOffset + row] != 0 ? taken[takenOffset + row] : other[otherOffset + row];
+        }
+    }
+
+    private static void fill(double[] values, int[] rows, int count, double value) {
+        if (rows == null) {
+            Arrays.fill(values, 0, count, value);
+            return;
+        }
+        for (int k = 0; k != count; ++k) {
+            values[rows[k]] = value;
+        }
+    }
+}
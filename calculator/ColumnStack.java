@@ -0,0 +1,106 @@
+package calculator;
+
+import java.util.Arrays;
+
+/**
+ * Reusable buffers for evaluating compiled expressions over columns on a single thread.
+ * Every batch reserves the buffers it needs on top of the stack and releases them when finished,
+ * so evaluating batch after batch does not allocate once the stack has grown to fit them.
+ */
+public class ColumnStack {
+    /**
+     * Rows held by each buffer, which is how many rows of a batch are evaluated at a time.
+     */
+    public static final int CHUNK = 1024;
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final ThreadLocal<ColumnStack> CURRENT = ThreadLocal.withInitial(ColumnStack::new);
+
+    private double[][] buffers;
+    private int top;
+
+    private int[][] rows;
+    private int rowsTop;
+
+    public ColumnStack() {
+        buffers = new double[INITIAL_CAPACITY][];
+        rows = new int[INITIAL_CAPACITY][];
+    }
+
+    /**
+     * @return The stack belonging to the calling thread.
+     */
+    public static ColumnStack current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Reserve buffers of values on top of the stack.
+     * @param count The number of buffers.
+     * @return Index of the first buffer.
+     */
+    public int reserve(int count) {
+        final int base = top;
+        if (base + count > buffers.length) {
+            buffers = Arrays.copyOf(buffers, Math.max(buffers.length * 2, base + count));
+        }
+        for (int i = base; i != base + count; ++i) {
+            if (buffers[i] == null) {
+                buffers[i] = new double[CHUNK];
+            }
+        }
+        top = base + count;
+        return base;
+    }
+
+    /**
+     * Release buffers of values and every buffer reserved after them.
+     * @param base Index returned when the buffers were reserved.
+     */
+    public void release(int base) {
+        top = base;
+    }
+
+    /**
+     * @param index Index of a reserved buffer.
+     * @return The buffer, holding CHUNK values.
+     */
+    public double[] getBuffer(int index) {
+        return buffers[index];
+    }
+
+    /**
+     * Reserve lists of row indices on top of the stack.
+     * @param count The number of lists.
+     * @return Index of the first list.
+     */
+    public int reserveRows(int count) {
+        final int base = rowsTop;
+        if (base + count > rows.length) {
+            rows = Arrays.copyOf(rows, Math.max(rows.length * 2, base + count));
+        }
+        for (int i = base; i != base + count; ++i) {
+            if (rows[i] == null) {
+                rows[i] = new int[CHUNK];
+            }
+        }
+        rowsTop = base + count;
+        return base;
+    }
+
+    /**
+     * Release lists of row indices and every list reserved after them.
+     * @param base Index returned when the lists were reserved.
+     */
+    public void releaseRows(int base) {
+        rowsTop = base;
+    }
+
+    /**
+     * @param index Index of a reserved list.
+     * @return The list, with room for CHUNK rows.
+     */
+    public int[] getRows(int index) {
+        return rows[index];
+    }
+}
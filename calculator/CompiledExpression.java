@@ -0,0 +1,1079 @@
+package calculator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * An expression that has been parsed once into a flat list of instructions.
+ * Each instruction refers to the results of earlier instructions, so evaluation is a single pass.
+ * Conditionals are laid out as a BRANCH on their condition, the instructions of the taken branch followed by a JUMP,
+ * the instructions of the other branch, and a SELECT joining them, so that only one branch is ever evaluated.
+ * Compiled expressions are immutable and may be evaluated any number of times with different bindings.
+ * Each evaluation pins one snapshot of every registry, so that it is unaffected by edits made meanwhile.
+ */
+public class CompiledExpression {
+    /**
+     * A single step of a compiled expression.
+     */
+    public static class Instruction {
+        public enum Type {
+            CONSTANT,
+            PARAMETER,
+            VARIABLE,
+            OPERATOR,
+            FUNCTION,
+            /**
+             * Continue after the matching JUMP unless the condition, its operand, is nonzero.
+             */
+            BRANCH,
+            /**
+             * End the branch taken when the condition is nonzero, continuing at the matching SELECT.
+             */
+            JUMP,
+            /**
+             * The value of the second operand if the first, the condition, is nonzero, and otherwise of the third.
+             */
+            SELECT
+        }
+
+        private final Type type;
+        private final double value;
+        private final String identifier;
+        private final Operator operator;
+        private final int[] operands;
+
+        private Instruction(Type type, double value, String identifier, Operator operator, int[] operands) {
+            this.type = type;
+            this.value = value;
+            this.identifier = identifier;
+            this.operator = operator;
+            this.operands = operands;
+        }
+
+        public static Instruction constant(double value) {
+            return new Instruction(Type.CONSTANT, value, null, null, new int[0]);
+        }
+
+        public static Instruction parameter(String identifier, int slot) {
+            return new Instruction(Type.PARAMETER, slot, identifier, null, new int[0]);
+        }
+
+        public static Instruction variable(String identifier) {
+            return new Instruction(Type.VARIABLE, 0, identifier, null, new int[0]);
+        }
+
+        public static Instruction operator(Operator operator, int[] operands) {
+            return new Instruction(Type.OPERATOR, 0, operator.getIdentifier(), operator, operands);
+        }
+
+        public static Instruction function(String identifier, int[] arguments) {
+            return new Instruction(Type.FUNCTION, 0, identifier, null, arguments);
+        }
+
+        public static Instruction branch(int condition) {
+            return new Instruction(Type.BRANCH, 0, null, null, new int[] {condition});
+        }
+
+        public static Instruction jump() {
+            return new Instruction(Type.JUMP, 0, null, null, new int[0]);
+        }
+
+        public static Instruction select(int condition, int taken, int otherwise) {
+            return new Instruction(Type.SELECT, 0, null, null, new int[] {condition, taken, otherwise});
+        }
+
+        /**
+         * @return True if the instruction only directs which instructions are evaluated, and has no value.
+         */
+        public boolean isControl() {
+            return type == Type.BRANCH || type == Type.JUMP;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        /**
+         * @return The positional slot read by a PARAMETER instruction.
+         */
+        public int getSlot() {
+            return (int)value;
+        }
+
+        public String getIdentifier() {
+            return identifier;
+        }
+
+        public Operator getOperator() {
+            return operator;
+        }
+
+        /**
+         * @return The number of earlier results consumed by this instruction.
+         */
+        public int getOperandCount() {
+            return operands.length;
+        }
+
+        /**
+         * @param index The position of the operand.
+         * @return The index of the instruction whose result is used as that operand.
+         */
+        public int getOperand(int index) {
+            return operands[index];
+        }
+
+        /**
+         * Renumber the operands, as when instructions are removed or reordered.
+         * @param moved The new index of each instruction, by its old index.
+         * @return The instruction with its operands at their new positions, or the instruction itself if it has none.
+         */
+        public Instruction withOperands(int[] moved) {
+            final int count = operands.length;
+            if (count == 0) {
+                return this;
+            }
+            final int[] renumbered = new int[count];
+            for (int i = 0; i != count; ++i) {
+                renumbered[i] = moved[operands[i]];
+            }
+            switch (type) {
+                case OPERATOR:
+                    return operator(operator, renumbered);
+                case BRANCH:
+                    return branch(renumbered[0]);
+                case SELECT:
+                    return select(renumbered[0], renumbered[1], renumbered[2]);
+                default:
+                    return function(identifier, renumbered);
+            }
+        }
+    }
+
+    /**
+     * Generated code along with the versions of the registries it was generated from.
+     */
+    private static class Generated {
+        final Evaluator evaluator;
+        final int functionsVersion;
+        final int operatorsVersion;
+        final int constantsVersion;
+
+        Generated(Evaluator evaluator, int functionsVersion, int operatorsVersion, int constantsVersion) {
+            this.evaluator = evaluator;
+            this.functionsVersion = functionsVersion;
+            this.operatorsVersion = operatorsVersion;
+            this.constantsVersion = constantsVersion;
+        }
+
+        boolean isCurrent(Functions functions, OperatorList operators, Constants constants) {
+            return functionsVersion == functions.getVersion() && operatorsVersion == operators.getVersion()
+                    && constantsVersion == valueVersionOf(constants);
+        }
+    }
+
+    /**
+     * An optimized expression along with the environment and versions it was optimized for.
+     */
+    private static class Optimized {
+        final CompiledExpression expression;
+        final Constants constants;
+        final Calculator.Angle angle;
+        final int functionsVersion;
+        final int operatorsVersion;
+        final int constantsVersion;
+
+        Optimized(CompiledExpression expression, Constants constants, Calculator.Angle angle, int functionsVersion, int operatorsVersion, int constantsVersion) {
+            this.expression = expression;
+            this.constants = constants;
+            this.angle = angle;
+            this.functionsVersion = functionsVersion;
+            this.operatorsVersion = operatorsVersion;
+            this.constantsVersion = constantsVersion;
+        }
+
+        boolean isCurrent(Functions functions, OperatorList operators, Constants constants, Calculator.Angle angle) {
+            return this.constants == constants && this.angle == angle && functionsVersion == functions.getVersion()
+                    && operatorsVersion == operators.getVersion() && constantsVersion == valueVersionOf(constants);
+        }
+    }
+
+    /**
+     * The function called by each instruction, as of one version of the functions.
+     */
+    private static class Linked {
+        final MathFunction[] targets;
+        final int functionsVersion;
+
+        Linked(MathFunction[] targets, int functionsVersion) {
+            this.targets = targets;
+            this.functionsVersion = functionsVersion;
+        }
+    }
+
+    /**
+     * How an expression is currently evaluated.
+     */
+    public enum Tier {
+        INTERPRETED,
+        GENERATED
+    }
+
+    private static final double[] NO_ARGUMENTS = new double[0];
+
+    /**
+     * Variables read by an expression calling a function that is passed the constants, which may read any of them.
+     */
+    private static final List<String> ANY_VARIABLE = Collections.unmodifiableList(new ArrayList<>());
+
+    private final Instruction[] instructions;
+    private final int[] jumps;
+    private final int result;
+    private final List<String> parameters;
+    private final List<String> variables;
+    private final Functions functions;
+    private final OperatorList operators;
+    private final Constants constants;
+    private final Calculator.Angle angle;
+    private final int maxDepth;
+    private final int tierThreshold;
+    private volatile Generated generated;
+    private volatile Optimized optimized;
+    private volatile Linked linked;
+    private volatile Tape tape;
+    private volatile Parallelizer.Plan plan;
+    private volatile List<String> reads;
+    private volatile CompiledExpression pinned;
+    private int executions;
+
+    /**
+     * @param instructions The instructions in evaluation order.
+     * @param result Index of the instruction holding the expression's value, or -1 if the expression is empty.
+     * @param parameters Names of the positional parameters, in slot order.
+     * @param functions Functions invoked by the expression.
+     * @param operators Operators the expression was parsed with.
+     * @param constants Constants used to resolve unbound variables.
+     * @param angle Angle mode used by trigonometric functions.
+     * @param maxDepth Maximum nesting of user function calls while evaluating.
+     * @param tierThreshold Evaluations interpreted before generating code, or negative to always interpret.
+     */
+    public CompiledExpression(List<Instruction> instructions, int result, List<String> parameters, Functions functions, OperatorList operators, Constants constants, Calculator.Angle angle, int maxDepth, int tierThreshold) {
+        this.instructions = instructions.toArray(new Instruction[0]);
+        this.jumps = matchBranches(this.instructions);
+        this.result = result;
+        this.parameters = Collections.unmodifiableList(new ArrayList<>(parameters));
+        this.functions = functions;
+        this.operators = operators;
+        this.constants = constants;
+        this.angle = angle;
+        this.maxDepth = maxDepth;
+        this.tierThreshold = tierThreshold;
+
+        final ArrayList<String> names = new ArrayList<>();
+        for (Instruction instruction : this.instructions) {
+            if (instruction.type == Instruction.Type.VARIABLE && !names.contains(instruction.identifier)) {
+                names.add(instruction.identifier);
+            }
+        }
+        this.variables = Collections.unmodifiableList(names);
+    }
+
+    /**
+     * An expression sharing the instructions of another, bound to other registries.
+     */
+    private CompiledExpression(CompiledExpression other, Functions functions, OperatorList operators, Constants constants) {
+        this.instructions = other.instructions;
+        this.jumps = other.jumps;
+        this.result = other.result;
+        this.parameters = other.parameters;
+        this.variables = other.variables;
+        this.functions = functions;
+        this.operators = operators;
+        this.constants = constants;
+        this.angle = other.angle;
+        this.maxDepth = other.maxDepth;
+        this.tierThreshold = other.tierThreshold;
+    }
+
+    /**
+     * Pair every BRANCH with its JUMP and SELECT, which must nest like brackets and test the same condition.
+     * @return Array holding, at the index of each BRANCH, the first instruction after its JUMP, and at the index of each JUMP, its SELECT.
+     */
+    private static int[] matchBranches(Instruction[] instructions) {
+        final int[] jumps = new int[instructions.length];
+        final int[] open = new int[instructions.length];
+        int depth = 0;
+        for (int idx = 0; idx != instructions.length; ++idx) {
+            switch (instructions[idx].type) {
+                case BRANCH:
+                    open[depth++] = idx;
+                    break;
+                case JUMP:
+                    if (depth == 0 || instructions[open[depth - 1]].type != Instruction.Type.BRANCH) {
+                        throw new RuntimeException("Unbalanced conditional.");
+                    }
+                    jumps[open[depth - 1]] = idx + 1;
+                    open[depth++] = idx;
+                    break;
+                case SELECT:
+                    if (depth < 2 || instructions[open[depth - 1]].type != Instruction.Type.JUMP
+                            || instructions[open[depth - 2]].operands[0] != instructions[idx].operands[0]) {
+                        throw new RuntimeException("Unbalanced conditional.");
+                    }
+                    jumps[open[depth - 1]] = idx;
+                    depth -= 2;
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (depth != 0) {
+            throw new RuntimeException("Unbalanced conditional.");
+        }
+        return jumps;
+    }
+
+    /**
+     * @param instructions The instructions in evaluation order.
+     * @param result Index of the instruction holding the expression's value.
+     * @return An expression compiled against the same environment with other instructions.
+     */
+    CompiledExpression rewrite(List<Instruction> instructions, int result) {
+        return new CompiledExpression(instructions, result, parameters, functions, operators, constants, angle, maxDepth, tierThreshold);
+    }
+
+    /**
+     * @return The number of instructions in this expression.
+     */
+    public int size() {
+        return instructions.length;
+    }
+
+    public Instruction getInstruction(int index) {
+        return instructions[index];
+    }
+
+    /**
+     * @param index Index of a BRANCH or JUMP instruction.
+     * @return Index of the first instruction of the branch skipped to by a BRANCH, or of the SELECT ending the branches of a JUMP.
+     */
+    public int getTarget(int index) {
+        return jumps[index];
+    }
+
+    /**
+     * @return Index of the instruction holding the final value, or -1 for an empty expression.
+     */
+    public int getResult() {
+        return result;
+    }
+
+    /**
+     * @return Names of the positional parameters, in slot order.
+     */
+    public List<String> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * @return Every distinct identifier resolved at evaluation time, in order of appearance.
+     */
+    public List<String> getVariables() {
+        return variables;
+    }
+
+    public Functions getFunctions() {
+        return functions;
+    }
+
+    public OperatorList getOperators() {
+        return operators;
+    }
+
+    public Constants getConstants() {
+        return constants;
+    }
+
+    public Calculator.Angle getAngle() {
+        return angle;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public int getTierThreshold() {
+        return tierThreshold;
+    }
+
+    /**
+     * @return The tier evaluating this expression against the constants and angle mode it was compiled with.
+     */
+    public Tier getTier() {
+        final CompiledExpression code = pin();
+        if (code != this) {
+            return code.getTier();
+        }
+        final Generated current = generated;
+        return current != null && current.isCurrent(functions, operators, constants) ? Tier.GENERATED : Tier.INTERPRETED;
+    }
+
+    /**
+     * @return The number of evaluations counted towards the tier threshold.
+     */
+    public int getExecutions() {
+        final CompiledExpression code = pin();
+        return code != this ? code.getExecutions() : executions;
+    }
+
+    /**
+     * Bind this expression to the current snapshots of its registries.
+     * The bound copy is kept, along with everything optimized, linked and generated for it, until any registry is edited.
+     * @return An expression bound to snapshots only, which is this expression if it already is.
+     */
+    CompiledExpression pin() {
+        final Functions functions = this.functions.snapshot();
+        final OperatorList operators = this.operators.snapshot();
+        final Constants constants = snapshotOf(this.constants);
+        if (functions == this.functions && operators == this.operators && constants == this.constants) {
+            return this;
+        }
+        final CompiledExpression current = pinned;
+        if (current != null && current.functions == functions && current.operators == operators && current.constants == constants) {
+            return current;
+        }
+        return repin(functions, operators, constants);
+    }
+
+    private synchronized CompiledExpression repin(Functions functions, OperatorList operators, Constants constants) {
+        final CompiledExpression stale = pinned;
+        if (stale != null && stale.functions == functions && stale.operators == operators && stale.constants == constants) {
+            return stale;
+        }
+        //Code generated for earlier snapshots is discarded and the count starts again.
+        if (stale != null && stale.generated != null) {
+            TierMetrics.GLOBAL.demoted();
+        }
+        final CompiledExpression current = new CompiledExpression(this, functions, operators, constants);
+        pinned = current;
+        return current;
+    }
+
+    private static Constants snapshotOf(Constants constants) {
+        return constants == null ? null : constants.snapshot();
+    }
+
+    /**
+     * Evaluate the expression against the constants it was compiled with.
+     * @return The value of the expression.
+     */
+    public double evaluate() {
+        return evaluate(Collections.emptyMap());
+    }
+
+    /**
+     * Evaluate the expression, resolving variables from the bindings before the constants.
+     * @param bindings Values for variables, which shadow constants of the same name.
+     * @return The value of the expression.
+     */
+    public double evaluate(Map<String, Double> bindings) {
+        return evaluate(NO_ARGUMENTS, bindings, constants, angle);
+    }
+
+    /**
+     * Evaluate the expression with values for its positional parameters.
+     * @param arguments One value per parameter, in slot order.
+     * @return The value of the expression.
+     */
+    public double evaluate(double... arguments) {
+        return evaluate(arguments, constants, angle);
+    }
+
+    /**
+     * Evaluate the expression within another environment, such as the body of a function being invoked.
+     * @param arguments One value per parameter, in slot order.
+     * @param constants Constants used to resolve variables.
+     * @param angle Angle mode passed to functions.
+     * @return The value of the expression.
+     */
+    public double evaluate(double[] arguments, Constants constants, Calculator.Angle angle) {
+        return evaluate(arguments, Collections.emptyMap(), constants, angle);
+    }
+
+    private double evaluate(double[] arguments, Map<String, Double> bindings, Constants constants, Calculator.Angle angle) {
+        final CompiledExpression code = pin();
+        if (code != this) {
+            return code.evaluate(arguments, bindings, constants == this.constants ? code.constants : snapshotOf(constants), angle);
+        }
+        if (arguments.length != parameters.size()) {
+            throw new RuntimeException("Expected " + parameters.size() + " arguments but received " + arguments.length);
+        }
+        final Constants environment = unlayer(constants);
+        if (!bindings.isEmpty()) {
+            return interpret(arguments, bindings, environment, angle);
+        }
+        //Generated code only knows the environment it was compiled with.
+        if (environment == this.constants && angle == this.angle) {
+            final Evaluator evaluator = tier();
+            if (evaluator != null) {
+                return evaluator.eval(arguments);
+            }
+        }
+        return optimize(environment, angle).interpret(arguments, bindings, environment, angle);
+    }
+
+    /**
+     * Layers over the constants an expression was compiled with, such as a session's variables and registers,
+     * publish a new snapshot whenever they change, so expressions reading nothing they define are evaluated without them,
+     * keeping their optimized expression and generated code.
+     * @return The constants this expression was compiled with if the given constants are layered over them
+     *         and define nothing it reads, or else the given constants.
+     */
+    private Constants unlayer(Constants constants) {
+        if (constants == this.constants || constants == null || this.constants == null) {
+            return constants;
+        }
+        final List<String> names = reads();
+        if (names == ANY_VARIABLE) {
+            return constants;
+        }
+        for (Constants table = constants; table != null; table = table.getParent()) {
+            if (table == this.constants) {
+                return table;
+            }
+            for (String name : names) {
+                if (table.slotOf(name) >= 0) {
+                    return constants;
+                }
+            }
+        }
+        return constants;
+    }
+
+    /**
+     * A pinned expression's functions never change, so neither do the variables it reads, which are kept for later calls.
+     * @return Every variable read by this expression and the user functions it calls, or ANY_VARIABLE.
+     */
+    private List<String> reads() {
+        List<String> current = reads;
+        if (current == null) {
+            final ArrayList<String> names = new ArrayList<>();
+            current = collectReads(this, names, new HashSet<>()) ? Collections.unmodifiableList(names) : ANY_VARIABLE;
+            reads = current;
+        }
+        return current;
+    }
+
+    /**
+     * Add the variables read by an expression and the user functions it calls to a list.
+     * @param visited User functions whose bodies have already been added.
+     * @return False if the expression calls a function that is passed the constants.
+     */
+    private static boolean collectReads(CompiledExpression code, List<String> names, HashSet<UserFunction> visited) {
+        for (String name : code.variables) {
+            if (!names.contains(name)) {
+                names.add(name);
+            }
+        }
+        for (Instruction instruction : code.instructions) {
+            if (instruction.type != Instruction.Type.FUNCTION) {
+                continue;
+            }
+            final MathFunction function = code.functions.getFunction(instruction.identifier, instruction.operands.length);
+            if (function instanceof UserFunction) {
+                final UserFunction user = (UserFunction)function;
+                if (!visited.add(user)) {
+                    continue;
+                }
+                final CompiledExpression body;
+                try {
+                    body = user.compile(code.functions, code.operators);
+                } catch (RuntimeException exception) {
+                    //Calling the function fails whatever the constants are.
+                    continue;
+                }
+                if (!collectReads(body, names, visited)) {
+                    return false;
+                }
+            }
+            else if (function != null && !(function instanceof JavaFunction && ((JavaFunction)function).isPrimitive())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Evaluate the expression once per row of a set of columns, one instruction at a time over many rows.
+     * tan and the hyperbolic functions are computed by ColumnMath, so their values may differ from those of row by row evaluation
+     * by the few ulps it states. Every other function gives the same values as row by row evaluation.
+     * @param columns Values of parameters and variables, one array per name, which shadow constants of the same name.
+     * @param out Receives the value of each row. Every column must hold at least as many rows.
+     */
+    public void evaluateBatch(Map<String, double[]> columns, double[] out) {
+        evaluateBatch(columns, out, constants, angle);
+    }
+
+    /**
+     * Evaluate the expression once per row of a set of columns within another environment.
+     * @param columns Values of parameters and variables, one array per name, which shadow constants of the same name.
+     * @param out Receives the value of each row. Every column must hold at least as many rows.
+     * @param constants Constants used to resolve variables without a column.
+     * @param angle Angle mode passed to functions.
+     */
+    public void evaluateBatch(Map<String, double[]> columns, double[] out, Constants constants, Calculator.Angle angle) {
+        final CompiledExpression code = pin();
+        if (code != this) {
+            code.evaluateBatch(columns, out, constants == this.constants ? code.constants : snapshotOf(constants), angle);
+            return;
+        }
+        batch(columns, out.length, constants, angle).evaluate(out, 0, out.length);
+    }
+
+    /**
+     * Evaluate the expression once per row of a set of columns, as evaluateBatch does,
+     * with the rows split between the threads of the common pool unless there are too few to be worth it.
+     * The value of every row is the same as that of evaluateBatch, but functions may be invoked by several threads at once.
+     * @param columns Values of parameters and variables, one array per name, which shadow constants of the same name.
+     * @param out Receives the value of each row. Every column must hold at least as many rows.
+     */
+    public void evaluateParallel(Map<String, double[]> columns, double[] out) {
+        evaluateParallel(columns, out, constants, angle, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Evaluate the expression once per row of a set of columns within another environment, on the threads of a pool.
+     * @param columns Values of parameters and variables, one array per name, which shadow constants of the same name.
+     * @param out Receives the value of each row. Every column must hold at least as many rows.
+     * @param constants Constants used to resolve variables without a column.
+     * @param angle Angle mode passed to functions.
+     * @param pool Pool whose threads evaluate the rows.
+     */
+    public void evaluateParallel(Map<String, double[]> columns, double[] out, Constants constants, Calculator.Angle angle, ForkJoinPool pool) {
+        final CompiledExpression code = pin();
+        if (code != this) {
+            code.evaluateParallel(columns, out, constants == this.constants ? code.constants : snapshotOf(constants), angle, pool);
+            return;
+        }
+        batch(columns, out.length, constants, angle).evaluate(out, 0, out.length, pool);
+    }
+
+    /**
+     * Prepare to evaluate this expression over columns.
+     * Columns shadowing a constant would be folded away by the optimizer, so they are evaluated as compiled.
+     * @return Interpreter evaluating the rows of the columns.
+     */
+    ColumnInterpreter batch(Map<String, double[]> columns, int rows, Constants constants, Calculator.Angle angle) {
+        for (String name : columns.keySet()) {
+            if (!parameters.contains(name) && constants.isDefined(name)) {
+                return new ColumnInterpreter(this, columns, rows, constants, angle);
+            }
+        }
+        return new ColumnInterpreter(optimize(constants, angle), columns, rows, constants, angle);
+    }
+
+    /**
+     * Evaluate the expression with the interpreter, whatever its tier, splitting heavy independent subexpressions off to other threads.
+     * @param arguments One value per parameter, in slot order.
+     * @param bindings Values for variables, which shadow constants of the same name.
+     * @param constants Constants used to resolve variables.
+     * @param angle Angle mode passed to functions.
+     * @return The value of the expression.
+     */
+    double interpret(double[] arguments, Map<String, Double> bindings, Constants constants, Calculator.Angle angle) {
+        final CompiledExpression code = pin();
+        if (code != this) {
+            return code.interpret(arguments, bindings, constants == this.constants ? code.constants : snapshotOf(constants), angle);
+        }
+        if (arguments.length != parameters.size()) {
+            throw new RuntimeException("Expected " + parameters.size() + " arguments but received " + arguments.length);
+        }
+        //Heavy independent subexpressions are evaluated on other threads, unless bindings make a new scope for each evaluation.
+        if (bindings.isEmpty()) {
+            final Parallelizer.Plan plan = split();
+            if (plan.isSplit()) {
+                return plan.evaluate(arguments, constants, angle);
+            }
+        }
+        return interpretSequentially(arguments, bindings, constants, angle);
+    }
+
+    /**
+     * Evaluate the expression with the interpreter on the calling thread alone.
+     * @param arguments One value per parameter, in slot order.
+     * @param bindings Values for variables, which shadow constants of the same name.
+     * @param constants Constants used to resolve variables.
+     * @param angle Angle mode passed to functions.
+     * @return The value of the expression.
+     */
+    double interpretSequentially(double[] arguments, Map<String, Double> bindings, Constants constants, Calculator.Angle angle) {
+        final CompiledExpression code = pin();
+        if (code != this) {
+            return code.interpretSequentially(arguments, bindings, constants == this.constants ? code.constants : snapshotOf(constants), angle);
+        }
+        if (arguments.length != parameters.size()) {
+            throw new RuntimeException("Expected " + parameters.size() + " arguments but received " + arguments.length);
+        }
+        final EvaluationStack stack = EvaluationStack.current();
+        final int frame = stack.reserve(getFrameSize());
+        final int calls = stack.getCallDepth();
+
+        try {
+            System.arraycopy(arguments, 0, stack.getValues(), frame, arguments.length);
+            return execute(stack, frame, bindings, constants, angle);
+        } finally {
+            stack.releaseCalls(calls);
+            stack.release(frame);
+        }
+    }
+
+    /**
+     * Optimize this expression for evaluation against a set of constants and an angle mode, without bindings.
+     * The last optimized expression is kept, and is optimized again once the environment or any registry changes.
+     * Nothing is optimized against a scope, whose values change in place.
+     * @param constants Constants variables will be resolved from, or null if unknown.
+     * @param angle Angle mode passed to functions, or null if unknown.
+     * @return An expression computing the same value within that environment.
+     */
+    public CompiledExpression optimize(Constants constants, Calculator.Angle angle) {
+        final CompiledExpression code = pin();
+        if (code != this) {
+            return code.optimize(constants == this.constants ? code.constants : snapshotOf(constants), angle);
+        }
+        if (constants != null && constants.isScope()) {
+            return this;
+        }
+        Optimized current = optimized;
+        if (current == null || !current.isCurrent(functions, operators, constants, angle)) {
+            final int functionsVersion = functions.getVersion();
+            final int operatorsVersion = operators.getVersion();
+            final int constantsVersion = valueVersionOf(constants);
+            current = new Optimized(Optimizer.optimize(this, constants, angle), constants, angle, functionsVersion, operatorsVersion, constantsVersion);
+            optimized = current;
+        }
+        return current.expression;
+    }
+
+    private static int valueVersionOf(Constants constants) {
+        return constants == null ? 0 : constants.getValueVersion();
+    }
+
+    /**
+     * Generate JVM code evaluating this expression against the constants and angle mode it was compiled with.
+     * The code is generated from the optimized expression, and again once any registry or constant it depends on changes.
+     * @return Evaluator taking one value per parameter, in slot order.
+     */
+    public Evaluator generate() {
+        final CompiledExpression code = pin();
+        if (code != this) {
+            return code.generate();
+        }
+        final Generated current = generated;
+        if (current != null && current.isCurrent(functions, operators, constants)) {
+            return current.evaluator;
+        }
+        final int functionsVersion = functions.getVersion();
+        final int operatorsVersion = operators.getVersion();
+        final int constantsVersion = valueVersionOf(constants);
+        final Evaluator evaluator = CodeGenerator.generate(optimize(constants, angle));
+        generated = new Generated(evaluator, functionsVersion, operatorsVersion, constantsVersion);
+        return evaluator;
+    }
+
+    /**
+     * Find the heavy independent subexpressions evaluated on other threads, which are kept for later calls.
+     * A pinned expression's functions never change, so neither does its plan.
+     * @return The plan evaluating this expression.
+     */
+    Parallelizer.Plan split() {
+        final CompiledExpression code = pin();
+        if (code != this) {
+            return code.split();
+        }
+        Parallelizer.Plan current = plan;
+        if (current == null) {
+            current = Parallelizer.split(this);
+            plan = current;
+        }
+        return current;
+    }
+
+    /**
+     * Lower this expression to a Tape, which is kept for later calls.
+     * @return Tape computing the same value as this expression.
+     */
+    public Tape getTape() {
+        Tape current = tape;
+        if (current == null) {
+            current = Tape.lower(this);
+            tape = current;
+        }
+        return current;
+    }
+
+    /**
+     * Count an evaluation, promoting this expression to generated code once it has been evaluated often enough.
+     * Generated code from stale functions or operators is discarded and the count starts again.
+     * @return The generated code to evaluate with, or null to interpret.
+     */
+    private Evaluator tier() {
+        final Generated current = generated;
+        if (current != null) {
+            if (current.isCurrent(functions, operators, constants)) {
+                return current.evaluator;
+            }
+            demote(current);
+        }
+        if (tierThreshold < 0 || result < 0 || ++executions <= tierThreshold) {
+            return null;
+        }
+        return promote();
+    }
+
+    private synchronized Evaluator promote() {
+        final Generated current = generated;
+        if (current != null && current.isCurrent(functions, operators, constants)) {
+            return current.evaluator;
+        }
+        //Generated code runs on one thread, so expressions split between threads stay interpreted.
+        if (optimize(constants, angle).split().isSplit()) {
+            executions = Integer.MIN_VALUE;
+            return null;
+        }
+        final long start = System.nanoTime();
+        try {
+            final Evaluator evaluator = generate();
+            TierMetrics.GLOBAL.promoted(System.nanoTime() - start);
+            return evaluator;
+        } catch (RuntimeException exception) {
+            //Keep interpreting rather than retrying.
+            executions = Integer.MIN_VALUE;
+            TierMetrics.GLOBAL.failed();
+            return null;
+        }
+    }
+
+    private synchronized void demote(Generated stale) {
+        if (generated == stale) {
+            generated = null;
+            executions = 0;
+            TierMetrics.GLOBAL.demoted();
+        }
+    }
+
+    /**
+     * Resolve the overload called by every FUNCTION instruction, which is kept until the functions change.
+     * @return Array holding, at the index of each FUNCTION instruction, the function it calls or null if there is none.
+     */
+    private MathFunction[] link() {
+        Linked current = linked;
+        if (current == null || current.functionsVersion != functions.getVersion()) {
+            final int functionsVersion = functions.getVersion();
+            final MathFunction[] targets = new MathFunction[instructions.length];
+            for (int idx = 0; idx != targets.length; ++idx) {
+                if (instructions[idx].type == Instruction.Type.FUNCTION) {
+                    targets[idx] = functions.getFunction(instructions[idx].identifier, instructions[idx].operands.length);
+                }
+            }
+            current = new Linked(targets, functionsVersion);
+            linked = current;
+        }
+        return current.targets;
+    }
+
+    /**
+     * @return The number of stack values needed to evaluate this expression: its parameters followed by one value per instruction.
+     */
+    public int getFrameSize() {
+        return parameters.size() + instructions.length;
+    }
+
+    /**
+     * Run every instruction within a frame that already holds the parameters.
+     * User functions are invoked by evaluating their compiled bodies in new frames on the same stack,
+     * recording where to return on the stack rather than recursing.
+     * @param stack The stack holding the frame.
+     * @param frame Index of the first parameter.
+     * @param bindings Values for variables, which shadow constants of the same name.
+     * @param constants Constants used to resolve variables.
+     * @param angle Angle mode passed to functions.
+     * @return The value of the expression.
+     */
+    private double execute(EvaluationStack stack, int frame, Map<String, Double> bindings, Constants constants, Calculator.Angle angle) {
+        if (result < 0) {
+            throw new RuntimeException("Cannot evaluate an empty expression.");
+        }
+        final int bottom = stack.getCallDepth();
+        CompiledExpression code = this;
+        Instruction[] instructions = this.instructions;
+        MathFunction[] targets = link();
+        Map<String, Double> names = bindings;
+        Constants lookup = constants;
+        int base = frame + parameters.size();
+        double[] values = stack.getValues();
+        Constants scope = bindings.isEmpty() ? constants : null;
+
+        int idx = 0;
+        loop:
+        while (true) {
+            if (idx == instructions.length) {
+                final double value = values[base + code.result];
+                if (stack.getCallDepth() == bottom) {
+                    return value;
+                }
+                //Return to the caller.
+                stack.release(frame);
+                code = stack.getCaller();
+                idx = stack.getCallInstruction();
+                frame = stack.getCallFrame();
+                stack.popCall();
+
+                instructions = code.instructions;
+                targets = code.link();
+                base = frame + code.parameters.size();
+                if (stack.getCallDepth() == bottom) {
+                    names = bindings;
+                    lookup = constants;
+                }
+                values[base + idx++] = value;
+                continue;
+            }
+            final Instruction instruction = instructions[idx];
+
+            switch (instruction.type) {
+                case CONSTANT:
+                    values[base + idx] = instruction.value;
+                    break;
+                case PARAMETER:
+                    values[base + idx] = values[frame + instruction.getSlot()];
+                    break;
+                case VARIABLE:
+                    values[base + idx] = resolve(instruction.identifier, names, lookup);
+                    break;
+                case OPERATOR:
+                    values[base + idx] = applyOperator(instruction, values, base);
+                    break;
+                case BRANCH:
+                    if (values[base + instruction.operands[0]] == 0) {
+                        idx = code.jumps[idx];
+                        continue loop;
+                    }
+                    break;
+                case JUMP:
+                    idx = code.jumps[idx];
+                    continue loop;
+                case SELECT:
+                    values[base + idx] = values[base + instruction.operands[values[base + instruction.operands[0]] != 0 ? 1 : 2]];
+                    break;
+                case FUNCTION: {
+                    final MathFunction function = targets[idx];
+                    if (function instanceof JavaFunction && ((JavaFunction)function).isPrimitive()) {
+                        values[base + idx] = applyPrimitive((JavaFunction)function, instruction, values, base, angle);
+                        break;
+                    }
+                    //Functions see the bindings as ordinary constants.
+                    if (scope == null) {
+                        final Constants local = new Constants(constants);
+                        local.putAll(bindings);
+                        scope = local.snapshot();
+                    }
+                    if (function instanceof UserFunction) {
+                        CompiledExpression body = ((UserFunction)function).compile(code.functions, code.operators);
+                        //Bodies are optimized for the caller's constants, unless bindings make a new scope for each evaluation.
+                        if (scope == constants) {
+                            body = body.optimize(scope, angle);
+                        }
+                        if (stack.getCallDepth() - bottom == maxDepth) {
+                            throw new RuntimeException("Maximum depth of " + maxDepth + " exceeded.");
+                        }
+                        if (body.result < 0) {
+                            throw new RuntimeException("Cannot evaluate an empty expression.");
+                        }
+                        final int callee = stack.reserve(body.getFrameSize());
+                        values = stack.getValues();
+                        for (int i = 0; i != instruction.operands.length; ++i) {
+                            values[callee + i] = values[base + instruction.operands[i]];
+                        }
+                        stack.pushCall(code, idx, frame);
+
+                        code = body;
+                        instructions = body.instructions;
+                        targets = body.link();
+                        frame = callee;
+                        base = callee + body.parameters.size();
+                        names = Collections.emptyMap();
+                        lookup = scope;
+                        idx = 0;
+                        continue loop;
+                    }
+
+                    final ArrayList<Number> operands = new ArrayList<>(instruction.operands.length);
+                    for (int operand : instruction.operands) {
+                        operands.add(values[base + operand]);
+                    }
+                    final MathFunction.ParameterPack parameters = new MathFunction.ParameterPack(operands, code.functions, scope, code.operators, angle);
+                    //Without a target, the functions report the missing overload.
+                    final double value = function != null ? function.apply(parameters).doubleValue() : code.functions.apply(instruction.identifier, parameters);
+                    //The call may have grown the stack.
+                    values = stack.getValues();
+                    values[base + idx] = value;
+                    break;
+                }
+            }
+            ++idx;
+        }
+    }
+
+    private static double applyOperator(Instruction instruction, double[] values, int base) {
+        final int[] operands = instruction.operands;
+
+        switch (operands.length) {
+            case 1:
+                return instruction.operator.apply(values[base + operands[0]]);
+            case 2:
+                return instruction.operator.apply(values[base + operands[0]], values[base + operands[1]]);
+            default:
+                final ArrayList<Double> arguments = new ArrayList<>(operands.length);
+                for (int operand : operands) {
+                    arguments.add(values[base + operand]);
+                }
+                return instruction.operator.apply(arguments);
+        }
+    }
+
+    private static double applyPrimitive(JavaFunction function, Instruction instruction, double[] values, int base, Calculator.Angle angle) {
+        final int[] operands = instruction.operands;
+
+        switch (operands.length) {
+            case 0:
+                return function.apply();
+            case 1:
+                return function.apply(values[base + operands[0]], angle);
+            default:
+                return function.apply(values[base + operands[0]], values[base + operands[1]]);
+        }
+    }
+
+    /**
+     * Resolve a variable, which must be bound or a constant.
+     * @param identifier The variable's name.
+     * @param bindings Values which shadow constants of the same name.
+     * @param constants Constants used to resolve unbound variables.
+     * @return The variable's value.
+     */
+    static double resolve(String identifier, Map<String, Double> bindings, Constants constants) {
+        final Double bound = bindings.get(identifier);
+        if (bound != null) {
+            return bound;
+        }
+        return constants.getValue(identifier);
+    }
+}
@@ -160,7 +160,11 @@ public class Configuration {
         return data.getContent();
     }
 
-    public static void listenFor(ObservableList<MenuItem> items) {
+    /**
+     * @param items The settings menu's items.
+     * @param session The session whose variables the constant editor lists along with the shared constants.
+     */
+    public static void listenFor(ObservableList<MenuItem> items, EvaluationContext session) {
         final Node pane = getInnerPane(items, "Constraints");
         final Node display = getInnerPane(items, "Display");
         final TextField stdLB = (TextField) pane.lookup("#stdLB");
@@ -176,7 +180,7 @@ public class Configuration {
             editor.display(Configuration.STAGE_STACK.peek());
         });
         search(items, "Constants").setOnAction(action -> {
-            final ConstantEditor editor = new ConstantEditor();
+            final ConstantEditor editor = new ConstantEditor(session);
             editor.display(Configuration.STAGE_STACK.peek());
         });
         search(items, "Operators").setOnAction(action -> {
@@ -6,7 +6,13 @@ import javafx.scene.control.TextField;
 import java.util.ArrayList;
 import java.util.Arrays;
 
+/**
+ * Lists the shared constants along with the variables of a session, such as its answer and memory registers.
+ * The session's own variables may have their values edited, but are neither renamed nor deleted.
+ */
 public class ConstantEditor extends EditorWindow {
+    private EvaluationContext session;
+
     @FXML
     private TextField identifierField;
 
@@ -28,7 +34,10 @@ public class ConstantEditor extends EditorWindow {
                     final String oldIdentifier = model.getSelectedItem();
                     final String identifier = identifierField.getText();
 
-                    if (!identifier.equals(oldIdentifier)) {
+                    if (isSessionVariable(oldIdentifier)) {
+                        identifierField.setText(oldIdentifier);
+                    }
+                    else if (!identifier.equals(oldIdentifier)) {
                         final Double value = Constants.JCONSTANTS.remove(oldIdentifier);;
                         final int shadowed = items.indexOf(identifier);
                         if (shadowed >= 0) {
@@ -68,17 +77,32 @@ public class ConstantEditor extends EditorWindow {
                     try {
                         newValue = Double.parseDouble(valueField.getText());
                     } catch (Exception exception) {
-                        valueField.setText(Constants.JCONSTANTS.get(identifier).toString());
+                        valueField.setText(getVisible().get(identifier).toString());
                         return;
                     }
-                    Constants.JCONSTANTS.put(identifier, newValue);
+                    if (isSessionVariable(identifier)) {
+                        session.setVariable(identifier, newValue);
+                    }
+                    else {
+                        Constants.JCONSTANTS.put(identifier, newValue);
+                    }
                 }
             }
         }));
     }
 
     public ConstantEditor() {
+        this(null);
+    }
+
+    /**
+     * @param session The session whose variables are listed along with the shared constants, or null.
+     */
+    public ConstantEditor(EvaluationContext session) {
         super("calculator_constants.fxml");
+        //The base constructor lists the shared constants while loading, before the session is known.
+        this.session = session;
+        updateConstants();
     }
 
     @Override
@@ -99,23 +123,34 @@ public class ConstantEditor extends EditorWindow {
         final var selectionModel = selector.getSelectionModel();
         final int selection = selectionModel.getSelectedIndex();
 
-        if (selection >= 0) {
+        if (selection >= 0 && !isSessionVariable(selectionModel.getSelectedItem())) {
             Constants.JCONSTANTS.remove(selectionModel.getSelectedItem());
             items.remove(selection);
         }
     }
 
     private void updateConstants() {
-        for (var value : Constants.JCONSTANTS.entrySet()) {
+        for (var value : getVisible().entrySet()) {
             if (!items.contains(value.getKey())) {
                 items.add(value.getKey());
             }
         }
     }
 
+    /**
+     * @return The constants seen by the session, or the shared constants without one.
+     */
+    private Constants getVisible() {
+        return session != null ? session.getConstants() : Constants.JCONSTANTS;
+    }
+
+    private boolean isSessionVariable(String identifier) {
+        return session != null && session.isVariable(identifier);
+    }
+
     @Override
     protected void updateInformation(String identifier) {
-        final Double value = Constants.JCONSTANTS.get(identifier);
+        final Double value = getVisible().get(identifier);
         identifierField.setText(identifier);
         valueField.setText(String.valueOf(value));
         final var conversions = KeyConverter.converter.getAllConversions(identifier);
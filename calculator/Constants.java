@@ -1,9 +1,21 @@
 package calculator;
 
-import java.util.Map;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
-public class Constants extends HashMap<String, Double> {
+/**
+ * Table of named constants, each held unboxed in a slot of a double array.
+ * A table may be layered over a parent, so that local values such as bindings shadow the parent's without copying it.
+ * Reads fall through to the parent, while writes only ever change the table's own frame.
+ * Every write copies the frame and publishes it as a new snapshot, which is never modified,
+ * so that any number of threads may read the constants without locking while they are changed.
+ */
+public class Constants extends AbstractMap<String, Double> {
 	public static final Constants JCONSTANTS;
 
 	static {
@@ -14,4 +26,402 @@ public class Constants extends HashMap<String, Double> {
 		JCONSTANTS.put("φ", 1.61803398874989484820);
 		JCONSTANTS.put("phi", 1.61803398874989484820);
 	}
+
+	/**
+	 * Most names searched linearly before the frame is indexed by a hash map.
+	 */
+	private static final int SMALL_FRAME = 8;
+
+	private final Constants m_parent;
+	private volatile Constants m_current;
+	private String[] m_names;
+	private double[] m_values;
+	private int m_size;
+	private HashMap<String, Integer> m_slots;
+	private int m_version;
+	private int m_valueVersion;
+	private boolean m_scope;
+
+	public Constants() {
+		this(null);
+	}
+
+	/**
+	 * @param parent Table whose constants are visible unless shadowed, or null.
+	 */
+	public Constants(Constants parent) {
+		m_parent = parent;
+		m_current = new Constants(parent == null ? null : parent.snapshot(), new String[4], new double[4], 0, null, 0, 0);
+	}
+
+	/**
+	 * A snapshot, which is its own current version.
+	 * The arrays and index are never modified once the snapshot is published.
+	 */
+	private Constants(Constants parent, String[] names, double[] values, int size, HashMap<String, Integer> slots, int version, int valueVersion) {
+		m_parent = parent;
+		m_current = this;
+		m_names = names;
+		m_values = values;
+		m_size = size;
+		m_slots = slots;
+		m_version = version;
+		m_valueVersion = valueVersion;
+	}
+
+	/**
+	 * A scope holds the values of a fixed set of names, which are changed in place from one evaluation to the next
+	 * rather than published as a new snapshot each time, such as the columns of each row while a batch is evaluated.
+	 * It must only be read by evaluations made by the thread changing it, and nothing is optimized against it.
+	 * @param parent Table whose constants are visible unless shadowed, or null.
+	 * @param names Names held by the scope's own frame, each in the slot of its index, whose values start at zero.
+	 * @return A snapshot whose values are changed by setValue(int, double).
+	 */
+	static Constants scope(Constants parent, String[] names) {
+		final Constants scope = new Constants(parent == null ? null : parent.snapshot(), new String[4], new double[4], 0, null, 0, 0);
+		for (String name : names) {
+			scope.store(name, 0);
+		}
+		scope.m_scope = true;
+		return scope;
+	}
+
+	/**
+	 * @return True if this table is a scope, whose values change in place.
+	 */
+	boolean isScope() {
+		return m_scope;
+	}
+
+	/**
+	 * Change a value of a scope in place.
+	 * @param slot A slot of the scope's own frame.
+	 * @param value The new value.
+	 */
+	void setValue(int slot, double value) {
+		if (!m_scope) {
+			throw new RuntimeException("Only scopes are modified in place.");
+		}
+		m_values[slot] = value;
+	}
+
+	/**
+	 * @return The parent table, which is itself a snapshot if this table is one, or null.
+	 */
+	public Constants getParent() {
+		return m_parent;
+	}
+
+	/**
+	 * Evaluations pin one snapshot, so that they see a single value of every constant however the constants change meanwhile.
+	 * A snapshot of a layered table is layered over a snapshot of its parent.
+	 * @return The constants as of the current version, which are never modified, or this if it is a snapshot.
+	 */
+	public Constants snapshot() {
+		Constants current = m_current;
+		if (current == this || m_parent == null) {
+			return current;
+		}
+		final Constants parent = m_parent.snapshot();
+		if (current.m_parent != parent) {
+			synchronized (this) {
+				current = m_current;
+				if (current.m_parent != parent) {
+					current = new Constants(parent, current.m_names, current.m_values, current.m_size, current.m_slots, current.m_version, current.m_valueVersion);
+					m_current = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * @return True if this table is a snapshot, which cannot be modified.
+	 */
+	public boolean isSnapshot() {
+		return m_current == this;
+	}
+
+	/**
+	 * Values are read whenever an expression is evaluated, so only adding or removing a constant changes the version.
+	 * @return A number that changes whenever a constant is added or removed, here or in a parent.
+	 */
+	public int getVersion() {
+		final Constants table = snapshot();
+		return table.m_parent == null ? table.m_version : table.m_version + table.m_parent.getVersion();
+	}
+
+	/**
+	 * Expressions optimized against these constants hold their values, so any change to a value changes this version.
+	 * @return A number that changes whenever a constant is added, removed, or given a different value, here or in a parent.
+	 */
+	public int getValueVersion() {
+		final Constants table = snapshot();
+		return table.m_parent == null ? table.m_valueVersion : table.m_valueVersion + table.m_parent.getValueVersion();
+	}
+
+	/**
+	 * Slots are reused when constants are removed, so a slot is only meaningful within one snapshot.
+	 * @param identifier The constant's name.
+	 * @return The slot holding the constant within this table's own frame, or -1.
+	 */
+	public int slotOf(Object identifier) {
+		return snapshot().find(identifier);
+	}
+
+	/**
+	 * @param slot A slot of this table's own frame.
+	 * @return The value held in the slot.
+	 */
+	public double getValue(int slot) {
+		return snapshot().m_values[slot];
+	}
+
+	/**
+	 * @param slot A slot of this table's own frame.
+	 * @return The name of the constant held in the slot.
+	 */
+	public String getName(int slot) {
+		return snapshot().m_names[slot];
+	}
+
+	/**
+	 * @return True if the constant is defined here or in a parent.
+	 */
+	public boolean isDefined(String identifier) {
+		for (Constants table = snapshot(); table != null; table = table.m_parent) {
+			if (table.find(identifier) >= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Resolve a constant without boxing its value.
+	 * @param identifier The constant's name.
+	 * @return The value defined nearest to this table.
+	 */
+	public double getValue(String identifier) {
+		for (Constants table = snapshot(); table != null; table = table.m_parent) {
+			final int slot = table.find(identifier);
+			if (slot >= 0) {
+				return table.m_values[slot];
+			}
+		}
+		//Identifier is not mapped to a function or constant.
+		throw new RuntimeException("Unknown identifier encountered.");
+	}
+
+	/**
+	 * Define or change a constant within this table's own frame, shadowing any parent's constant of the same name.
+	 * @param identifier The constant's name.
+	 * @param value The constant's value.
+	 */
+	public synchronized void setValue(String identifier, double value) {
+		final Constants current = edit();
+		final int slot = current.find(identifier);
+		if (slot < 0) {
+			final Constants copy = current.copy();
+			copy.store(identifier, value);
+			m_current = copy;
+		}
+		else if (Double.doubleToLongBits(current.m_values[slot]) != Double.doubleToLongBits(value)) {
+			//Only the values differ, so the names and index are shared with the current snapshot.
+			final double[] values = current.m_values.clone();
+			values[slot] = value;
+			m_current = new Constants(current.m_parent, current.m_names, values, current.m_size, current.m_slots, current.m_version, current.m_valueVersion + 1);
+		}
+	}
+
+	@Override
+	public Double get(Object identifier) {
+		for (Constants table = snapshot(); table != null; table = table.m_parent) {
+			final int slot = table.find(identifier);
+			if (slot >= 0) {
+				return table.m_values[slot];
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public boolean containsKey(Object identifier) {
+		return identifier instanceof String && isDefined((String)identifier);
+	}
+
+	/**
+	 * @return The previous value within this table's own frame, or null.
+	 */
+	@Override
+	public synchronized Double put(String identifier, Double value) {
+		if (identifier == null || value == null) {
+			throw new RuntimeException("Constants must have a name and a value.");
+		}
+		final Constants current = edit();
+		final int slot = current.find(identifier);
+		final Double previous = slot < 0 ? null : current.m_values[slot];
+		setValue(identifier, value);
+		return previous;
+	}
+
+	/**
+	 * Define every constant of a map at once, publishing a single snapshot.
+	 */
+	@Override
+	public synchronized void putAll(Map<? extends String, ? extends Double> constants) {
+		final Constants copy = edit().copy();
+		for (Map.Entry<? extends String, ? extends Double> entry : constants.entrySet()) {
+			if (entry.getKey() == null || entry.getValue() == null) {
+				throw new RuntimeException("Constants must have a name and a value.");
+			}
+			copy.store(entry.getKey(), entry.getValue());
+		}
+		m_current = copy;
+	}
+
+	/**
+	 * Remove a constant from this table's own frame, revealing any parent's constant of the same name.
+	 * The last slot is moved into the removed one.
+	 * @return The removed value, or null.
+	 */
+	@Override
+	public synchronized Double remove(Object identifier) {
+		final Constants current = edit();
+		final int slot = current.find(identifier);
+		if (slot < 0) {
+			return null;
+		}
+		final Constants copy = current.copy();
+		final double value = copy.m_values[slot];
+		final int last = --copy.m_size;
+		if (copy.m_slots != null) {
+			copy.m_slots.remove(identifier);
+			if (slot != last) {
+				copy.m_slots.put(copy.m_names[last], slot);
+			}
+		}
+		copy.m_names[slot] = copy.m_names[last];
+		copy.m_values[slot] = copy.m_values[last];
+		copy.m_names[last] = null;
+		++copy.m_version;
+		++copy.m_valueVersion;
+		m_current = copy;
+		return value;
+	}
+
+	/**
+	 * Remove every constant from this table's own frame.
+	 */
+	@Override
+	public synchronized void clear() {
+		final Constants current = edit();
+		m_current = new Constants(current.m_parent, new String[4], new double[4], 0, null, current.m_version + 1, current.m_valueVersion + 1);
+	}
+
+	@Override
+	public int size() {
+		final Constants table = snapshot();
+		return table.m_parent == null ? table.m_size : table.entrySet().size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		final Constants table = snapshot();
+		return table.m_size == 0 && (table.m_parent == null || table.m_parent.isEmpty());
+	}
+
+	/**
+	 * @return A snapshot of every visible constant, nearest tables first, which does not change along with the table.
+	 */
+	@Override
+	public Set<Map.Entry<String, Double>> entrySet() {
+		final Constants snapshot = snapshot();
+		final Set<Map.Entry<String, Double>> entries = new LinkedHashSet<>();
+		for (Constants table = snapshot; table != null; table = table.m_parent) {
+			for (int slot = 0; slot != table.m_size; ++slot) {
+				if (table == snapshot || snapshot.find(table.m_names[slot]) < 0 && !snapshot.isShadowed(table, table.m_names[slot])) {
+					entries.add(new AbstractMap.SimpleImmutableEntry<>(table.m_names[slot], table.m_values[slot]));
+				}
+			}
+		}
+		return Collections.unmodifiableSet(entries);
+	}
+
+	/**
+	 * @return True if a table between this snapshot and an ancestor defines the constant.
+	 */
+	private boolean isShadowed(Constants ancestor, String identifier) {
+		for (Constants table = m_parent; table != ancestor; table = table.m_parent) {
+			if (table.find(identifier) >= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return The current snapshot, which is about to be replaced by an edited copy.
+	 */
+	private Constants edit() {
+		if (isSnapshot()) {
+			throw new RuntimeException("Snapshots of constants cannot be modified.");
+		}
+		return snapshot();
+	}
+
+	/**
+	 * @return An unpublished copy of this snapshot, whose frame may be edited until it is published.
+	 */
+	private Constants copy() {
+		return new Constants(m_parent, m_names.clone(), m_values.clone(), m_size, m_slots == null ? null : new HashMap<>(m_slots), m_version, m_valueVersion);
+	}
+
+	/**
+	 * @return The slot of a constant within this snapshot's own frame, or -1.
+	 */
+	private int find(Object identifier) {
+		if (m_slots != null) {
+			final Integer slot = m_slots.get(identifier);
+			return slot == null ? -1 : slot;
+		}
+		for (int slot = 0; slot != m_size; ++slot) {
+			if (m_names[slot].equals(identifier)) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Define or change a constant within an unpublished copy's frame.
+	 */
+	private void store(String identifier, double value) {
+		final int slot = find(identifier);
+		if (slot >= 0) {
+			if (Double.doubleToLongBits(m_values[slot]) != Double.doubleToLongBits(value)) {
+				m_values[slot] = value;
+				++m_valueVersion;
+			}
+			return;
+		}
+		if (m_size == m_names.length) {
+			m_names = Arrays.copyOf(m_names, m_size * 2);
+			m_values = Arrays.copyOf(m_values, m_size * 2);
+		}
+		m_names[m_size] = identifier;
+		m_values[m_size] = value;
+		if (m_slots != null) {
+			m_slots.put(identifier, m_size);
+		}
+		else if (m_size == SMALL_FRAME) {
+			m_slots = new HashMap<>();
+			for (int i = 0; i <= m_size; ++i) {
+				m_slots.put(m_names[i], i);
+			}
+		}
+		++m_size;
+		++m_version;
+		++m_valueVersion;
+	}
 }
@@ -18,8 +18,7 @@ public class Display extends VBox {
     private int active;
     private int query;
     private String currentText;
-    private double answer;
-    private double memory;
+    private final EvaluationContext context = new EvaluationContext();
     private double width;
     private double height;
 
@@ -57,16 +56,22 @@ public class Display extends VBox {
     }
 
     public double getMemory() {
-        return memory;
+        return context.getMemory();
     }
 
     public double getAnswer() {
-        return answer;
+        return context.getAnswer();
     }
 
+    /**
+     * @return The session holding this display's angle mode, answer and memory.
+     */
+    public EvaluationContext getContext() {
+        return context;
+    }
 
     public Calculator loadCalculator() {
-        final Calculator calculator = new Calculator();
+        final Calculator calculator = new Calculator(context);
 
         final String angleString = ((Labeled)angle.getSelectedToggle()).getText();
 
@@ -84,9 +89,6 @@ public class Display extends VBox {
                 throw new RuntimeException("Invalid angle type entered.");
         }
 
-        calculator.getConstants().put("ANS", answer);
-        calculator.getConstants().put("MR", memory);
-
         return calculator;
     }
 
@@ -106,7 +108,7 @@ public class Display extends VBox {
             output.setText("NaN");
         }
 
-        return answer;
+        return context.getAnswer();
     }
 
     /**
@@ -125,7 +127,7 @@ public class Display extends VBox {
         else {
             output.setText(Rational.valueOf(value).toString());
         }
-        answer = value;
+        context.setAnswer(value);
     }
 
     /**
@@ -143,8 +145,8 @@ public class Display extends VBox {
      */
     public void reset() {
         clear();
-        answer = 0;
-        memory = 0;
+        context.setAnswer(0);
+        context.setMemory(0);
     }
 
     /**
@@ -219,19 +221,19 @@ public class Display extends VBox {
                 deleteCharacter();
                 break;
             case "MC":
-                memory = 0;
+                context.setMemory(0);
                 break;
             case "M–":
-                memory -= answer;
+                context.setMemory(context.getMemory() - context.getAnswer());
                 break;
             case "M+":
-                memory += answer;
+                context.setMemory(context.getMemory() + context.getAnswer());
                 break;
             case "M÷":
-                memory /= answer;
+                context.setMemory(context.getMemory() / context.getAnswer());
                 break;
             case "M×":
-                memory *= answer;
+                context.setMemory(context.getMemory() * context.getAnswer());
                 break;
             default:
                 insertText(command);
@@ -243,7 +245,7 @@ public class Display extends VBox {
         }
 
         //Update memory indicator.
-        status.setText("MR: " + formatDouble(memory, Configuration.MEMORY_DIGIT_COUNT));
+        status.setText("MR: " + formatDouble(context.getMemory(), Configuration.MEMORY_DIGIT_COUNT));
     }
 
     public void insertParenthesis() {
@@ -402,19 +404,19 @@ public class Display extends VBox {
 
 
         Configuration.RATIONAL_LOWER_BOUND.addListener((observable, v0, v1) -> {
-            updateDisplay(answer);
+            updateDisplay(context.getAnswer());
         });
         Configuration.RATIONAL_UPPER_BOUND.addListener((observable, v0, v1) -> {
-            updateDisplay(answer);
+            updateDisplay(context.getAnswer());
         });
         Configuration.STANDARD_LOWER_BOUND.addListener((observable, v0, v1) -> {
-            updateDisplay(answer);
+            updateDisplay(context.getAnswer());
         });
         Configuration.STANDARD_UPPER_BOUND.addListener((observable, v0, v1) -> {
-            updateDisplay(answer);
+            updateDisplay(context.getAnswer());
         });
         Configuration.OUTPUT_DIGIT_COUNT.addListener((observable, v0, v1) -> {
-            updateDisplay(answer);
+            updateDisplay(context.getAnswer());
         });
         Configuration.DISPLAY_CHARACTERS.addListener((observable, v0, v1) -> {
             scaleTo(width, height);
@@ -429,7 +431,7 @@ public class Display extends VBox {
 
     private void attachModeListener() {
         mode.selectedToggleProperty().addListener(((observableValue, oldToggle, newToggle) -> {
-            updateDisplay(answer);
+            updateDisplay(context.getAnswer());
         }));
     }
 
@@ -472,7 +474,7 @@ public class Display extends VBox {
                 });
             }
             if (expression.isEmpty() && isBinaryOperator(addition)) {
-                change.setText("ANS" + change.getText());
+                change.setText(EvaluationContext.ANSWER + change.getText());
                 Platform.runLater(() -> {
                     editor.positionCaret(editor.getLength());
                 });
@@ -0,0 +1,115 @@
+package calculator;
+
+/**
+ * The state of one calculator session: its angle mode, its answer and memory registers, and its local variables.
+ * The session's values are held in a small table layered over shared constants, so that sessions never modify
+ * the shared constants or each other, and creating one costs a few small arrays rather than a copy of every constant.
+ * Expressions reading none of the session's values are evaluated against the shared constants alone,
+ * so setting the answer or memory only discards what was optimized for the expressions reading them.
+ */
+public class EvaluationContext {
+    /**
+     * Name of the register holding the last answer.
+     */
+    public static final String ANSWER = "ANS";
+
+    /**
+     * Name of the memory register.
+     */
+    public static final String MEMORY = "MR";
+
+    private final Constants shared;
+    private final Constants locals;
+    private volatile Calculator.Angle angle;
+
+    /**
+     * A session over the default constants, measuring angles in radians.
+     */
+    public EvaluationContext() {
+        this(Constants.JCONSTANTS, Calculator.Angle.RADIANS);
+    }
+
+    /**
+     * @param shared Constants visible to the session unless shadowed by its own variables.
+     * @param angle Angle mode used by trigonometric functions.
+     */
+    public EvaluationContext(Constants shared, Calculator.Angle angle) {
+        this.shared = shared;
+        this.locals = new Constants(shared);
+        this.angle = angle;
+        locals.setValue(ANSWER, 0);
+        locals.setValue(MEMORY, 0);
+    }
+
+    /**
+     * @return The constants shared with other sessions, which expressions are compiled against.
+     */
+    public Constants getShared() {
+        return shared;
+    }
+
+    /**
+     * @return The session's variables and registers, layered over the shared constants.
+     */
+    public Constants getConstants() {
+        return locals;
+    }
+
+    public Calculator.Angle getAngle() {
+        return angle;
+    }
+
+    public void setAngle(Calculator.Angle angle) {
+        this.angle = angle;
+    }
+
+    public double getAnswer() {
+        return locals.getValue(ANSWER);
+    }
+
+    public void setAnswer(double answer) {
+        locals.setValue(ANSWER, answer);
+    }
+
+    public double getMemory() {
+        return locals.getValue(MEMORY);
+    }
+
+    public void setMemory(double memory) {
+        locals.setValue(MEMORY, memory);
+    }
+
+    /**
+     * Define or change a variable of this session, shadowing any shared constant of the same name.
+     * @param identifier The variable's name.
+     * @param value The variable's value.
+     */
+    public void setVariable(String identifier, double value) {
+        locals.setValue(identifier, value);
+    }
+
+    /**
+     * @param identifier A variable or constant's name.
+     * @return True if the session itself defines the identifier, as it does its answer and memory registers.
+     */
+    public boolean isVariable(String identifier) {
+        return locals.slotOf(identifier) >= 0;
+    }
+
+    /**
+     * Remove a variable of this session, revealing any shared constant of the same name.
+     * @param identifier The variable's name.
+     * @return True if the session defined the variable.
+     */
+    public boolean removeVariable(String identifier) {
+        return locals.remove(identifier) != null;
+    }
+
+    /**
+     * @param identifier A variable or constant's name.
+     * @return The value the identifier resolves to within this session.
+     */
+    public double getValue(String identifier) {
+        return locals.getValue(identifier);
+    }
+}
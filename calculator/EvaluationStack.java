@@ -0,0 +1,159 @@
+package calculator;
+
+import java.util.Arrays;
+
+/**
+ * Reusable storage for evaluating compiled expressions on a single thread.
+ * Every evaluation reserves a frame of values on top of the stack and releases it when finished,
+ * so nested function calls share one array and steady-state evaluation does not allocate.
+ * Calls in progress record where their caller resumes, so evaluation never recurses on the Java stack.
+ */
+public class EvaluationStack {
+    private static final int INITIAL_CAPACITY = 256;
+    private static final ThreadLocal<EvaluationStack> CURRENT = ThreadLocal.withInitial(EvaluationStack::new);
+
+    private double[] values;
+    private int top;
+
+    private CompiledExpression[] callers;
+    private int[] callInstructions;
+    private int[] callFrames;
+    private int calls;
+
+    private double[][] borrowed;
+    private int borrows;
+
+    public EvaluationStack() {
+        values = new double[INITIAL_CAPACITY];
+        callers = new CompiledExpression[INITIAL_CAPACITY];
+        callInstructions = new int[INITIAL_CAPACITY];
+        callFrames = new int[INITIAL_CAPACITY];
+        borrowed = new double[16][];
+    }
+
+    /**
+     * @return The stack belonging to the calling thread.
+     */
+    public static EvaluationStack current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Reserve a frame on top of the stack.
+     * The backing array may be replaced, so it must be fetched again after reserving.
+     * @param size The number of values in the frame.
+     * @return Index of the first value in the frame.
+     */
+    public int reserve(int size) {
+        final int base = top;
+        if (base + size > values.length) {
+            final double[] grown = new double[Math.max(values.length * 2, base + size)];
+            System.arraycopy(values, 0, grown, 0, base);
+            values = grown;
+        }
+        top = base + size;
+        return base;
+    }
+
+    /**
+     * Borrow an array of values for generated code, which addresses its frame from index zero.
+     * Arrays given back are kept for the next borrower at the same depth, so steady-state evaluation does not allocate.
+     * @param size The least number of values the array must hold.
+     * @return An array to be given back by giveBack once finished with.
+     */
+    public double[] borrow(int size) {
+        if (borrows == borrowed.length) {
+            borrowed = Arrays.copyOf(borrowed, borrows * 2);
+        }
+        double[] frame = borrowed[borrows];
+        if (frame == null || frame.length < size) {
+            frame = new double[size];
+            borrowed[borrows] = frame;
+        }
+        ++borrows;
+        return frame;
+    }
+
+    /**
+     * Give back the array borrowed most recently.
+     */
+    public void giveBack() {
+        --borrows;
+    }
+
+    /**
+     * Release a frame and every frame reserved after it.
+     * @param base Index returned when the frame was reserved.
+     */
+    public void release(int base) {
+        top = base;
+    }
+
+    /**
+     * @return The array backing every frame on this stack.
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    /**
+     * @return The number of values currently reserved.
+     */
+    public int size() {
+        return top;
+    }
+
+    /**
+     * Record a call in progress.
+     * @param caller The expression making the call.
+     * @param instruction Index of the calling instruction, which receives the result.
+     * @param frame The caller's frame.
+     */
+    public void pushCall(CompiledExpression caller, int instruction, int frame) {
+        if (calls == callers.length) {
+            callers = Arrays.copyOf(callers, calls * 2);
+            callInstructions = Arrays.copyOf(callInstructions, calls * 2);
+            callFrames = Arrays.copyOf(callFrames, calls * 2);
+        }
+        callers[calls] = caller;
+        callInstructions[calls] = instruction;
+        callFrames[calls] = frame;
+        ++calls;
+    }
+
+    /**
+     * Forget the most recent call.
+     */
+    public void popCall() {
+        callers[--calls] = null;
+    }
+
+    /**
+     * Forget every call recorded after a depth, such as when an evaluation fails.
+     * @param depth The depth to return to.
+     */
+    public void releaseCalls(int depth) {
+        while (calls > depth) {
+            popCall();
+        }
+    }
+
+    /**
+     * @return The number of calls in progress.
+     */
+    public int getCallDepth() {
+        return calls;
+    }
+
+    public CompiledExpression getCaller() {
+        return callers[calls-1];
+    }
+
+    public int getCallInstruction() {
+        return callInstructions[calls-1];
+    }
+
+    public int getCallFrame() {
+        return callFrames[calls-1];
+    }
+}
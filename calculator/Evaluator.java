@@ -0,0 +1,13 @@
+package calculator;
+
+/**
+ * Expression compiled to JVM code by the CodeGenerator.
+ */
+public interface Evaluator {
+    /**
+     * Evaluate the expression.
+     * @param vars One value per parameter of the compiled expression, in slot order.
+     * @return The value of the expression.
+     */
+    double eval(double[] vars);
+}
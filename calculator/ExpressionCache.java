@@ -0,0 +1,403 @@
+package calculator;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of compiled expressions, which may be shared between calculators and threads.
+ * Entries are keyed by an expression's text along with everything it was compiled against,
+ * including the versions of its functions, operators and constants. Editing a registry therefore
+ * leaves its entries unreachable, and they are purged the next time the cache sees the new version.
+ * The cache is split into segments, each a least recently used list guarded by its own lock.
+ */
+public class ExpressionCache {
+    /**
+     * Cache used by every calculator unless given another.
+     */
+    public static final ExpressionCache SHARED = new ExpressionCache(4096, 1 << 20);
+
+    private static final int MAX_SEGMENTS = 16;
+
+    /**
+     * Fewest entries per segment, so that small caches are not split into segments too small to bound weight.
+     */
+    private static final int MIN_SEGMENT_SIZE = 64;
+
+    /**
+     * Most registries whose versions are remembered, since they are held strongly.
+     * Forgetting a registry only delays purging its stale entries.
+     */
+    private static final int MAX_OBSERVED = 64;
+
+    /**
+     * An expression's text along with everything its compiled form depends on.
+     */
+    public static class Key {
+        private final String text;
+        private final List<String> parameters;
+        private final Functions functions;
+        private final int functionsVersion;
+        private final OperatorList operators;
+        private final int operatorsVersion;
+        private final Constants constants;
+        private final int constantsVersion;
+        private final Calculator.Angle angle;
+        private final int maxDepth;
+        private final int tierThreshold;
+        private final int hash;
+
+        /**
+         * @param text The normalized expression.
+         * @param parameters Identifiers compiled into positional parameter slots.
+         * @param functions Functions the expression is compiled against, at their current version.
+         * @param operators Operators the expression is compiled against, at their current version.
+         * @param constants Constants the expression is compiled against, at their current version.
+         * @param angle Angle mode the expression is compiled with.
+         * @param maxDepth Maximum depth the expression is compiled with.
+         * @param tierThreshold Tier threshold the expression is compiled with.
+         */
+        public Key(String text, List<String> parameters, Functions functions, OperatorList operators, Constants constants, Calculator.Angle angle, int maxDepth, int tierThreshold) {
+            this.text = text;
+            this.parameters = new ArrayList<>(parameters);
+            this.functions = functions;
+            this.functionsVersion = functions.getVersion();
+            this.operators = operators;
+            this.operatorsVersion = operators.getVersion();
+            this.constants = constants;
+            this.constantsVersion = constants == null ? 0 : constants.getVersion();
+            this.angle = angle;
+            this.maxDepth = maxDepth;
+            this.tierThreshold = tierThreshold;
+            this.hash = Objects.hash(text, this.parameters, System.identityHashCode(functions), functionsVersion,
+                    System.identityHashCode(operators), operatorsVersion, System.identityHashCode(constants), constantsVersion,
+                    angle, maxDepth, tierThreshold);
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * @return True if a registry has changed since the key was made.
+         */
+        public boolean isStale() {
+            return functionsVersion != functions.getVersion() || operatorsVersion != operators.getVersion()
+                    || constants != null && constantsVersion != constants.getVersion();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key)o;
+            return hash == key.hash && functions == key.functions && operators == key.operators && constants == key.constants
+                    && functionsVersion == key.functionsVersion && operatorsVersion == key.operatorsVersion
+                    && constantsVersion == key.constantsVersion && angle == key.angle && maxDepth == key.maxDepth
+                    && tierThreshold == key.tierThreshold && text.equals(key.text) && parameters.equals(key.parameters);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Entries in least recently used order, along with their total weight.
+     */
+    private static class Segment extends LinkedHashMap<Key, CompiledExpression> {
+        private static final long serialVersionUID = 1L;
+
+        private long weight;
+
+        Segment() {
+            super(16, 0.75f, true);
+        }
+    }
+
+    private final int maximumSize;
+    private final long maximumWeight;
+    private final Segment[] segments;
+    private final int segmentSize;
+    private final long segmentWeight;
+    private final Map<Object, Integer> versions;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder merges = new LongAdder();
+    private volatile ExpressionCache structures;
+
+    /**
+     * @param maximumSize Most expressions held at once.
+     * @param maximumWeight Most instructions held at once, across every expression.
+     */
+    public ExpressionCache(int maximumSize, long maximumWeight) {
+        if (maximumSize < 1 || maximumWeight < 1) {
+            throw new RuntimeException("Cache bounds must be positive.");
+        }
+        int count = 1;
+        while (count * 2 <= Math.min(MAX_SEGMENTS, maximumSize / MIN_SEGMENT_SIZE)) {
+            count *= 2;
+        }
+        this.maximumSize = maximumSize;
+        this.maximumWeight = maximumWeight;
+        this.segments = new Segment[count];
+        for (int i = 0; i != count; ++i) {
+            segments[i] = new Segment();
+        }
+        this.segmentSize = (maximumSize + count - 1) / count;
+        this.segmentWeight = (maximumWeight + count - 1) / count;
+        this.versions = new IdentityHashMap<>();
+    }
+
+    /**
+     * The weight of a compiled expression, which is its number of instructions.
+     */
+    private static int weigh(CompiledExpression expression) {
+        return Math.max(1, expression.size());
+    }
+
+    private Segment segmentFor(Key key) {
+        final int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+    }
+
+    /**
+     * Obtain a compiled expression, compiling and caching it if absent.
+     * Compiling happens outside of any lock, and errors thrown while compiling are not cached.
+     * @param key The expression and everything it is compiled against.
+     * @param compiler Compiles the expression described by the key.
+     * @return The cached or newly compiled expression.
+     */
+    public CompiledExpression get(Key key, Supplier<CompiledExpression> compiler) {
+        final Segment segment = segmentFor(key);
+        synchronized (segment) {
+            final CompiledExpression cached = segment.get(key);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+        }
+        misses.increment();
+        if (observe(key)) {
+            purgeStale();
+        }
+
+        final CompiledExpression compiled = compiler.get();
+        synchronized (segment) {
+            final CompiledExpression previous = segment.put(key, compiled);
+            if (previous != null) {
+                segment.weight -= weigh(previous);
+            }
+            segment.weight += weigh(compiled);
+            evict(segment);
+        }
+        return compiled;
+    }
+
+    /**
+     * Share one compiled expression between every expression of the same structure.
+     * Structures are held apart from expression texts, within the same bounds, so they never displace them.
+     * @param structure Key whose text describes the structure of the compiled expression.
+     * @param compiled A newly compiled expression.
+     * @return The expression previously compiled with the same structure, or the given one.
+     */
+    public CompiledExpression intern(Key structure, CompiledExpression compiled) {
+        ExpressionCache current = structures;
+        if (current == null) {
+            synchronized (this) {
+                current = structures;
+                if (current == null) {
+                    current = new ExpressionCache(maximumSize, maximumWeight);
+                    structures = current;
+                }
+            }
+        }
+        final CompiledExpression interned = current.get(structure, () -> {
+            return compiled;
+        });
+        if (interned != compiled) {
+            merges.increment();
+        }
+        return interned;
+    }
+
+    /**
+     * Remove least recently used entries until the segment is within its bounds.
+     * The newest entry is kept even if it alone is too heavy.
+     */
+    private void evict(Segment segment) {
+        final Iterator<Map.Entry<Key, CompiledExpression>> iterator = segment.entrySet().iterator();
+        while (segment.size() > 1 && (segment.size() > segmentSize || segment.weight > segmentWeight)) {
+            final Map.Entry<Key, CompiledExpression> eldest = iterator.next();
+            segment.weight -= weigh(eldest.getValue());
+            iterator.remove();
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Record the versions of a key's registries.
+     * @return True if any registry has changed since last observed.
+     */
+    private boolean observe(Key key) {
+        synchronized (versions) {
+            boolean changed = observe(key.functions, key.functionsVersion);
+            changed |= observe(key.operators, key.operatorsVersion);
+            if (key.constants != null) {
+                changed |= observe(key.constants, key.constantsVersion);
+            }
+            return changed;
+        }
+    }
+
+    private boolean observe(Object registry, int version) {
+        if (versions.size() == MAX_OBSERVED && !versions.containsKey(registry)) {
+            versions.clear();
+        }
+        final Integer previous = versions.put(registry, version);
+        return previous != null && previous != version;
+    }
+
+    /**
+     * Remove every entry compiled against a registry that has since changed.
+     */
+    public void purgeStale() {
+        final ExpressionCache current = structures;
+        if (current != null) {
+            current.purgeStale();
+        }
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                final Iterator<Map.Entry<Key, CompiledExpression>> iterator = segment.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    final Map.Entry<Key, CompiledExpression> entry = iterator.next();
+                    if (entry.getKey().isStale()) {
+                        segment.weight -= weigh(entry.getValue());
+                        iterator.remove();
+                        invalidations.increment();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove every entry.
+     */
+    public void invalidateAll() {
+        final ExpressionCache current = structures;
+        if (current != null) {
+            current.invalidateAll();
+        }
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                invalidations.add(segment.size());
+                segment.clear();
+                segment.weight = 0;
+            }
+        }
+    }
+
+    /**
+     * @return The number of expressions held.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return The total weight of the expressions held.
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                weight += segment.weight;
+            }
+        }
+        return weight;
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The number of entries removed to stay within bounds.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return The number of entries removed because their registries changed, or by invalidateAll.
+     */
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    /**
+     * @return The number of newly compiled expressions replaced by one of the same structure.
+     */
+    public long getMerges() {
+        return merges.sum();
+    }
+
+    /**
+     * @return The fraction of lookups that were hits, or 0 before any lookup.
+     */
+    public double getHitRate() {
+        final long hits = getHits();
+        final long total = hits + getMisses();
+        return total == 0 ? 0 : (double)hits / total;
+    }
+
+    /**
+     * Reset every counter to zero.
+     */
+    public void resetStatistics() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+        invalidations.reset();
+        merges.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + size() + ", weight=" + getWeight() + ", hits=" + getHits() + ", misses=" + getMisses()
+                + ", evictions=" + getEvictions() + ", invalidations=" + getInvalidations() + ", merges=" + getMerges();
+    }
+}
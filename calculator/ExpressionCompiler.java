@@ -0,0 +1,616 @@
+package calculator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Stack;
+
+/**
+ * Translates infix or postfix text into a CompiledExpression.
+ * The text is first split into tokens by the Lexer.
+ * Infix tokens are then parsed in a single pass by precedence climbing over the binding powers of a PrecedenceTable,
+ * following the same rules the calculator has always evaluated by and emitting instructions instead of values.
+ */
+public class ExpressionCompiler {
+    /**
+     * Multiplication used to bind a numeric coefficient to an identifier, such as 2π.
+     * The binding is tighter than any operator and does not depend on the OperatorList.
+     */
+    private static final Operator COEFFICIENT = new Operator(0, "*", Operator.Associativity.LEFT_TO_RIGHT, (lhs, rhs) -> {
+        return lhs * rhs;
+    });
+
+    /**
+     * Name called like a function to evaluate only one of two branches, as in if(x < 0, -x, x).
+     * It is part of the language rather than a function, so it cannot be redefined.
+     */
+    public static final String CONDITIONAL = "if";
+
+    /**
+     * Preferred number of operands when choosing between overloads of an operator symbol.
+     */
+    private static final int UNARY = 1;
+    private static final int BINARY = 2;
+
+    /**
+     * Construct awaiting the value of the expression being compiled.
+     * Frames are kept on a heap stack, so nesting is bounded by the maximum depth rather than the Java stack.
+     */
+    private static class Frame {
+        public enum Type {
+            BINARY,
+            PREFIX,
+            POSTFIX,
+            GROUPING,
+            CALL
+        }
+
+        public Type type;
+        public Operator operator;
+        public int lhs;
+        public int branch;
+        public int power;
+        public boolean implicit;
+        public char closer;
+        public String closers;
+        public String identifier;
+        public ArrayList<Integer> arguments;
+    }
+
+    private final Functions m_functions;
+    private final OperatorList m_operators;
+    private final List<String> m_parameters;
+    private final ArrayList<CompiledExpression.Instruction> m_instructions;
+    private PrecedenceTable m_table;
+    private Functions m_callable;
+    private TokenList m_tokens;
+    private int m_position;
+    private int m_operands;
+    private final ArrayList<Frame> m_frames;
+    private int m_depth;
+    private int m_maxDepth;
+    private int m_tierThreshold;
+
+    public ExpressionCompiler(Functions functions, OperatorList operators) {
+        this(functions, operators, new ArrayList<>());
+    }
+
+    /**
+     * @param functions Functions that identifiers followed by brackets may refer to.
+     * @param operators Operators used to parse the expression.
+     * @param parameters Identifiers compiled into positional parameter slots rather than resolved as constants.
+     */
+    public ExpressionCompiler(Functions functions, OperatorList operators, List<String> parameters) {
+        this.m_functions = functions;
+        this.m_operators = operators;
+        this.m_parameters = parameters;
+        this.m_instructions = new ArrayList<>();
+        this.m_frames = new ArrayList<>();
+        this.m_maxDepth = Calculator.DEFAULT_MAX_DEPTH;
+        this.m_tierThreshold = Calculator.DEFAULT_TIER_THRESHOLD;
+    }
+
+    public int getMaxDepth() {
+        return m_maxDepth;
+    }
+
+    /**
+     * @param maxDepth Maximum nesting of brackets, function calls, and pending operators while compiling,
+     *                 and of user function calls while evaluating.
+     */
+    public void setMaxDepth(int maxDepth) {
+        m_maxDepth = maxDepth;
+    }
+
+    public int getTierThreshold() {
+        return m_tierThreshold;
+    }
+
+    /**
+     * @param tierThreshold Evaluations of each compiled expression interpreted before generating code for it,
+     *                      or negative to always interpret.
+     */
+    public void setTierThreshold(int tierThreshold) {
+        m_tierThreshold = tierThreshold;
+    }
+
+    /**
+     * Compile an infix expression with respect to starting and ending indices.
+     * @param expression Expression and characters to compile.
+     * @param start Starting index to compile from.
+     * @param end Ending limiting index.
+     * @param constants Constants used to resolve identifiers at evaluation time.
+     * @param angle Angle mode passed to functions at evaluation time.
+     * @return The compiled expression.
+     */
+    public CompiledExpression compile(String expression, int start, int end, Constants constants, Calculator.Angle angle) {
+        reset(expression, start, end);
+        final int result = m_tokens.size() == 0 ? -1 : compileInfix(false);
+        if (m_position < m_tokens.size()) {
+            //Only a closing bracket or separator outside of any grouping stops the parse early.
+            throw new RuntimeException("No operator found.");
+        }
+        return new CompiledExpression(m_instructions, result, m_parameters, m_functions, m_operators, constants, angle, m_maxDepth, m_tierThreshold);
+    }
+
+    /**
+     * Compile a postfix(RPN) expression with respect to starting and ending indices.
+     * @param expression Expression and characters to compile.
+     * @param start Starting index to compile from.
+     * @param end Ending limiting index.
+     * @param constants Constants used to resolve identifiers at evaluation time.
+     * @param angle Angle mode passed to functions at evaluation time.
+     * @return The compiled expression.
+     */
+    public CompiledExpression compilePostfix(String expression, int start, int end, Constants constants, Calculator.Angle angle) {
+        reset(expression, start, end);
+        final Stack<Integer> values = new Stack<>();
+
+        while (m_position < m_tokens.size()) {
+            final int kind = m_tokens.getKind(m_position);
+
+            if (kind == TokenList.NUMBER && Character.isDigit(m_tokens.getCharacter(m_position))) {
+                values.push(compileInfix(true));
+            }
+            else if (kind == TokenList.OPERATOR) {
+                final int operands = Math.min(2, Math.max(1, values.size()));
+                final Operator operator = m_table.getOperator(m_table.select(m_tokens.getOperator(m_position), operands));
+                //Both operands have already been emitted, so even short circuiting operators are applied directly.
+                values.push(emitOperator(operator, values));
+                ++m_position;
+            }
+            else {
+                throw new RuntimeException("No operator found.");
+            }
+        }
+
+        final int result = values.empty() ? -1 : values.peek();
+        return new CompiledExpression(m_instructions, result, m_parameters, m_functions, m_operators, constants, angle, m_maxDepth, m_tierThreshold);
+    }
+
+    private void reset(String expression, int start, int end) {
+        //Parse against one snapshot of each registry, however they are edited meanwhile.
+        m_table = m_operators.getTable();
+        m_callable = m_functions.snapshot();
+        m_tokens = new Lexer(m_table).tokenize(expression, start, end);
+        m_position = 0;
+        m_depth = 0;
+        m_instructions.clear();
+    }
+
+    private int emit(CompiledExpression.Instruction instruction) {
+        m_instructions.add(instruction);
+        return m_instructions.size() - 1;
+    }
+
+    /**
+     * Emit an operator, consuming its operands from the value stack.
+     * @param operator The operator to emit.
+     * @param values Stack containing all emitted operands.
+     * @return Index of the emitted instruction.
+     */
+    private int emitOperator(Operator operator, Stack<Integer> values) {
+        final int[] operands = new int[operator.getOperands()];
+
+        //Obtain all of the necessary arguments.
+        for (int op = operands.length - 1; op >= 0; --op) {
+            operands[op] = values.pop();
+        }
+        return emit(CompiledExpression.Instruction.operator(operator, operands));
+    }
+
+    /**
+     * Emit an operator applied to instructions already emitted.
+     * @param operator The operator to emit.
+     * @param operands Instruction of every operand.
+     * @return Index of the emitted instruction.
+     */
+    private int emitOperator(Operator operator, int... operands) {
+        return emit(CompiledExpression.Instruction.operator(operator, operands));
+    }
+
+    /**
+     * Determine whether a token closes the current grouping.
+     * @param token The token to inspect.
+     * @param closers Characters that may close the grouping.
+     * @return True if the token is one of the closers.
+     */
+    private boolean isCloser(int token, String closers) {
+        final int kind = m_tokens.getKind(token);
+        return (kind == TokenList.CLOSING || kind == TokenList.SEPARATOR) && closers.indexOf(m_tokens.getCharacter(token)) != -1;
+    }
+
+    /**
+     * Push a frame, reusing a previously allocated one.
+     * @param type The kind of construct awaiting a value.
+     * @param power Binding power the enclosing expression resumes with.
+     * @return The pushed frame.
+     */
+    private Frame push(Frame.Type type, int power) {
+        if (m_depth == m_maxDepth) {
+            throw new RuntimeException("Maximum depth of " + m_maxDepth + " exceeded.");
+        }
+        if (m_depth == m_frames.size()) {
+            m_frames.add(new Frame());
+        }
+        final Frame frame = m_frames.get(m_depth++);
+        frame.type = type;
+        frame.power = power;
+        frame.operator = null;
+        frame.lhs = -1;
+        frame.branch = -1;
+        frame.implicit = false;
+        return frame;
+    }
+
+    /**
+     * Compile tokens from the current position by precedence climbing.
+     * Operands are preceded by any unary operators, and followed by every operator binding tighter than the
+     * pending one, after which the pending frame receives the value.
+     * Operands written directly after another are multiplied.
+     * @param single True to stop after a single operand, as postfix expressions require.
+     * @return Index of the emitted instruction.
+     */
+    private int compileInfix(boolean single) {
+        final int bottom = m_depth;
+        int power = 0;
+        boolean implicit = false;
+        boolean operand = true;
+        int value = -1;
+        m_operands = UNARY;
+
+        while (true) {
+            if (operand) {
+                if (m_position >= m_tokens.size()) {
+                    throw new RuntimeException("Missing operand.");
+                }
+
+                switch (m_tokens.getKind(m_position)) {
+                    case TokenList.NUMBER: {
+                        //Must be an LHS operand, which binds to an identifier written immediately after it, such as 2π.
+                        value = emit(CompiledExpression.Instruction.constant(m_tokens.getNumber(m_position++)));
+                        if (m_position < m_tokens.size() && m_tokens.getKind(m_position) == TokenList.IDENTIFIER && !m_tokens.isSpaced(m_position)) {
+                            if (isCall(m_position)) {
+                                final Frame call = beginCall(power, implicit);
+                                call.lhs = value;
+                                if (beginArgument(call)) {
+                                    power = 0;
+                                    implicit = false;
+                                    continue;
+                                }
+                                value = finishCall();
+                            }
+                            else {
+                                value = emitOperator(COEFFICIENT, value, emitIdentifier(m_tokens.getSymbol(m_position++)));
+                            }
+                        }
+                        break;
+                    }
+                    case TokenList.IDENTIFIER: {
+                        //Must be an identifier mapped to a function or a constant.
+                        if (isCall(m_position)) {
+                            if (beginArgument(beginCall(power, implicit))) {
+                                power = 0;
+                                implicit = false;
+                                continue;
+                            }
+                            value = finishCall();
+                        }
+                        else {
+                            value = emitIdentifier(m_tokens.getSymbol(m_position++));
+                        }
+                        break;
+                    }
+                    case TokenList.OPENING: {
+                        //Compile internal expression first.
+                        final Frame grouping = push(Frame.Type.GROUPING, power);
+                        grouping.implicit = implicit;
+                        grouping.closers = String.valueOf(Configuration.getClosingBracket(m_tokens.getCharacter(m_position++)));
+                        if (m_position < m_tokens.size() && !isCloser(m_position, grouping.closers)) {
+                            m_operands = UNARY;
+                            power = 0;
+                            implicit = false;
+                            continue;
+                        }
+                        closeGrouping(grouping.closers);
+                        throw new RuntimeException("Empty grouping encountered.");
+                    }
+                    case TokenList.OPERATOR: {
+                        final int id = m_table.select(m_tokens.getOperator(m_position), m_operands);
+                        final Operator operator = m_table.getOperator(id);
+                        //A binary operator, or a unary operator that would apply before its operand is known, has nothing to apply to.
+                        if (operator.getOperands() != UNARY || m_table.getLeftPower(id) <= power) {
+                            throw new RuntimeException("Missing operand.");
+                        }
+                        ++m_position;
+                        push(Frame.Type.PREFIX, power).operator = operator;
+                        power = m_table.getRightPower(id);
+                        continue;
+                    }
+                    default:
+                        //Separators and closing brackets are only valid where a grouping expects them.
+                        throw new RuntimeException("No operator found.");
+                }
+
+                //An implicitly multiplied operand leaves the following operator preferring its unary form, as it always has.
+                m_operands = implicit ? UNARY : BINARY;
+                operand = false;
+            }
+
+            //Apply the following operator if it binds tighter than the pending one.
+            if (m_position < m_tokens.size() && !(single && m_depth == bottom)) {
+                final int kind = m_tokens.getKind(m_position);
+
+                if (kind == TokenList.OPERATOR) {
+                    final int id = m_table.select(m_tokens.getOperator(m_position), m_operands);
+                    final Operator operator = m_table.getOperator(id);
+
+                    if (operator.getOperands() != UNARY) {
+                        if (m_table.getLeftPower(id) > power) {
+                            ++m_position;
+                            final Frame binary = push(Frame.Type.BINARY, power);
+                            binary.operator = operator;
+                            binary.lhs = value;
+                            beginShortCircuit(binary);
+                            m_operands = UNARY;
+                            power = m_table.getRightPower(id);
+                            implicit = false;
+                            operand = true;
+                            continue;
+                        }
+                    }
+                    else if (operator.getAssociativity() == Operator.Associativity.LEFT_TO_RIGHT) {
+                        if (m_table.getLeftPower(id) > power) {
+                            //Operators binding tighter than a postfix operator apply before it.
+                            ++m_position;
+                            push(Frame.Type.POSTFIX, power).operator = operator;
+                            power = m_table.getRightPower(id);
+                            continue;
+                        }
+                    }
+                    else {
+                        //Prefix operator following an operand, such as 2√4.
+                        //Operators after it keep the preference left by the operand.
+                        final int multiplication = implicitMultiplication();
+                        if (m_table.getLeftPower(multiplication) > power) {
+                            final Frame binary = push(Frame.Type.BINARY, power);
+                            binary.operator = m_table.getOperator(multiplication);
+                            binary.lhs = value;
+                            power = m_table.getRightPower(multiplication);
+                            implicit = false;
+                            operand = true;
+                            continue;
+                        }
+                    }
+                }
+                else if (kind != TokenList.CLOSING && kind != TokenList.SEPARATOR) {
+                    if (m_tokens.isSpaced(m_position)) {
+                        throw new RuntimeException("Cannot process two separated operands");
+                    }
+                    final int multiplication = implicitMultiplication();
+                    if (m_table.getLeftPower(multiplication) > power) {
+                        final Frame binary = push(Frame.Type.BINARY, power);
+                        binary.operator = m_table.getOperator(multiplication);
+                        binary.lhs = value;
+                        power = m_table.getRightPower(multiplication);
+                        implicit = true;
+                        operand = true;
+                        continue;
+                    }
+                }
+            }
+
+            //The value is complete, so hand it to the pending frame.
+            if (m_depth == bottom) {
+                return value;
+            }
+            final Frame frame = m_frames.get(m_depth - 1);
+            switch (frame.type) {
+                case BINARY:
+                    value = finishBinary(frame, value);
+                    --m_depth;
+                    break;
+                case PREFIX:
+                case POSTFIX:
+                    value = emitOperator(frame.operator, value);
+                    --m_depth;
+                    break;
+                case GROUPING:
+                    closeGrouping(frame.closers);
+                    --m_depth;
+                    m_operands = frame.implicit ? UNARY : BINARY;
+                    break;
+                case CALL:
+                    frame.arguments.add(value);
+                    if (m_position >= m_tokens.size()) {
+                        throw new RuntimeException("Closing delimiter not found");
+                    }
+                    if (!isCloser(m_position, frame.closers)) {
+                        throw new RuntimeException("No operator found.");
+                    }
+                    if (m_tokens.getCharacter(m_position++) != frame.closer && beginArgument(frame)) {
+                        if (CONDITIONAL.equals(frame.identifier)) {
+                            separateConditional(frame);
+                        }
+                        power = 0;
+                        implicit = false;
+                        operand = true;
+                        continue;
+                    }
+                    value = finishCall();
+                    m_operands = frame.implicit ? UNARY : BINARY;
+                    break;
+            }
+            power = frame.power;
+        }
+    }
+
+    /**
+     * Begin the branches of a short circuiting operator whose left operand has been emitted,
+     * so that its right operand is compiled into the branch evaluated when the left operand does not decide the result.
+     * @param binary The frame awaiting the right operand.
+     */
+    private void beginShortCircuit(Frame binary) {
+        switch (binary.operator.getShortCircuit()) {
+            case AND:
+                emit(CompiledExpression.Instruction.branch(binary.lhs));
+                break;
+            case OR:
+                emit(CompiledExpression.Instruction.branch(binary.lhs));
+                binary.branch = emitOperator(binary.operator, binary.lhs, binary.lhs);
+                emit(CompiledExpression.Instruction.jump());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Emit a binary operator once its right operand has been emitted, joining the branches of a short circuiting operator.
+     * Where the left operand decides the result, the operator is applied to it in place of the right operand.
+     * @param binary The frame holding the operator and its left operand.
+     * @param rhs Instruction of the right operand.
+     * @return Index of the emitted instruction.
+     */
+    private int finishBinary(Frame binary, int rhs) {
+        switch (binary.operator.getShortCircuit()) {
+            case AND: {
+                final int evaluated = emitOperator(binary.operator, binary.lhs, rhs);
+                emit(CompiledExpression.Instruction.jump());
+                final int decided = emitOperator(binary.operator, binary.lhs, binary.lhs);
+                return emit(CompiledExpression.Instruction.select(binary.lhs, evaluated, decided));
+            }
+            case OR: {
+                final int evaluated = emitOperator(binary.operator, binary.lhs, rhs);
+                return emit(CompiledExpression.Instruction.select(binary.lhs, binary.branch, evaluated));
+            }
+            default:
+                return emitOperator(binary.operator, binary.lhs, rhs);
+        }
+    }
+
+    /**
+     * Separate the arguments of a conditional, emitting a BRANCH after its condition and a JUMP after the branch it takes.
+     * @param call The frame collecting the arguments.
+     */
+    private void separateConditional(Frame call) {
+        switch (call.arguments.size()) {
+            case 1:
+                emit(CompiledExpression.Instruction.branch(call.arguments.get(0)));
+                break;
+            case 2:
+                emit(CompiledExpression.Instruction.jump());
+                break;
+            default:
+                throw new RuntimeException(CONDITIONAL + " takes a condition and two branches.");
+        }
+    }
+
+    /**
+     * @return Operator id of the multiplication inserted between adjacent operands.
+     */
+    private int implicitMultiplication() {
+        final int multiplication = m_table.getMultiplication();
+        if (multiplication < 0) {
+            throw new RuntimeException("No operator found.");
+        }
+        return multiplication;
+    }
+
+    /**
+     * Consume the closer of a grouping.
+     * @param closers Characters that may close the grouping.
+     */
+    private void closeGrouping(String closers) {
+        if (m_position >= m_tokens.size()) {
+            throw new RuntimeException("Closing delimiter not found");
+        }
+        if (!isCloser(m_position, closers)) {
+            throw new RuntimeException("No operator found.");
+        }
+        ++m_position;
+    }
+
+    /**
+     * @param position An identifier's token.
+     * @return True if the identifier is a function or conditional called with the bracket immediately after it.
+     */
+    private boolean isCall(int position) {
+        final int next = position+1;
+        return next < m_tokens.size() && m_tokens.getKind(next) == TokenList.OPENING && !m_tokens.isSpaced(next)
+                && (m_callable.contains(m_tokens.getSymbol(position)) || CONDITIONAL.equals(m_tokens.getSymbol(position)));
+    }
+
+    /**
+     * Push a frame collecting the arguments of the function called at the current position.
+     * @param power Binding power the enclosing expression resumes with.
+     * @param implicit True if the call is implicitly multiplied with the previous operand.
+     * @return The pushed frame.
+     */
+    private Frame beginCall(int power, boolean implicit) {
+        final Frame call = push(Frame.Type.CALL, power);
+        call.implicit = implicit;
+        call.identifier = m_tokens.getSymbol(m_position++);
+        call.closer = Configuration.getClosingBracket(m_tokens.getCharacter(m_position++));
+        call.closers = "," + call.closer;
+        call.arguments = new ArrayList<>();
+        return call;
+    }
+
+    /**
+     * Skip to the next argument of a call, after its opening bracket or a separator.
+     * A leading empty argument is ignored, as in rand().
+     * @param call The frame collecting the arguments.
+     * @return True if an argument begins at the current position, false if the call is complete.
+     */
+    private boolean beginArgument(Frame call) {
+        while (m_position < m_tokens.size()) {
+            if (!isCloser(m_position, call.closers)) {
+                m_operands = UNARY;
+                return true;
+            }
+            if (!call.arguments.isEmpty()) {
+                throw new RuntimeException("Empty argument encountered.");
+            }
+            if (m_tokens.getCharacter(m_position++) == call.closer) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Pop the frame of a complete call and emit it, or the SELECT joining the branches of a conditional.
+     * @return Index of the emitted instruction.
+     */
+    private int finishCall() {
+        final Frame call = m_frames.get(--m_depth);
+        final int[] operands = call.arguments.stream().mapToInt(Integer::intValue).toArray();
+        final int function;
+        if (CONDITIONAL.equals(call.identifier)) {
+            if (operands.length != 3) {
+                throw new RuntimeException(CONDITIONAL + " takes a condition and two branches.");
+            }
+            function = emit(CompiledExpression.Instruction.select(operands[0], operands[1], operands[2]));
+        }
+        else {
+            function = emit(CompiledExpression.Instruction.function(call.identifier, operands));
+        }
+        call.arguments = null;
+        return call.lhs < 0 ? function : emitOperator(COEFFICIENT, call.lhs, function);
+    }
+
+    /**
+     * Emit an identifier that is not a function call.
+     * @param identifier The identifier.
+     * @return Index of the emitted instruction.
+     */
+    private int emitIdentifier(String identifier) {
+        if (m_parameters.contains(identifier)) {
+            return emit(CompiledExpression.Instruction.parameter(identifier, m_parameters.indexOf(identifier)));
+        }
+        else {
+            //Constants are resolved when the expression is evaluated.
+            return emit(CompiledExpression.Instruction.variable(identifier));
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package calculator;
 
+import java.util.List;
+
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.control.TextField;
@@ -53,16 +55,20 @@ public class FunctionEditor extends EditorWindow {
                 final int arguments = extractArguments(selectionModel.getSelectedItem());
 
                 if (!identifier.equals(oldIdentifier)) {
-                    final UserFunction custom = (UserFunction)Functions.JMATH.remove(oldIdentifier, arguments);
+                    final UserFunction custom = (UserFunction)Functions.JMATH.getFunction(oldIdentifier, arguments);
+                    final UserFunction renamed;
+                    try {
+                        renamed = Functions.JMATH.replace(custom, toDefinition(identifier, custom.getVariables(), custom.getExpression()));
+                    } catch (Exception exception) {
+                        identifierField.setText(oldIdentifier);
+                        return;
+                    }
                     final int shadowed = removeListing(identifier, arguments);
-                    Functions.JMATH.remove(identifier, arguments);
-                    custom.setIdentifier(identifier);
-                    Functions.JMATH.loadFunctionFromString(custom.getDefinition());
 
                     final int newSelection = selection - (shadowed >= 0 && shadowed < selection ? 1 : 0);
                     items.set(newSelection, functionToString(identifier, arguments));
                     selectionModel.select(newSelection);
-                    definitionField.setText(custom.getDefinition());
+                    definitionField.setText(renamed.getDefinition());
                 }
             }
         }));
@@ -73,31 +79,34 @@ public class FunctionEditor extends EditorWindow {
                 final String identifier = identifierField.getText();
                 final String variables = variableField.getText();
                 final int oldArguments = custom.getArguments();
-                final int newArguments = 1+(int)variables.chars().filter(ch -> ch == ',').count();
-                final MathFunction shadowed = Functions.JMATH.getFunction(identifier, newArguments);
+                final UserFunction redefined;
                 try {
-                    custom.setVariables(variables.substring(1));
+                    redefined = Functions.JMATH.replace(custom, identifier + "(" + variables.substring(1) + " = " + custom.getExpression());
                 } catch (Exception exception) {
                     variableField.setText(custom.getVariables().toString());
                     return;
                 }
+                final int newArguments = redefined.getArguments();
                 if (oldArguments != newArguments) {
-                    Functions.JMATH.remove(identifier, oldArguments);
-                    Functions.JMATH.remove(shadowed);
-
                     final int oldListing = removeListing(identifier, newArguments);
                     final int newSelection = selection - (oldListing >= 0 && oldListing < selection ? 1 : 0);
                     items.set(newSelection, functionToString(identifier, newArguments));
                     selectionModel.select(newSelection);
                 }
-                definitionField.setText(custom.getDefinition());
+                definitionField.setText(redefined.getDefinition());
             }
         }));
         expressionField.focusedProperty().addListener(((observableValue, v0, focused) -> {
             final UserFunction custom = getSelectedFunction();
             if (!focused && custom != null) {
-                custom.setExpression(expressionField.getText());
-                definitionField.setText(custom.getDefinition());
+                final UserFunction redefined;
+                try {
+                    redefined = Functions.JMATH.replace(custom, toDefinition(custom.getIdentifier(), custom.getVariables(), expressionField.getText()));
+                } catch (Exception exception) {
+                    expressionField.setText(custom.getExpression());
+                    return;
+                }
+                definitionField.setText(redefined.getDefinition());
             }
         }));
     }
@@ -163,6 +172,14 @@ public class FunctionEditor extends EditorWindow {
         expressionField.setText(custom.getExpression());
     }
 
+    /**
+     * Functions are redefined as a whole, so that evaluations never see a partially edited function.
+     * @return A definition such as "f(x, y) = x + y".
+     */
+    private static String toDefinition(String identifier, List<String> variables, String expression) {
+        return identifier + "(" + String.join(", ", variables) + ") = " + expression;
+    }
+
     private String functionToString(String identifier, int arguments) {
         return identifier + "(" + arguments + ")";
     }
@@ -1,6 +1,10 @@
 package calculator;
 
+import java.util.Collections;
 import java.util.Set;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleSupplier;
+import java.util.function.DoubleUnaryOperator;
 import java.util.function.Function;
 import java.util.HashMap;
 import java.util.Map;
@@ -9,20 +13,84 @@ import java.util.ArrayList;
 
 /**
  * Class used to map identifiers composed of strings to functional objects.
+ * Every edit copies the functions and publishes them as a new snapshot, which is never modified,
+ * so that any number of threads may read and evaluate them without locking while they are edited.
  */
 public class Functions {
-	private Map<String, ArrayList<MathFunction>> m_functions;
+	/**
+	 * Every overload indexed by name and then by number of arguments, as of one snapshot.
+	 */
+	private static class Tables {
+		final Map<String, MathFunction[]> overloads;
+
+		Tables(Map<String, ArrayList<MathFunction>> functions) {
+			this.overloads = new HashMap<>();
+			for (Map.Entry<String, ArrayList<MathFunction>> entry : functions.entrySet()) {
+				int arity = 0;
+				for (MathFunction fn : entry.getValue()) {
+					arity = Math.max(arity, fn.getArguments() + 1);
+				}
+				final MathFunction[] table = new MathFunction[arity];
+				for (MathFunction fn : entry.getValue()) {
+					if (table[fn.getArguments()] == null) {
+						table[fn.getArguments()] = fn;
+					}
+				}
+				overloads.put(entry.getKey(), table);
+			}
+		}
+	}
+
+	private final Map<String, ArrayList<MathFunction>> m_functions;
+	private final int m_version;
+	private volatile Tables m_tables;
+	private volatile Functions m_current;
 	
 	public Functions() {
-		m_functions = new HashMap<>();
+		m_functions = Collections.emptyMap();
+		m_version = 0;
+		m_current = new Functions(new HashMap<>(), 0);
+	}
+
+	/**
+	 * A snapshot, which is its own current version.
+	 * @param functions Overloads by name, which are never modified afterwards.
+	 * @param version The version of the functions.
+	 */
+	private Functions(Map<String, ArrayList<MathFunction>> functions, int version) {
+		m_functions = functions;
+		m_version = version;
+		m_current = this;
+	}
+
+	/**
+	 * @return A number that changes whenever a function is added or removed.
+	 */
+	public int getVersion() {
+		return m_current.m_version;
+	}
+
+	/**
+	 * Evaluations pin one snapshot, so that they see a single version of every function however the functions are edited meanwhile.
+	 * @return The functions as of the current version, which are never modified, or this if it is a snapshot.
+	 */
+	public Functions snapshot() {
+		return m_current;
+	}
+
+	/**
+	 * @return True if these functions are a snapshot, which cannot be modified.
+	 */
+	public boolean isSnapshot() {
+		return m_current == this;
 	}
 
 	public int size() {
-		return m_functions.size();
+		return m_current.m_functions.size();
 	}
 	
 	public boolean contains(String name) {
-		return m_functions.containsKey(name);
+		return m_current.m_functions.containsKey(name);
 	}
 
 	/**
@@ -32,16 +100,49 @@ public class Functions {
 	 * @return True if a function with a matching name and overload is found, else false.
 	 */
 	public boolean contains(String identifier, int arguments) {
-		if (contains(identifier)) {
-			final ArrayList<MathFunction> overloads = m_functions.get(identifier);
-		
-			for (MathFunction function : overloads) {
-				if (function.getArguments() == arguments) {
-					return true;
+		return indexOf(m_current.m_functions.get(identifier), arguments) >= 0;
+	}
+
+	/**
+	 * @param overloads The overloads of a function, or null.
+	 * @param arguments Number of arguments accepted.
+	 * @return The index of the first overload accepting that many arguments, or -1.
+	 */
+	private static int indexOf(ArrayList<MathFunction> overloads, int arguments) {
+		if (overloads != null) {
+			for (int idx = 0; idx != overloads.size(); ++idx) {
+				if (overloads.get(idx).getArguments() == arguments) {
+					return idx;
 				}
 			}
 		}
-		return false;
+		return -1;
+	}
+
+	/**
+	 * Copy the current functions, so that they can be edited and then published as the next snapshot.
+	 * @return Overloads by name, in lists that are not shared with any snapshot.
+	 */
+	private Map<String, ArrayList<MathFunction>> edit() {
+		if (isSnapshot()) {
+			throw new RuntimeException("Snapshots of functions cannot be modified.");
+		}
+		final Map<String, ArrayList<MathFunction>> functions = new HashMap<>();
+		for (Map.Entry<String, ArrayList<MathFunction>> entry : m_current.m_functions.entrySet()) {
+			functions.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+		}
+		return functions;
+	}
+
+	/**
+	 * Atomically replace the current snapshot.
+	 * @param functions The edited overloads, which must not be modified afterwards.
+	 */
+	private void publish(Map<String, ArrayList<MathFunction>> functions) {
+		if (isSnapshot()) {
+			throw new RuntimeException("Snapshots of functions cannot be modified.");
+		}
+		m_current = new Functions(functions, m_current.m_version + 1);
 	}
 
 	/**
@@ -49,17 +150,23 @@ public class Functions {
 	 * @param identifier Name pertaining to the overloads.
 	 * @return True if the overloads were found and removed, else false.
 	 */
-	public boolean remove(String identifier) {
-		return m_functions.remove(identifier) != null;
+	public synchronized boolean remove(String identifier) {
+		final Map<String, ArrayList<MathFunction>> functions = edit();
+		if (functions.remove(identifier) == null) {
+			return false;
+		}
+		publish(functions);
+		return true;
 	}
 
 
-	public MathFunction remove(MathFunction function) {
-		if (function != null && contains(function.getIdentifier())) {
-			final ArrayList<MathFunction> overloads = getOverloads(function.getIdentifier());
+	public synchronized MathFunction remove(MathFunction function) {
+		final Map<String, ArrayList<MathFunction>> functions = edit();
+		if (function != null && functions.containsKey(function.getIdentifier())) {
+			final ArrayList<MathFunction> overloads = functions.get(function.getIdentifier());
 
-			if (overloads.contains(function)) {
-				overloads.remove(function);
+			if (overloads.remove(function)) {
+				publish(functions);
 				return function;
 			}
 		}
@@ -72,29 +179,32 @@ public class Functions {
 	 * @param arguments Number of arguments for that overload.
 	 * @return reference to the removed function if the function was found and removed, else null.
 	 */
-	public MathFunction remove(String identifier, int arguments) {
-		if (contains(identifier)) {
-			final ArrayList<MathFunction> overloads = m_functions.get(identifier);
-		
-			for (int idx = 0; idx != overloads.size(); ++idx) {
-				if (overloads.get(idx).getArguments() == arguments) {
-					return overloads.remove(idx);
-				}
-			}
+	public synchronized MathFunction remove(String identifier, int arguments) {
+		final Map<String, ArrayList<MathFunction>> functions = edit();
+		final int idx = indexOf(functions.get(identifier), arguments);
+		if (idx >= 0) {
+			final MathFunction removed = functions.get(identifier).remove(idx);
+			publish(functions);
+			return removed;
 		}
 		return null;
 	}
 
 	/**
-	 * Get all of the overloads from a given identifier.
+	 * Get all of the overloads from a given identifier, to which another is about to be added.
+	 * The conditional is part of the language, so no function may take its name.
+	 * @param functions The functions being edited.
 	 * @param identifier Shared name between all overloaded functions.
 	 * @return A list containing all the overloads.
 	 */
-	private ArrayList<MathFunction> getOverloads(String identifier) {
-		if (!contains(identifier)) {
-			m_functions.put(identifier, new ArrayList<>());
+	private static ArrayList<MathFunction> getOverloads(Map<String, ArrayList<MathFunction>> functions, String identifier) {
+		if (ExpressionCompiler.CONDITIONAL.equals(identifier)) {
+			throw new RuntimeException(identifier + " cannot be redefined.");
+		}
+		if (!functions.containsKey(identifier)) {
+			functions.put(identifier, new ArrayList<>());
 		}
-		return m_functions.get(identifier);
+		return functions.get(identifier);
 	}
 
 	/**
@@ -104,14 +214,80 @@ public class Functions {
 	 * @param function The actual functional object.
 	 */
 	public void emplace(String identifier, int arguments, Function<MathFunction.ParameterPack, Number> function) {
-		final ArrayList<MathFunction> overloads = getOverloads(identifier);
+		emplace(new JavaFunction(identifier, arguments, function));
+	}
+
+	/**
+	 * Map a function of no arguments to an identifier.
+	 * @param identifier Name used to map the function to.
+	 * @param function The actual functional object.
+	 */
+	public void emplace(String identifier, DoubleSupplier function) {
+		emplace(new JavaFunction(identifier, function));
+	}
+
+	/**
+	 * Map a function of one argument to an identifier.
+	 * @param identifier Name used to map the function to.
+	 * @param function The actual functional object.
+	 */
+	public void emplace(String identifier, DoubleUnaryOperator function) {
+		emplace(new JavaFunction(identifier, function, false));
+	}
+
+	/**
+	 * Map a function of two arguments to an identifier.
+	 * @param identifier Name used to map the function to.
+	 * @param function The actual functional object.
+	 */
+	public void emplace(String identifier, DoubleBinaryOperator function) {
+		emplace(new JavaFunction(identifier, function));
+	}
+
+	/**
+	 * Map a function of one angle to an identifier.
+	 * The argument is converted from the calculator's angle mode to radians before the function is applied.
+	 * @param identifier Name used to map the function to.
+	 * @param function The actual functional object, accepting radians.
+	 */
+	public void emplaceAngular(String identifier, DoubleUnaryOperator function) {
+		emplace(new JavaFunction(identifier, function, true));
+	}
+
+	private synchronized void emplace(JavaFunction function) {
+		final Map<String, ArrayList<MathFunction>> functions = edit();
+		final ArrayList<MathFunction> overloads = getOverloads(functions, function.getIdentifier());
 
 		for (MathFunction fn : overloads) {
-			if (fn.getArguments() == arguments) {
+			if (fn.getArguments() == function.getArguments()) {
 				throw new RuntimeException("Overlapping function signatures");
 			}
 		}
-		overloads.add(new JavaFunction(identifier, arguments, function));
+		overloads.add(function);
+		publish(functions);
+	}
+
+	/**
+	 * Mark every overload of a function as pure or impure, replacing each with an edited copy,
+	 * so that earlier snapshots and expressions compiled against them are unaffected.
+	 * User functions are never pure, so they are left as they are.
+	 * @param identifier The name of the function.
+	 * @param pure True if the function always returns the same value for the same arguments and does nothing else.
+	 */
+	public synchronized void setPure(String identifier, boolean pure) {
+		final Map<String, ArrayList<MathFunction>> functions = edit();
+		final ArrayList<MathFunction> overloads = functions.get(identifier);
+		if (overloads == null) {
+			throw new RuntimeException("No function named " + identifier);
+		}
+		for (int idx = 0; idx != overloads.size(); ++idx) {
+			if (overloads.get(idx) instanceof JavaFunction) {
+				final JavaFunction edited = ((JavaFunction)overloads.get(idx)).copy();
+				edited.setPure(pure);
+				overloads.set(idx, edited);
+			}
+		}
+		publish(functions);
 	}
 
 	/**
@@ -121,142 +297,230 @@ public class Functions {
 	 * @return The result of the invoked math function.
 	 */
 	public Double apply(String identifier, MathFunction.ParameterPack arguments) {
-		final ArrayList<MathFunction> overloads = m_functions.get(identifier);
-
-		for (MathFunction fn : overloads) {
-			if (fn.getArguments() == arguments.values.size()) {
-				return fn.apply(arguments).doubleValue();
-			}
+		final MathFunction fn = getFunction(identifier, arguments.values.size());
+		if (fn != null) {
+			return fn.apply(arguments).doubleValue();
 		}
 		throw new RuntimeException("No overload of " + identifier + " accepts " + arguments.values.size() + " parameters");
 	}
 	
-	public void clear() {
-		m_functions.clear();
+	public synchronized void clear() {
+		publish(new HashMap<>());
 	}
 	
 	public boolean isEmpty() {
-		return m_functions.isEmpty();
+		return m_current.m_functions.isEmpty();
 	}
 
+	/**
+	 * Define a function from a string such as "f(x) = x^2" and compile its body with the default operators.
+	 * @param definition The function's header and expression.
+	 */
 	public void loadFunctionFromString(String definition) {
+		loadFunctionFromString(definition, OperatorList.PEMDAS);
+	}
+
+	/**
+	 * Define a function from a string such as "f(x) = x^2" and compile its body.
+	 * @param definition The function's header and expression.
+	 * @param operators Operators the body is parsed with.
+	 */
+	public synchronized void loadFunctionFromString(String definition, OperatorList operators) {
 		final UserFunction fn = new UserFunction(definition);
-		getOverloads(fn.getIdentifier()).add(fn);
+		final Map<String, ArrayList<MathFunction>> functions = edit();
+		getOverloads(functions, fn.getIdentifier()).add(fn);
+		define(functions, fn, operators);
 	}
 
-	public MathFunction getFunction(String identifier, int arguments) {
-		if (contains(identifier)) {
-			final ArrayList<MathFunction> overloads = getOverloads(identifier);
+	/**
+	 * Redefine a function from a string with the default operators.
+	 * @param existing The function being redefined, or null.
+	 * @param definition The function's new header and expression.
+	 * @return The new function.
+	 */
+	public UserFunction replace(MathFunction existing, String definition) {
+		return replace(existing, definition, OperatorList.PEMDAS);
+	}
 
-			for (MathFunction fn : overloads) {
-				if (fn.getArguments() == arguments) {
-					return fn;
-				}
+	/**
+	 * Redefine a function from a string, replacing an existing function along with any overload the new definition shadows.
+	 * Nothing changes if the new definition is malformed.
+	 * @param existing The function being redefined, or null.
+	 * @param definition The function's new header and expression.
+	 * @param operators Operators the body is parsed with.
+	 * @return The new function.
+	 */
+	public synchronized UserFunction replace(MathFunction existing, String definition, OperatorList operators) {
+		final UserFunction fn = new UserFunction(definition);
+		final Map<String, ArrayList<MathFunction>> functions = edit();
+		if (existing != null && functions.containsKey(existing.getIdentifier())) {
+			final ArrayList<MathFunction> overloads = functions.get(existing.getIdentifier());
+			overloads.remove(existing);
+			if (overloads.isEmpty()) {
+				functions.remove(existing.getIdentifier());
 			}
 		}
-		return null;
+		final ArrayList<MathFunction> overloads = getOverloads(functions, fn.getIdentifier());
+		final int shadowed = indexOf(overloads, fn.getArguments());
+		if (shadowed >= 0) {
+			overloads.remove(shadowed);
+		}
+		overloads.add(fn);
+		define(functions, fn, operators);
+		return fn;
+	}
+
+	/**
+	 * Compile a new function against the edited functions, and publish them only if it compiles.
+	 * Malformed bodies are thereby rejected, and calls don't have to parse.
+	 * @param functions The edited functions, which include the new function.
+	 * @param fn The new function.
+	 * @param operators Operators the function is compiled with.
+	 */
+	private void define(Map<String, ArrayList<MathFunction>> functions, UserFunction fn, OperatorList operators) {
+		final Functions snapshot = new Functions(functions, m_current.m_version + 1);
+		fn.compile(snapshot, operators.snapshot());
+		m_current = snapshot;
+	}
+
+	/**
+	 * Find the overload of a function accepting a number of arguments.
+	 * @param identifier The name of the function.
+	 * @param arguments Number of arguments the overload accepts.
+	 * @return The overload, or null if there is none.
+	 */
+	public MathFunction getFunction(String identifier, int arguments) {
+		final MathFunction[] table = getTable(identifier);
+		return table != null && arguments >= 0 && arguments < table.length ? table[arguments] : null;
+	}
+
+	/**
+	 * Obtain the overloads of a function indexed by their number of arguments.
+	 * The tables are built once for each snapshot, and are never modified afterwards.
+	 * @param identifier The name of the function.
+	 * @return Array whose element n is the overload accepting n arguments, or null if no function has the name.
+	 */
+	public MathFunction[] getTable(String identifier) {
+		final Functions current = m_current;
+		Tables tables = current.m_tables;
+		if (tables == null) {
+			tables = new Tables(current.m_functions);
+			current.m_tables = tables;
+		}
+		return tables.overloads.get(identifier);
 	}
 
 	public MathFunction getFunction(String identifier) {
-		if (contains(identifier)) {
-			return m_functions.get(identifier).get(0);
+		final ArrayList<MathFunction> overloads = m_current.m_functions.get(identifier);
+		if (overloads != null && !overloads.isEmpty()) {
+			return overloads.get(0);
 		}
 		return null;
 	}
 
+	/**
+	 * @return Every function's overloads as of the current version, which must not be modified.
+	 */
 	public Set<Map.Entry<String, ArrayList<MathFunction>>> entrySet() {
-		return m_functions.entrySet();
+		return Collections.unmodifiableMap(m_current.m_functions).entrySet();
 	}
 
+	/**
+	 * Operations shared by the default functions, so that ColumnMath can recognize those it applies to whole columns.
+	 */
+	public static final DoubleUnaryOperator SIN = (x) -> {
+		return Math.sin(x);
+	};
+	public static final DoubleUnaryOperator COS = (x) -> {
+		return Math.cos(x);
+	};
+	public static final DoubleUnaryOperator TAN = (x) -> {
+		return Math.tan(x);
+	};
+	public static final DoubleUnaryOperator SINH = (x) -> {
+		return Math.sinh(x);
+	};
+	public static final DoubleUnaryOperator COSH = (x) -> {
+		return Math.cosh(x);
+	};
+	public static final DoubleUnaryOperator TANH = (x) -> {
+		return Math.tanh(x);
+	};
+	public static final DoubleUnaryOperator EXP = (x) -> {
+		return Math.exp(x);
+	};
+	public static final DoubleUnaryOperator LN = (x) -> {
+		return Math.log(x);
+	};
+	public static final DoubleUnaryOperator LOG10 = (x) -> {
+		return Math.log10(x);
+	};
+
 	/**
 	 * Default set of functions that are available within the java library plus a few more.
 	 */
 	public static final Functions JMATH;
 	static {
 		JMATH = new Functions();
-		JMATH.emplace("abs", 1, (args) -> {
-			return Math.abs(args.values.get(0).doubleValue());
-		});
-		JMATH.emplace("sqrt", 1, (args) -> {
-			return Math.sqrt(args.values.get(0).doubleValue());
-		});
-		JMATH.emplace("min", 2, (args) -> {
-			return Math.min(args.values.get(0).doubleValue(), args.values.get(1).doubleValue());
+		JMATH.emplace("abs", (x) -> {
+			return Math.abs(x);
 		});
-		JMATH.emplace("max", 2, (args) -> {
-			return Math.max(args.values.get(0).doubleValue(), args.values.get(1).doubleValue());
+		JMATH.emplace("sqrt", (x) -> {
+			return Math.sqrt(x);
 		});
-		JMATH.emplace("floor", 1, (args) -> {
-			return Math.floor(args.values.get(0).doubleValue());
+		JMATH.emplace("min", (lhs, rhs) -> {
+			return Math.min(lhs, rhs);
 		});
-		JMATH.emplace("ceil", 1, (args) -> {
-			return Math.ceil(args.values.get(0).doubleValue());
+		JMATH.emplace("max", (lhs, rhs) -> {
+			return Math.max(lhs, rhs);
 		});
-		JMATH.emplace("round", 1, (args) -> {
-			return (double)Math.round(args.values.get(0).doubleValue());
+		JMATH.emplace("floor", (x) -> {
+			return Math.floor(x);
 		});
-		JMATH.emplace("sin", 1, (args) -> {
-			return Math.sin(args.angle.convertValue(args.values.get(0).doubleValue()));
+		JMATH.emplace("ceil", (x) -> {
+			return Math.ceil(x);
 		});
-		JMATH.emplace("sinh", 1, (args) -> {
-			return Math.sinh(args.values.get(0).doubleValue());
+		JMATH.emplace("round", (x) -> {
+			return (double)Math.round(x);
 		});
-		JMATH.emplace("asin", 1, (args) -> {
-			return Math.asin(args.values.get(0).doubleValue());
+		JMATH.emplaceAngular("sin", SIN);
+		JMATH.emplace("sinh", SINH);
+		JMATH.emplace("asin", (x) -> {
+			return Math.asin(x);
 		});
-		JMATH.emplace("asinh", 1, (args) -> {
-			final double x = args.values.get(0).doubleValue();
+		JMATH.emplace("asinh", (x) -> {
 			return Math.log(x + Math.sqrt(1.0 + x*x));
 		});
-		JMATH.emplace("cos", 1, (args) -> {
-			return Math.cos(args.angle.convertValue(args.values.get(0).doubleValue()));
+		JMATH.emplaceAngular("cos", COS);
+		JMATH.emplace("cosh", COSH);
+		JMATH.emplace("acos", (x) -> {
+			return Math.acos(x);
 		});
-		JMATH.emplace("cosh", 1, (args) -> {
-			return Math.cosh(args.values.get(0).doubleValue());
-		});
-		JMATH.emplace("acos", 1, (args) -> {
-			return Math.acos(args.values.get(0).doubleValue());
-		});
-		JMATH.emplace("acosh", 1, (args) -> {
-			final double x = args.values.get(0).doubleValue();
+		JMATH.emplace("acosh", (x) -> {
 			return Math.log(x + Math.sqrt(x+1)*Math.sqrt(x-1));
 		});
-		JMATH.emplace("tan", 1, (args) -> {
-			return Math.tan(args.angle.convertValue(args.values.get(0).doubleValue()));
-		});
-		JMATH.emplace("tanh", 1, (args) -> {
-			return Math.tanh(args.values.get(0).doubleValue());
-		});
-		JMATH.emplace("atan", 1, (args) -> {
-			return Math.atan(args.values.get(0).doubleValue());
+		JMATH.emplaceAngular("tan", TAN);
+		JMATH.emplace("tanh", TANH);
+		JMATH.emplace("atan", (x) -> {
+			return Math.atan(x);
 		});
-		JMATH.emplace("atanh", 1, (args) -> {
-			final double x = args.values.get(0).doubleValue();
+		JMATH.emplace("atanh", (x) -> {
 			return 0.5 * (Math.log(1+x) - Math.log(1-x));
 		});
-		JMATH.emplace("log", 1, (args) -> {
-			return Math.log10(args.values.get(0).doubleValue());
-		});
-		JMATH.emplace("exp", 1, (args) -> {
-			return Math.exp(args.values.get(0).doubleValue());
-		});
-		JMATH.emplace("ln", 1, (args) -> {
-			return Math.log(args.values.get(0).doubleValue());
-		});
-		JMATH.emplace("log10", 1, (args) -> {
-			return Math.log10(args.values.get(0).doubleValue());
-		});
-		JMATH.emplace("rand", 0, (args) -> {
+		JMATH.emplace("log", LOG10);
+		JMATH.emplace("exp", EXP);
+		JMATH.emplace("ln", LN);
+		JMATH.emplace("log10", LOG10);
+		JMATH.emplace("rand", () -> {
 			return Math.random();
 		});
-		JMATH.emplace("rand", 2, (args) -> {
-			final double lower = args.values.get(0).doubleValue();
-			final double upper = args.values.get(1).doubleValue();
+		JMATH.emplace("rand", (lower, upper) -> {
 			return lower + Math.random() * (upper - lower);
 		});
+		JMATH.setPure("rand", false);
 		JMATH.loadFunctionFromString("nthroot(value, n) = value ^ (1/n)");
 		JMATH.loadFunctionFromString("randInt(l, u) = floor(rand(floor(l), floor(u)+1))");
-		JMATH.loadFunctionFromString("pick(cnd, lhs, rhs) = lhs(cnd != 0) + rhs(cnd == 0)");
+		JMATH.loadFunctionFromString("pick(cnd, lhs, rhs) = if(cnd, lhs, rhs)");
 		JMATH.loadFunctionFromString("choose(n, c) = n! / (c!(n-c)!)");
 		JMATH.loadFunctionFromString("degrees(rads) = rads * (180/pi)");
 		JMATH.loadFunctionFromString("radians(degs) = degs * (pi/180)");
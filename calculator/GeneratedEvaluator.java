@@ -0,0 +1,32 @@
+package calculator;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+
+/**
+ * Template for the hidden classes defined by the CodeGenerator, never loaded by itself.
+ * Every hidden class copied from it receives a method handle as class data,
+ * which becomes a constant the JIT compiles into eval.
+ */
+final class GeneratedEvaluator implements Evaluator {
+    private static final MethodHandle HANDLE = classData();
+
+    private static MethodHandle classData() {
+        try {
+            return MethodHandles.classData(MethodHandles.lookup(), "_", MethodHandle.class);
+        } catch (IllegalAccessException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    @Override
+    public double eval(double[] vars) {
+        try {
+            return (double)HANDLE.invokeExact(vars);
+        } catch (RuntimeException | Error exception) {
+            throw exception;
+        } catch (Throwable throwable) {
+            throw new RuntimeException(throwable);
+        }
+    }
+}
@@ -1,17 +1,149 @@
 package calculator;
 
+import java.util.ArrayList;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleSupplier;
+import java.util.function.DoubleUnaryOperator;
 import java.util.function.Function;
 
 public class JavaFunction extends MathFunction {
     private Function<ParameterPack, Number> function;
+    private DoubleSupplier nullary;
+    private DoubleUnaryOperator unary;
+    private DoubleBinaryOperator binary;
+    private boolean angular;
 
     public JavaFunction(String identifier, int arguments, Function<ParameterPack, Number> function) {
         super(identifier, arguments);
         this.function = function;
     }
 
+    public JavaFunction(String identifier, DoubleSupplier function) {
+        super(identifier, 0);
+        this.nullary = function;
+    }
+
+    /**
+     * @param identifier Name of the function.
+     * @param function The function applied to the single argument.
+     * @param angular True if the argument is an angle, which is converted to radians before the function is applied.
+     */
+    public JavaFunction(String identifier, DoubleUnaryOperator function, boolean angular) {
+        super(identifier, 1);
+        this.unary = function;
+        this.angular = angular;
+    }
+
+    public JavaFunction(String identifier, DoubleBinaryOperator function) {
+        super(identifier, 2);
+        this.binary = function;
+    }
+
+    private JavaFunction(JavaFunction other) {
+        super(other.identifier, other.arguments);
+        this.function = other.function;
+        this.nullary = other.nullary;
+        this.unary = other.unary;
+        this.binary = other.binary;
+        this.angular = other.angular;
+        this.pure = other.pure;
+    }
+
+    /**
+     * @return A function computing the same values, which may be edited without affecting this one.
+     */
+    public JavaFunction copy() {
+        return new JavaFunction(this);
+    }
+
+    /**
+     * @return True if this function can be invoked through the unboxed apply methods without allocating.
+     */
+    public boolean isPrimitive() {
+        return function == null;
+    }
+
+    /**
+     * @return True if the argument is an angle measured in the calculator's angle mode.
+     */
+    public boolean isAngular() {
+        return angular;
+    }
+
+    /**
+     * @return The function of no arguments, or null.
+     */
+    public DoubleSupplier getNullary() {
+        return nullary;
+    }
+
+    /**
+     * @return The function of a single primitive argument, or null.
+     */
+    public DoubleUnaryOperator getUnary() {
+        return unary;
+    }
+
+    /**
+     * @return The function of two primitive arguments, or null.
+     */
+    public DoubleBinaryOperator getBinary() {
+        return binary;
+    }
+
+    /**
+     * Invoke a function of no arguments.
+     * @return The result of the function.
+     */
+    public double apply() {
+        if (nullary != null) {
+            return nullary.getAsDouble();
+        }
+        return apply(new ParameterPack(new ArrayList<>())).doubleValue();
+    }
+
+    /**
+     * Invoke a function of one argument.
+     * @param value The argument.
+     * @param angle The angle mode the argument is measured in, if it is an angle.
+     * @return The result of the function.
+     */
+    public double apply(double value, Calculator.Angle angle) {
+        if (unary != null) {
+            return unary.applyAsDouble(angular ? angle.convertValue(value) : value);
+        }
+        final ArrayList<Number> values = new ArrayList<>(1);
+        values.add(value);
+        return apply(new ParameterPack(values, null, null, null, angle)).doubleValue();
+    }
+
+    /**
+     * Invoke a function of two arguments.
+     * @param lhs The first argument.
+     * @param rhs The second argument.
+     * @return The result of the function.
+     */
+    public double apply(double lhs, double rhs) {
+        if (binary != null) {
+            return binary.applyAsDouble(lhs, rhs);
+        }
+        final ArrayList<Number> values = new ArrayList<>(2);
+        values.add(lhs);
+        values.add(rhs);
+        return apply(new ParameterPack(values)).doubleValue();
+    }
+
     @Override
     public Number apply(ParameterPack pack) {
+        if (nullary != null) {
+            return nullary.getAsDouble();
+        }
+        if (unary != null) {
+            return apply(pack.values.get(0).doubleValue(), pack.angle);
+        }
+        if (binary != null) {
+            return binary.applyAsDouble(pack.values.get(0).doubleValue(), pack.values.get(1).doubleValue());
+        }
         return function.apply(pack);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,105 @@
+package calculator;
+
+/**
+ * Splits an expression into a TokenList in a single pass.
+ * Operators are matched by longest match against the trie of a PrecedenceTable.
+ */
+public class Lexer {
+    private final PrecedenceTable m_operators;
+
+    public Lexer(PrecedenceTable operators) {
+        this.m_operators = operators;
+    }
+
+    /**
+     * Tokenize an expression with respect to starting and ending indices.
+     * @param expression The expression to tokenize.
+     * @param start Starting index to tokenize from.
+     * @param end Ending limiting index.
+     * @return Every token within the range.
+     */
+    public TokenList tokenize(String expression, int start, int end) {
+        final TokenList tokens = new TokenList(expression);
+
+        int original = start;
+        while ((start = Calculator.skipWhitespace(expression, start, end)) < end) {
+            final char ch = expression.charAt(start);
+            final boolean spaced = original != start;
+
+            if (ch == ',') {
+                tokens.add(TokenList.SEPARATOR, start, start+1, spaced, null, 0);
+                ++start;
+            }
+            else if (Configuration.isOpeningBracket(ch)) {
+                tokens.add(TokenList.OPENING, start, start+1, spaced, null, 0);
+                ++start;
+            }
+            else if (Configuration.isClosingBracket(ch)) {
+                tokens.add(TokenList.CLOSING, start, start+1, spaced, null, 0);
+                ++start;
+            }
+            else if (Configuration.isFloatingPoint(ch)) {
+                final int extract = scanDouble(expression, start, end);
+                final double value = Double.parseDouble(expression.substring(start, extract));
+                tokens.add(TokenList.NUMBER, start, extract, spaced, null, value);
+                start = extract;
+            }
+            else if (Configuration.isIdentifierChar(ch)) {
+                int extract = start;
+                while (extract < end && Configuration.isIdentifierChar(expression.charAt(extract))) {
+                    ++extract;
+                }
+                tokens.add(TokenList.IDENTIFIER, start, extract, spaced, expression.substring(start, extract), 0);
+                start = extract;
+            }
+            else {
+                final int symbol = m_operators.getTrie().match(expression, start, end);
+                if (symbol < 0) {
+                    throw new RuntimeException("No operator found.");
+                }
+                final String operator = m_operators.getSymbol(symbol);
+                tokens.addOperator(start, start + operator.length(), spaced, operator, symbol);
+                start += operator.length();
+            }
+            original = start;
+        }
+
+        return tokens;
+    }
+
+    /**
+     * Find the end of a number, which may have a decimal point and an exponent.
+     * @param expression The expression to be scanned.
+     * @param start The index of the number's first character.
+     * @param end The ending and limiting index.
+     * @return The index after the number's last character.
+     */
+    private static int scanDouble(String expression, int start, int end) {
+        int idx = start;
+        boolean decimal = false; //Can only exist one decimal point.
+        boolean scientific = false; //Can only exist a single E.
+        boolean inverse = false;
+
+        for (; idx < end; ++idx) {
+            final char ch = expression.charAt(idx);
+            //Check for a decimal point, if one isn't yet found.
+            if (ch == '.' && !decimal) {
+                decimal = true; //Toggle decimal flag.
+            }
+            else if (Character.toUpperCase(ch) == 'E' && !scientific) {
+                scientific = true;
+            }
+            else if (scientific && ch == '-' && !inverse) {
+                inverse = true;
+            }
+            else if (!Character.isDigit(ch)) {
+                break; //Break if another decimal point is encountered or any non-digit character.
+            }
+        }
+        if (scientific && expression.charAt(idx-1) == 'E') {
+            throw new RuntimeException("Scientific format requires an integer exponent.");
+        }
+
+        return idx;
+    }
+}
@@ -85,7 +85,7 @@ public class Main extends Application {
         Configuration.STAGE_STACK.push(primaryStage);
         primaryStage.show();
         final MenuButton menu = (MenuButton)(primaryStage.getScene().lookup("#display").lookup("#settings"));
-        Configuration.listenFor(menu.getItems());
+        Configuration.listenFor(menu.getItems(), controller.display.getContext());
     }
 
     public static void main(String[] args) {
@@ -25,6 +25,7 @@ public abstract class MathFunction {
 
     protected String identifier;
     protected int arguments;
+    protected boolean pure = true;
 
     public MathFunction() {
         this(null, 0);
@@ -43,5 +44,23 @@ public abstract class MathFunction {
         return arguments;
     }
 
+    /**
+     * A pure function always returns the same value for the same arguments and does nothing else,
+     * so calls with constant arguments may be evaluated once when an expression is optimized.
+     * @return True if the function is pure.
+     */
+    public boolean isPure() {
+        return pure;
+    }
+
+    /**
+     * Functions held by a Functions registry should be marked through Functions.setPure,
+     * so that expressions optimized against them are optimized again.
+     * @param pure True if the function is pure.
+     */
+    public void setPure(boolean pure) {
+        this.pure = pure;
+    }
+
     public abstract Number apply(ParameterPack pack);
 }
\ No newline at end of file
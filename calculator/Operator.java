@@ -2,6 +2,8 @@ package calculator;
 
 import java.util.ArrayList;
 import java.util.Objects;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
 import java.util.function.Function;
 
 public class Operator {
@@ -28,11 +30,31 @@ public class Operator {
         }
     }
 
+    /**
+     * Whether a binary operator's right operand may go unevaluated because the left operand alone decides the result.
+     * A skipped right operand is replaced by the left one, so the operator must give the decided result for it.
+     */
+    public enum ShortCircuit {
+        NONE,
+        /**
+         * The right operand is only evaluated if the left is nonzero, as for &&.
+         */
+        AND,
+        /**
+         * The right operand is only evaluated if the left is zero, as for ||.
+         */
+        OR
+    }
+
     private int operands;
     private int precedence;
     private String identifier;
     private Associativity associativity;
     private Function<ArrayList<Double>, Double> operation;
+    private DoubleUnaryOperator unary;
+    private DoubleBinaryOperator binary;
+    private boolean commutative;
+    private ShortCircuit shortCircuit = ShortCircuit.NONE;
 
     /**
      * An operator has operands, precedence, identification, associativity, and an actual function.
@@ -51,6 +73,51 @@ public class Operator {
         this.operation = operation;
     }
 
+    /**
+     * A unary operator computed without boxing its operand.
+     * @param precedence The precedence relative to other operators.
+     * @param identifier The named identifier for this operator.
+     * @param associativity The associativity needed to process this operator.
+     * @param operation The function applied to the single operand.
+     */
+    public Operator(int precedence, String identifier, Associativity associativity, DoubleUnaryOperator operation)
+    {
+        this(1, precedence, identifier, associativity, (Function<ArrayList<Double>, Double>)null);
+        this.unary = operation;
+    }
+
+    /**
+     * A binary operator computed without boxing its operands.
+     * @param precedence The precedence relative to other operators.
+     * @param identifier The named identifier for this operator.
+     * @param associativity The associativity needed to process this operator.
+     * @param operation The function applied to the left and right operands.
+     */
+    public Operator(int precedence, String identifier, Associativity associativity, DoubleBinaryOperator operation)
+    {
+        this(2, precedence, identifier, associativity, (Function<ArrayList<Double>, Double>)null);
+        this.binary = operation;
+    }
+
+    /**
+     * @param other The operator to copy.
+     */
+    private Operator(Operator other)
+    {
+        this(other.operands, other.precedence, other.identifier, other.associativity, other.operation);
+        this.unary = other.unary;
+        this.binary = other.binary;
+        this.commutative = other.commutative;
+        this.shortCircuit = other.shortCircuit;
+    }
+
+    /**
+     * @return An operator computing the same operation, which may be edited without affecting this one.
+     */
+    public Operator copy() {
+        return new Operator(this);
+    }
+
     public void setPrecedence(int precedence) {
         this.precedence = precedence;
     }
@@ -59,6 +126,34 @@ public class Operator {
         this.associativity = associativity;
     }
 
+    /**
+     * @param commutative True if swapping the two operands never changes the result.
+     */
+    public void setCommutative(boolean commutative) {
+        this.commutative = commutative;
+    }
+
+    /**
+     * @return True if this is a binary operator whose operands may be swapped.
+     */
+    public boolean isCommutative() {
+        return commutative && operands == 2;
+    }
+
+    /**
+     * @param shortCircuit When the right operand may go unevaluated.
+     */
+    public void setShortCircuit(ShortCircuit shortCircuit) {
+        this.shortCircuit = shortCircuit;
+    }
+
+    /**
+     * @return When the right operand of a binary operator may go unevaluated, which is never for other operators.
+     */
+    public ShortCircuit getShortCircuit() {
+        return operands == 2 ? shortCircuit : ShortCircuit.NONE;
+    }
+
     /**
      * @return How many operands needed to invoke this operator.
      */
@@ -87,15 +182,65 @@ public class Operator {
         return associativity;
     }
 
+    /**
+     * @return The operation of a unary operator that accepts a primitive operand, or null.
+     */
+    public DoubleUnaryOperator getUnaryOperation() {
+        return unary;
+    }
+
+    /**
+     * @return The operation of a binary operator that accepts primitive operands, or null.
+     */
+    public DoubleBinaryOperator getBinaryOperation() {
+        return binary;
+    }
+
     /**
      * Invoke this operator with an argument list.
      * @param args The numeric values to be processed by the operator.
      * @return The output of this operator.
      */
     public Double apply(ArrayList<Double> args) {
+        if (unary != null) {
+            return unary.applyAsDouble(args.get(0));
+        }
+        if (binary != null) {
+            return binary.applyAsDouble(args.get(0), args.get(1));
+        }
         return operation.apply(args);
     }
 
+    /**
+     * Invoke this operator with a single operand.
+     * @param operand The numeric value to be processed by the operator.
+     * @return The output of this operator.
+     */
+    public double apply(double operand) {
+        if (unary != null) {
+            return unary.applyAsDouble(operand);
+        }
+        final ArrayList<Double> args = new ArrayList<>(1);
+        args.add(operand);
+        return apply(args);
+    }
+
+    /**
+     * Invoke this operator with two operands.
+     * @param lhs The left hand operand.
+     * @param rhs The right hand operand.
+     * @return The output of this operator.
+     */
+    public double apply(double lhs, double rhs) {
+        if (binary != null) {
+            return binary.applyAsDouble(lhs, rhs);
+        }
+        final ArrayList<Double> args = new ArrayList<>(2);
+        args.add(lhs);
+        args.add(rhs);
+        return apply(args);
+    }
+
     /**
      * Determine if this operator has precedence over the other.
      * @param other The operator to have it's precedence compared.
@@ -129,7 +274,7 @@ public class Operator {
 
     @Override
     public int hashCode() {
-        return Objects.hash(operands, precedence, identifier, operation);
+        return Objects.hash(operands, precedence, identifier, operation, unary, binary);
     }
 }
 
@@ -55,14 +55,14 @@ public class OperatorEditor extends EditorWindow {
                     precedenceField.setText(String.valueOf(operator.getPrecedence()));
                     return;
                 }
-                operator.setPrecedence(value);
+                OperatorList.PEMDAS.setPrecedence(operator, value);
             }
         }));
         associativityField.getSelectionModel().selectedItemProperty().addListener(((observableValue, v0, newValue) -> {
             final String identifier = identifierField.getText();
             final int operands = extractOperands(selectionModel.getSelectedItem());
             final Operator operator = OperatorList.PEMDAS.get(identifier, operands);
-            operator.setAssociativity(Operator.Associativity.fromPrettyName((String)newValue));
+            OperatorList.PEMDAS.setAssociativity(operator, Operator.Associativity.fromPrettyName((String)newValue));
         }));
 
     }
@@ -1,13 +1,25 @@
 package calculator;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Set;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
 import java.util.function.Function;
 
+/**
+ * Operators by identifier, along with the alternate spellings of operators.
+ * Every edit copies the list and publishes it as a new snapshot, which is never modified,
+ * so that any number of threads may parse with it without locking while it is edited.
+ */
 public class OperatorList {
-    private Map<String, ArrayList<Operator>> m_operators;
+    private final Map<String, ArrayList<Operator>> m_operators;
+    private final Map<String, String> m_aliases;
+    private final int m_version;
+    private volatile PrecedenceTable m_table;
+    private volatile OperatorList m_current;
 
     /**
      * PEMDAS contains a list of operators with priorities that adhere to the order of operations described by PEMDAS.
@@ -15,6 +27,50 @@ public class OperatorList {
      */
     static public final OperatorList PEMDAS;
 
+    /**
+     * Operations shared by the default operators, so that they can be recognized when optimizing
+     * and applied to whole columns by ColumnKernels.
+     */
+    public static final DoubleBinaryOperator ADD = (lhs, rhs) -> {
+        return lhs + rhs;
+    };
+    public static final DoubleBinaryOperator SUBTRACT = (lhs, rhs) -> {
+        return lhs - rhs;
+    };
+    public static final DoubleBinaryOperator MULTIPLY = (lhs, rhs) -> {
+        return lhs * rhs;
+    };
+    public static final DoubleBinaryOperator DIVIDE = (lhs, rhs) -> {
+        return lhs / rhs;
+    };
+    public static final DoubleBinaryOperator POWER = (lhs, rhs) -> {
+        return Math.pow(lhs, rhs);
+    };
+    public static final DoubleBinaryOperator EQUAL = (lhs, rhs) -> {
+        return Double.compare(lhs, rhs) == 0 ? 1. : 0.;
+    };
+    public static final DoubleBinaryOperator NOT_EQUAL = (lhs, rhs) -> {
+        return Double.compare(lhs, rhs) == 0 ? 0. : 1.;
+    };
+    public static final DoubleBinaryOperator LESS = (lhs, rhs) -> {
+        return lhs < rhs ? 1. : 0.;
+    };
+    public static final DoubleBinaryOperator LESS_EQUAL = (lhs, rhs) -> {
+        return lhs <= rhs ? 1. : 0.;
+    };
+    public static final DoubleBinaryOperator GREATER = (lhs, rhs) -> {
+        return lhs > rhs ? 1. : 0.;
+    };
+    public static final DoubleBinaryOperator GREATER_EQUAL = (lhs, rhs) -> {
+        return lhs >= rhs ? 1. : 0.;
+    };
+    public static final DoubleUnaryOperator NEGATE = (value) -> {
+        return -value;
+    };
+    public static final DoubleUnaryOperator SQRT = (value) -> {
+        return Math.sqrt(value);
+    };
+
     /**
      * IMMEDIATE contains a list of operator with equivalent priorities.
      * Left associative operators are invoked as soon as they reached.
@@ -23,165 +79,307 @@ public class OperatorList {
     static public final OperatorList IMMEDIATE;
     static {
         PEMDAS = new OperatorList();
-        PEMDAS.add("==", 6, 2, (args) -> {
-            return args.get(0).equals(args.get(1)) ? 1. : 0.;
-        });
-        PEMDAS.add("=", 6, 2, (args) -> {
-            return args.get(0).equals(args.get(1)) ? 1. : 0.;
-        });
-        PEMDAS.add("!=", 6, 2, (args) -> {
-            return args.get(0).equals(args.get(1)) ? 0. : 1.;
-        });
-        PEMDAS.add("≠", 6, 2, (args) -> {
-            return args.get(0).equals(args.get(1)) ? 0. : 1.;
-        });
-        PEMDAS.add("<", 6, 2, (args) -> {
-           return args.get(0) < args.get(1) ? 1. : 0.;
-        });
-        PEMDAS.add("<=", 6, 2, (args) -> {
-            return args.get(0) <= args.get(1) ? 1. : 0.;
-        });
-        PEMDAS.add("≤", 6, 2, (args) -> {
-            return args.get(0) <= args.get(1) ? 1. : 0.;
-        });
-        PEMDAS.add(">", 6, 2, (args) -> {
-            return args.get(0) > args.get(1) ? 1. : 0.;
-        });
-        PEMDAS.add(">=", 6, 2, (args) -> {
-            return args.get(0) >= args.get(1) ? 1. : 0.;
-        });
-        PEMDAS.add("≥", 6, 2, (args) -> {
-            return args.get(0) >= args.get(1) ? 1. : 0.;
-        });
-        PEMDAS.add("&&", 6, 2, (args) -> {
-            return args.get(0) != 0 && args.get(1) != 0 ? 1. : 0.;
-        });
-        PEMDAS.add("||", 6, 2, (args) -> {
-            return args.get(0) != 0 || args.get(1) != 0 ? 1. : 0.;
-        });
-        PEMDAS.add("+", 5, 2, (args) -> {
-            return args.get(0) + args.get(1);
-        });
-        PEMDAS.add("-", 5, 2, (args) -> {
-            return args.get(0) - args.get(1);
-        });
-        PEMDAS.add("–", 5, 2, (args) -> {
-            return args.get(0) - args.get(1);
-        });
-        PEMDAS.add("/", 4, 2, (args) -> {
-            return args.get(0) / args.get(1);
-        });
-        PEMDAS.add("*", 4, 2, (args) -> {
-            return args.get(0) * args.get(1);
-        });
-        PEMDAS.add("÷", 4, 2, (args) -> {
-            return args.get(0) / args.get(1);
-        });
-        PEMDAS.add("×", 4, 2, (args) -> {
-            return args.get(0) * args.get(1);
-        });
-        PEMDAS.add("%", 4, 2, (args) -> {
-            return args.get(0) % args.get(1);
-        });
-        PEMDAS.add("-", 3, 1, (args) -> {
-        	return -args.get(0);
-        }, Operator.Associativity.RIGHT_TO_LEFT);
-        PEMDAS.add("√", 3, 1, (args) -> {
-            return Math.sqrt(args.get(0));
-        }, Operator.Associativity.RIGHT_TO_LEFT);
-        PEMDAS.add("^", 3, 2, (args) -> {
-            return Math.pow(args.get(0), args.get(1));
-        }, Operator.Associativity.RIGHT_TO_LEFT);
-        PEMDAS.add("!", 2, 1, (args) -> {
+        PEMDAS.add("==", 6, EQUAL);
+        PEMDAS.add("=", 6, EQUAL);
+        PEMDAS.add("!=", 6, NOT_EQUAL);
+        PEMDAS.add("≠", 6, NOT_EQUAL);
+        PEMDAS.add("<", 6, LESS);
+        PEMDAS.add("<=", 6, LESS_EQUAL);
+        PEMDAS.add("≤", 6, LESS_EQUAL);
+        PEMDAS.add(">", 6, GREATER);
+        PEMDAS.add(">=", 6, GREATER_EQUAL);
+        PEMDAS.add("≥", 6, GREATER_EQUAL);
+        PEMDAS.add("&&", 6, (lhs, rhs) -> {
+            return lhs != 0 && rhs != 0 ? 1. : 0.;
+        });
+        PEMDAS.add("||", 6, (lhs, rhs) -> {
+            return lhs != 0 || rhs != 0 ? 1. : 0.;
+        });
+        PEMDAS.add("+", 5, ADD);
+        PEMDAS.add("-", 5, SUBTRACT);
+        PEMDAS.add("–", 5, SUBTRACT);
+        PEMDAS.add("/", 4, DIVIDE);
+        PEMDAS.add("*", 4, MULTIPLY);
+        PEMDAS.add("÷", 4, DIVIDE);
+        PEMDAS.add("×", 4, MULTIPLY);
+        PEMDAS.add("%", 4, (lhs, rhs) -> {
+            return lhs % rhs;
+        });
+        PEMDAS.add("-", 3, NEGATE, Operator.Associativity.RIGHT_TO_LEFT);
+        PEMDAS.add("√", 3, SQRT, Operator.Associativity.RIGHT_TO_LEFT);
+        PEMDAS.add("^", 3, POWER, Operator.Associativity.RIGHT_TO_LEFT);
+        PEMDAS.add("!", 2, (value) -> {
             double factorial = 1;
 
-            for (int i = 2; i <= args.get(0); ++i) {
+            for (int i = 2; i <= value; ++i) {
                 factorial *= i;
             }
 
             return factorial;
         });
 
+        declareEquivalences(PEMDAS);
+
         IMMEDIATE = new OperatorList();
-        IMMEDIATE.add("==", 1, 2, (args) -> {
-            return args.get(0).equals(args.get(1)) ? 1. : 0.;
-        });
-        IMMEDIATE.add("<", 1, 2, (args) -> {
-            return args.get(0) < args.get(1) ? 1. : 0.;
-        });
-        IMMEDIATE.add("<=", 1, 2, (args) -> {
-            return args.get(0) <= args.get(1) ? 1. : 0.;
-        });
-        IMMEDIATE.add("≤", 1, 2, (args) -> {
-            return args.get(0) <= args.get(1) ? 1. : 0.;
-        });
-        IMMEDIATE.add(">", 1, 2, (args) -> {
-            return args.get(0) > args.get(1) ? 1. : 0.;
-        });
-        IMMEDIATE.add(">=", 1, 2, (args) -> {
-            return args.get(0) >= args.get(1) ? 1. : 0.;
-        });
-        IMMEDIATE.add("≥", 1, 2, (args) -> {
-            return args.get(0) >= args.get(1) ? 1. : 0.;
-        });
-        IMMEDIATE.add("+", 1, 2, (args) -> {
-            return args.get(0) + args.get(1);
-        });
-        IMMEDIATE.add("-", 1, 2, (args) -> {
-            return args.get(0) - args.get(1);
-        });
-        IMMEDIATE.add("–", 1, 2, (args) -> {
-            return args.get(0) - args.get(1);
-        });
-        IMMEDIATE.add("/", 1, 2, (args) -> {
-            return args.get(0) / args.get(1);
-        });
-        IMMEDIATE.add("*", 1, 2, (args) -> {
-            return args.get(0) * args.get(1);
-        });
-        IMMEDIATE.add("÷", 1, 2, (args) -> {
-            return args.get(0) / args.get(1);
-        });
-        IMMEDIATE.add("×", 1, 2, (args) -> {
-            return args.get(0) * args.get(1);
-        });
-        IMMEDIATE.add("%", 1, 2, (args) -> {
-            return args.get(0) % args.get(1);
-        });
-        IMMEDIATE.add("-", 1, 1, (args) -> {
-            return -args.get(0);
-        }, Operator.Associativity.RIGHT_TO_LEFT);
-        IMMEDIATE.add("√", 1, 1, (args) -> {
-            return Math.sqrt(args.get(0));
-        }, Operator.Associativity.RIGHT_TO_LEFT);
-        IMMEDIATE.add("^", 1, 2, (args) -> {
-            return Math.pow(args.get(0), args.get(1));
-        }, Operator.Associativity.LEFT_TO_RIGHT);
-        IMMEDIATE.add("!", 1, 1, (args) -> {
+        IMMEDIATE.add("==", 1, EQUAL);
+        IMMEDIATE.add("<", 1, LESS);
+        IMMEDIATE.add("<=", 1, LESS_EQUAL);
+        IMMEDIATE.add("≤", 1, LESS_EQUAL);
+        IMMEDIATE.add(">", 1, GREATER);
+        IMMEDIATE.add(">=", 1, GREATER_EQUAL);
+        IMMEDIATE.add("≥", 1, GREATER_EQUAL);
+        IMMEDIATE.add("+", 1, ADD);
+        IMMEDIATE.add("-", 1, SUBTRACT);
+        IMMEDIATE.add("–", 1, SUBTRACT);
+        IMMEDIATE.add("/", 1, DIVIDE);
+        IMMEDIATE.add("*", 1, MULTIPLY);
+        IMMEDIATE.add("÷", 1, DIVIDE);
+        IMMEDIATE.add("×", 1, MULTIPLY);
+        IMMEDIATE.add("%", 1, (lhs, rhs) -> {
+            return lhs % rhs;
+        });
+        IMMEDIATE.add("-", 1, NEGATE, Operator.Associativity.RIGHT_TO_LEFT);
+        IMMEDIATE.add("√", 1, SQRT, Operator.Associativity.RIGHT_TO_LEFT);
+        IMMEDIATE.add("^", 1, POWER, Operator.Associativity.LEFT_TO_RIGHT);
+        IMMEDIATE.add("!", 1, (value) -> {
             double factorial = 1;
 
-            for (int i = 2; i <= args.get(0); ++i) {
+            for (int i = 2; i <= value; ++i) {
                 factorial *= i;
             }
 
             return factorial;
         });
+        declareEquivalences(IMMEDIATE);
+    }
+
+    /**
+     * Register the alternate spellings of operators, mark the commutative ones, and let the logical ones short circuit.
+     * @param list The list to declare within.
+     */
+    private static void declareEquivalences(OperatorList list) {
+        list.addAlias("×", "*");
+        list.addAlias("÷", "/");
+        list.addAlias("≠", "!=");
+        list.addAlias("≤", "<=");
+        list.addAlias("≥", ">=");
+        list.addAlias("–", "-");
+        list.addAlias("=", "==");
+
+        for (String identifier : new String[] {"+", "*", "×", "==", "=", "!=", "≠", "&&", "||"}) {
+            final Operator operator = list.get(identifier, 2);
+            if (operator != null) {
+                list.setCommutative(operator, true);
+            }
+        }
+        final Operator and = list.get("&&", 2);
+        if (and != null) {
+            list.setShortCircuit(and, Operator.ShortCircuit.AND);
+        }
+        final Operator or = list.get("||", 2);
+        if (or != null) {
+            list.setShortCircuit(or, Operator.ShortCircuit.OR);
+        }
     }
 
     public OperatorList() {
-        m_operators = new HashMap<>();
+        m_operators = Collections.emptyMap();
+        m_aliases = Collections.emptyMap();
+        m_version = 0;
+        m_current = new OperatorList(new HashMap<>(), new HashMap<>(), 0);
+    }
+
+    /**
+     * A snapshot, which is its own current version.
+     * @param operators Operators by identifier, which are never modified afterwards.
+     * @param aliases Alternate spellings, which are never modified afterwards.
+     * @param version The version of the list.
+     */
+    private OperatorList(Map<String, ArrayList<Operator>> operators, Map<String, String> aliases, int version) {
+        m_operators = operators;
+        m_aliases = aliases;
+        m_version = version;
+        m_current = this;
+    }
+
+    /**
+     * @return A number that changes whenever an operator is added, removed, or edited.
+     */
+    public int getVersion() {
+        return m_current.m_version;
+    }
+
+    /**
+     * Evaluations pin one snapshot, so that they see a single version of every operator however the list is edited meanwhile.
+     * @return The list as of the current version, which is never modified, or this if it is a snapshot.
+     */
+    public OperatorList snapshot() {
+        return m_current;
+    }
+
+    /**
+     * @return True if this list is a snapshot, which cannot be modified.
+     */
+    public boolean isSnapshot() {
+        return m_current == this;
+    }
+
+    /**
+     * @return Operator trie and binding powers for parsing, built once for each snapshot.
+     */
+    public PrecedenceTable getTable() {
+        final OperatorList current = m_current;
+        PrecedenceTable table = current.m_table;
+        if (table == null) {
+            table = new PrecedenceTable(current);
+            current.m_table = table;
+        }
+        return table;
+    }
+
+    /**
+     * Copy the current operators, so that they can be edited and then published as the next snapshot.
+     * @return Operators by identifier, in lists that are not shared with any snapshot.
+     */
+    private Map<String, ArrayList<Operator>> edit() {
+        if (isSnapshot()) {
+            throw new RuntimeException("Snapshots of operators cannot be modified.");
+        }
+        final Map<String, ArrayList<Operator>> operators = new HashMap<>();
+        for (Map.Entry<String, ArrayList<Operator>> entry : m_current.m_operators.entrySet()) {
+            operators.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+        return operators;
+    }
+
+    /**
+     * Atomically replace the current snapshot.
+     * @param operators The edited operators, which must not be modified afterwards.
+     * @param aliases The edited spellings, which must not be modified afterwards.
+     */
+    private void publish(Map<String, ArrayList<Operator>> operators, Map<String, String> aliases) {
+        if (isSnapshot()) {
+            throw new RuntimeException("Snapshots of operators cannot be modified.");
+        }
+        m_current = new OperatorList(operators, aliases, m_current.m_version + 1);
+    }
+
+    /**
+     * Replace a registered operator with an edited copy, leaving earlier snapshots and compiled expressions unaffected.
+     * @param operator The registered operator.
+     * @param edited The copy replacing it.
+     */
+    private void replace(Operator operator, Operator edited) {
+        final Map<String, ArrayList<Operator>> operators = edit();
+        final ArrayList<Operator> overloads = operators.get(operator.getIdentifier());
+        if (overloads != null) {
+            for (int idx = 0; idx != overloads.size(); ++idx) {
+                if (overloads.get(idx) == operator) {
+                    overloads.set(idx, edited);
+                    publish(operators, m_current.m_aliases);
+                    return;
+                }
+            }
+        }
+        throw new RuntimeException("Operator " + operator.getIdentifier() + " is not registered.");
+    }
+
+    /**
+     * Change the precedence of a registered operator.
+     * @param operator The operator to edit.
+     * @param precedence The operator's new precedence.
+     */
+    public synchronized void setPrecedence(Operator operator, int precedence) {
+        final Operator edited = operator.copy();
+        edited.setPrecedence(precedence);
+        replace(operator, edited);
+    }
+
+    /**
+     * Change the associativity of a registered operator.
+     * @param operator The operator to edit.
+     * @param associativity The operator's new associativity.
+     */
+    public synchronized void setAssociativity(Operator operator, Operator.Associativity associativity) {
+        final Operator edited = operator.copy();
+        edited.setAssociativity(associativity);
+        replace(operator, edited);
+    }
+
+    /**
+     * Mark whether a registered operator's operands may be swapped.
+     * @param operator The operator to edit.
+     * @param commutative True if swapping the operands never changes the result.
+     */
+    public synchronized void setCommutative(Operator operator, boolean commutative) {
+        final Operator edited = operator.copy();
+        edited.setCommutative(commutative);
+        replace(operator, edited);
+    }
+
+    /**
+     * Change when the right operand of a registered binary operator may go unevaluated.
+     * @param operator The operator to edit.
+     * @param shortCircuit When the right operand may go unevaluated.
+     */
+    public synchronized void setShortCircuit(Operator operator, Operator.ShortCircuit shortCircuit) {
+        final Operator edited = operator.copy();
+        edited.setShortCircuit(shortCircuit);
+        replace(operator, edited);
+    }
+
+    /**
+     * Declare an identifier as another spelling of an operator, such as × for *.
+     * The alias only takes effect while both identifiers have overloads of the same operands, precedence and associativity.
+     * @param alias The alternate spelling.
+     * @param identifier The spelling expressions are canonicalized to.
+     */
+    public synchronized void addAlias(String alias, String identifier) {
+        final Map<String, String> aliases = new HashMap<>(m_current.m_aliases);
+        aliases.put(alias, identifier);
+        publish(m_current.m_operators, aliases);
+    }
+
+    /**
+     * Remove an alternate spelling.
+     * @param alias The alternate spelling.
+     */
+    public synchronized void removeAlias(String alias) {
+        final Map<String, String> aliases = new HashMap<>(m_current.m_aliases);
+        if (aliases.remove(alias) != null) {
+            publish(m_current.m_operators, aliases);
+        }
+    }
+
+    /**
+     * @param alias An operator's identifier.
+     * @return The spelling the identifier is declared an alias of, or null.
+     */
+    public String getAlias(String alias) {
+        return m_current.m_aliases.get(alias);
     }
 
     /**
      * Get all operators associated with a specific identifier.
+     * @param operators The operators being edited.
      * @param identifier The operator's signature.
      * @return A list of operators associated with that identifier.
      */
-    private ArrayList<Operator> getOperators(String identifier) {
-    	if (!contains(identifier)) {
-    		m_operators.put(identifier, new ArrayList<Operator>());
+    private static ArrayList<Operator> getOperators(Map<String, ArrayList<Operator>> operators, String identifier) {
+    	if (!operators.containsKey(identifier)) {
+    		operators.put(identifier, new ArrayList<Operator>());
     	}
-    	return m_operators.get(identifier);
+    	return operators.get(identifier);
+    }
+
+    /**
+     * Register an operator, publishing the list with it.
+     * @param operator The new operator.
+     */
+    private synchronized void add(Operator operator) {
+        final Map<String, ArrayList<Operator>> operators = edit();
+        getOperators(operators, operator.getIdentifier()).add(operator);
+        publish(operators, m_current.m_aliases);
     }
 
     /**
@@ -204,8 +402,49 @@ public class OperatorList {
      * @param associativity The value that determines if the operator is evaluated from left to right or right to left.
      */
     public void add(String identifier, int precedence, int operands, Function<ArrayList<Double>, Double> operation, Operator.Associativity associativity) {
-    	final ArrayList<Operator> operators = getOperators(identifier);
-    	operators.add(new Operator(operands, precedence, identifier, associativity, operation));
+    	add(new Operator(operands, precedence, identifier, associativity, operation));
+    }
+
+    /**
+     * Register a left associative unary operator.
+     * @param identifier The operator's signature.
+     * @param precedence The operator's precedence/priority over other operators.
+     * @param operation The functional operation performed on the single operand.
+     */
+    public void add(String identifier, int precedence, DoubleUnaryOperator operation) {
+        add(identifier, precedence, operation, Operator.Associativity.LEFT_TO_RIGHT);
+    }
+
+    /**
+     * Register a unary operator and its associativity.
+     * @param identifier The operator's signature.
+     * @param precedence The operator's precedence/priority over other operators.
+     * @param operation The functional operation performed on the single operand.
+     * @param associativity The value that determines if the operator is evaluated from left to right or right to left.
+     */
+    public void add(String identifier, int precedence, DoubleUnaryOperator operation, Operator.Associativity associativity) {
+        add(new Operator(precedence, identifier, associativity, operation));
+    }
+
+    /**
+     * Register a left associative binary operator.
+     * @param identifier The operator's signature.
+     * @param precedence The operator's precedence/priority over other operators.
+     * @param operation The functional operation performed on the left and right operands.
+     */
+    public void add(String identifier, int precedence, DoubleBinaryOperator operation) {
+        add(identifier, precedence, operation, Operator.Associativity.LEFT_TO_RIGHT);
+    }
+
+    /**
+     * Register a binary operator and its associativity.
+     * @param identifier The operator's signature.
+     * @param precedence The operator's precedence/priority over other operators.
+     * @param operation The functional operation performed on the left and right operands.
+     * @param associativity The value that determines if the operator is evaluated from left to right or right to left.
+     */
+    public void add(String identifier, int precedence, DoubleBinaryOperator operation, Operator.Associativity associativity) {
+        add(new Operator(precedence, identifier, associativity, operation));
     }
 
     /**
@@ -215,9 +454,8 @@ public class OperatorList {
      * @return The operator with the same identifier and amount of operands if its contained, else null.
      */
     public Operator get(String identifier, int operands) {
-    	if (contains(identifier)) {
-        	final ArrayList<Operator> operators = m_operators.get(identifier);
-        	
+    	final ArrayList<Operator> operators = m_current.m_operators.get(identifier);
+    	if (operators != null) {
         	for (Operator operator : operators) {
         		if (operator.getOperands() == operands) {
         			return operator;
@@ -235,9 +473,8 @@ public class OperatorList {
      * @return null if the operator doesn't exist, else the operator with the requested operands, else any operator.
      */
     public Operator getPreferenceOrAny(String identifier, int operands) {
-    	if (contains(identifier)) {
-        	final ArrayList<Operator> operators = m_operators.get(identifier);
-        	
+    	final ArrayList<Operator> operators = m_current.m_operators.get(identifier);
+    	if (operators != null && !operators.isEmpty()) {
         	for (Operator operator : operators) {
         		if (operator.getOperands() == operands) {
         			return operator;
@@ -255,7 +492,7 @@ public class OperatorList {
      * @return True if the operator is mapped, else false.
      */
     public boolean contains(String identifier) {
-        return m_operators.containsKey(identifier);
+        return m_current.m_operators.containsKey(identifier);
     }
 
     /**
@@ -263,17 +500,20 @@ public class OperatorList {
      * @return True if there are any operators, else false.
      */
     public boolean isEmpty() {
-        return m_operators.isEmpty();
+        return m_current.m_operators.isEmpty();
     }
 
     /**
      * Remove all mapped operators.
      */
-    public void clear() {
-        m_operators.clear();
+    public synchronized void clear() {
+        publish(new HashMap<>(), m_current.m_aliases);
     }
 
+    /**
+     * @return Every identifier's operators as of the current version, which must not be modified.
+     */
     public Set<Map.Entry<String, ArrayList<Operator>>> entrySet() {
-        return m_operators.entrySet();
+        return Collections.unmodifiableMap(m_current.m_operators).entrySet();
     }
 }
@@ -0,0 +1,79 @@
+package calculator;
+
+import java.util.Arrays;
+
+/**
+ * Character trie over operator identifiers, used to find the longest operator at a position in one pass.
+ */
+public class OperatorTrie {
+    private static class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private int symbol = -1;
+
+        private Node child(char key) {
+            for (int idx = 0; idx != keys.length; ++idx) {
+                if (keys[idx] == key) {
+                    return children[idx];
+                }
+            }
+            return null;
+        }
+
+        private Node insert(char key) {
+            final Node existing = child(key);
+            if (existing != null) {
+                return existing;
+            }
+            final Node node = new Node();
+            keys = Arrays.copyOf(keys, keys.length + 1);
+            children = Arrays.copyOf(children, children.length + 1);
+            keys[keys.length - 1] = key;
+            children[children.length - 1] = node;
+            return node;
+        }
+    }
+
+    private final Node root;
+
+    /**
+     * @param operators Every operator identifier to be matched, indexed by symbol id.
+     */
+    public OperatorTrie(String[] operators) {
+        root = new Node();
+
+        for (int symbol = 0; symbol != operators.length; ++symbol) {
+            Node node = root;
+            for (int idx = 0; idx != operators[symbol].length(); ++idx) {
+                node = node.insert(operators[symbol].charAt(idx));
+            }
+            node.symbol = symbol;
+        }
+    }
+
+    /**
+     * Find the longest operator beginning at an index.
+     * Operators may only span operator characters.
+     * @param expression The text to search.
+     * @param start The index the operator must begin at.
+     * @param end The ending and limiting index.
+     * @return The symbol id of the longest matching operator, or -1 if none match.
+     */
+    public int match(String expression, int start, int end) {
+        int operator = -1;
+        Node node = root;
+
+        for (int idx = start; idx < end && node != null; ++idx) {
+            final char ch = expression.charAt(idx);
+            if (!Configuration.isOperatorChar(ch)) {
+                break;
+            }
+            node = node.child(ch);
+            if (node != null && node.symbol >= 0) {
+                operator = node.symbol;
+            }
+        }
+
+        return operator;
+    }
+}
@@ -0,0 +1,527 @@
+package calculator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.DoubleBinaryOperator;
+
+/**
+ * Simplifies compiled expressions for evaluation within a known environment.
+ * Small user function bodies are first substituted for calls to them, so that later passes work across the call.
+ * Operators whose operands are all constant, constants that exist in the environment,
+ * and pure built-in functions called with constant arguments are replaced by their values.
+ * Squares become multiplications, and division by a power of two becomes multiplication by its reciprocal.
+ * Branches of conditionals whose condition is known are reduced to the branch taken.
+ * Structurally identical pure instructions are then merged, so each distinct subexpression is computed once,
+ * although an instruction within a branch is only merged with one evaluated whenever the branch is.
+ * Every rewrite computes exactly the value the original would, so optimized expressions agree with unoptimized ones bit for bit.
+ */
+public class Optimizer {
+    /**
+     * The structure of an instruction whose operands have already been merged.
+     */
+    private static class Shape {
+        final CompiledExpression.Instruction.Type type;
+        final long value;
+        final String identifier;
+        final Operator operator;
+        final int[] operands;
+        final int hash;
+
+        Shape(CompiledExpression.Instruction instruction) {
+            this.type = instruction.getType();
+            this.value = Double.doubleToRawLongBits(instruction.getValue());
+            this.identifier = instruction.getIdentifier();
+            this.operator = instruction.getOperator();
+            this.operands = new int[instruction.getOperandCount()];
+            for (int i = 0; i != operands.length; ++i) {
+                operands[i] = instruction.getOperand(i);
+            }
+            this.hash = ((type.hashCode() * 31 + Long.hashCode(value)) * 31 + (identifier == null ? 0 : identifier.hashCode())) * 31 + Arrays.hashCode(operands);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Shape)) {
+                return false;
+            }
+            final Shape shape = (Shape)o;
+            return hash == shape.hash && type == shape.type && value == shape.value && operator == shape.operator
+                    && (identifier == null ? shape.identifier == null : identifier.equals(shape.identifier)) && Arrays.equals(operands, shape.operands);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Largest user function body substituted for a call, after substituting the calls within it.
+     */
+    public static final int MAX_INLINE_SIZE = 64;
+
+    /**
+     * Deepest nesting of user function bodies substituted into one another.
+     */
+    public static final int MAX_INLINE_DEPTH = 8;
+
+    private Optimizer() {
+    }
+
+    /**
+     * Optimize an expression for evaluation against a set of constants and an angle mode.
+     * Instructions that cannot be folded are kept, even if unused, so evaluation still fails or calls impure functions as before.
+     * @param expression The expression to optimize.
+     * @param constants Constants variables will be resolved from, or null if unknown.
+     * @param angle Angle mode passed to functions, or null if unknown.
+     * @return The optimized expression, or the expression itself if nothing could be simplified.
+     */
+    public static CompiledExpression optimize(CompiledExpression expression, Constants constants, Calculator.Angle angle) {
+        return eliminate(fold(inline(expression, expression.getMaxDepth(), new ArrayList<>()), constants, angle));
+    }
+
+    /**
+     * Substitute small user function bodies for calls to them, with their parameters bound to the arguments.
+     * A body is only substituted once no calls to user functions remain within it, so recursive functions stay calls,
+     * and calls that remain are made at the same depth as before.
+     * @param expression The expression whose calls are substituted.
+     * @param maxDepth Maximum nesting of user function calls, beyond which calls fail and are left to do so.
+     * @param inlining Functions whose bodies are being substituted, outermost first.
+     * @return The expression with calls substituted, or the expression itself if none could be.
+     */
+    private static CompiledExpression inline(CompiledExpression expression, int maxDepth, ArrayList<UserFunction> inlining) {
+        final int result = expression.getResult();
+        if (result < 0) {
+            return expression;
+        }
+        final ArrayList<CompiledExpression.Instruction> instructions = new ArrayList<>(expression.size());
+        final int[] moved = new int[expression.size()];
+        boolean changed = false;
+
+        for (int idx = 0; idx != moved.length; ++idx) {
+            final CompiledExpression.Instruction instruction = expression.getInstruction(idx);
+            if (instruction.getType() == CompiledExpression.Instruction.Type.FUNCTION) {
+                final MathFunction function = expression.getFunctions().getFunction(instruction.getIdentifier(), instruction.getOperandCount());
+                final CompiledExpression body = function instanceof UserFunction ? substitute((UserFunction)function, expression, maxDepth, inlining) : null;
+                if (body != null) {
+                    final int[] bound = new int[body.size()];
+                    for (int b = 0; b != bound.length; ++b) {
+                        final CompiledExpression.Instruction inner = body.getInstruction(b);
+                        if (inner.getType() == CompiledExpression.Instruction.Type.PARAMETER) {
+                            bound[b] = moved[instruction.getOperand(inner.getSlot())];
+                            continue;
+                        }
+                        bound[b] = instructions.size();
+                        instructions.add(inner.withOperands(bound));
+                    }
+                    moved[idx] = bound[body.getResult()];
+                    changed = true;
+                    continue;
+                }
+            }
+            moved[idx] = instructions.size();
+            instructions.add(instruction.withOperands(moved));
+        }
+
+        return changed ? expression.rewrite(instructions, moved[result]) : expression;
+    }
+
+    /**
+     * @return The body to substitute for a call to the function, or null if the call must remain.
+     */
+    private static CompiledExpression substitute(UserFunction function, CompiledExpression caller, int maxDepth, ArrayList<UserFunction> inlining) {
+        if (inlining.contains(function) || inlining.size() == MAX_INLINE_DEPTH || inlining.size() >= maxDepth) {
+            return null;
+        }
+        inlining.add(function);
+        try {
+            final CompiledExpression body = inline(function.compile(caller.getFunctions(), caller.getOperators()), maxDepth, inlining);
+            if (body.getResult() < 0 || body.size() > MAX_INLINE_SIZE) {
+                return null;
+            }
+            for (int idx = 0; idx != body.size(); ++idx) {
+                final CompiledExpression.Instruction instruction = body.getInstruction(idx);
+                if (instruction.getType() == CompiledExpression.Instruction.Type.FUNCTION
+                        && body.getFunctions().getFunction(instruction.getIdentifier(), instruction.getOperandCount()) instanceof UserFunction) {
+                    return null;
+                }
+            }
+            return body;
+        } catch (RuntimeException exception) {
+            //The body no longer compiles, which the call reports when evaluated.
+            return null;
+        } finally {
+            inlining.remove(inlining.size() - 1);
+        }
+    }
+
+    /**
+     * Replace what can be computed within the environment by its value, and strength reduce the rest.
+     * @return The folded expression, or the expression itself if nothing could be folded.
+     */
+    private static CompiledExpression fold(CompiledExpression expression, Constants constants, Calculator.Angle angle) {
+        final int result = expression.getResult();
+        if (result < 0) {
+            return expression;
+        }
+        final int size = expression.size();
+        final CompiledExpression.Instruction[] rewritten = new CompiledExpression.Instruction[size];
+        final boolean[] known = new boolean[size];
+        final double[] values = new double[size];
+        final int[] uses = new int[size];
+        //Instructions of branches never taken, and the operand chosen by each conditional whose condition is known.
+        final boolean[] dead = new boolean[size];
+        final int[] chosen = new int[size];
+        boolean changed = false;
+        Arrays.fill(chosen, -1);
+
+        for (int idx = 0; idx != size; ++idx) {
+            final CompiledExpression.Instruction instruction = expression.getInstruction(idx);
+            for (int i = 0; i != instruction.getOperandCount(); ++i) {
+                ++uses[instruction.getOperand(i)];
+            }
+        }
+
+        for (int idx = 0; idx != size; ++idx) {
+            final CompiledExpression.Instruction instruction = expression.getInstruction(idx);
+            rewritten[idx] = instruction;
+            if (dead[idx]) {
+                continue;
+            }
+
+            switch (instruction.getType()) {
+                case CONSTANT:
+                    known[idx] = true;
+                    values[idx] = instruction.getValue();
+                    continue;
+                case PARAMETER:
+                    continue;
+                case VARIABLE: {
+                    final Double value = constants == null ? null : constants.get(instruction.getIdentifier());
+                    if (value != null) {
+                        known[idx] = true;
+                        values[idx] = value;
+                    }
+                    break;
+                }
+                case OPERATOR:
+                    if (isKnown(instruction, known)) {
+                        known[idx] = operate(instruction, values, idx);
+                    }
+                    else {
+                        rewritten[idx] = reduce(expression, instruction, known, values, uses, chosen);
+                    }
+                    break;
+                case FUNCTION:
+                    if (isKnown(instruction, known)) {
+                        known[idx] = call(expression, instruction, values, idx, constants, angle);
+                    }
+                    break;
+                case BRANCH:
+                    if (known[instruction.getOperand(0)]) {
+                        decide(expression, idx, values[instruction.getOperand(0)] != 0, dead, chosen);
+                        changed = true;
+                    }
+                    continue;
+                case JUMP:
+                    continue;
+                case SELECT:
+                    if (chosen[idx] >= 0 && known[chosen[idx]]) {
+                        known[idx] = true;
+                        values[idx] = values[chosen[idx]];
+                    }
+                    break;
+            }
+            changed |= known[idx] || rewritten[idx] != instruction;
+        }
+        if (!changed) {
+            return expression;
+        }
+
+        //Keep the result and whatever must still be computed, along with their unknown operands.
+        final boolean[] needed = new boolean[size];
+        needed[result] = true;
+        for (int idx = size - 1; idx >= 0; --idx) {
+            if (dead[idx]) {
+                continue;
+            }
+            //A decided conditional is replaced by the operand it chooses.
+            if (chosen[idx] >= 0) {
+                needed[chosen[idx]] |= needed[idx];
+                continue;
+            }
+            if (known[idx]) {
+                continue;
+            }
+            needed[idx] = true;
+            for (int i = 0; i != rewritten[idx].getOperandCount(); ++i) {
+                needed[rewritten[idx].getOperand(i)] = true;
+            }
+        }
+
+        final ArrayList<CompiledExpression.Instruction> instructions = new ArrayList<>();
+        final int[] moved = new int[size];
+        for (int idx = 0; idx != size; ++idx) {
+            if (chosen[idx] >= 0) {
+                moved[idx] = moved[chosen[idx]];
+                continue;
+            }
+            if (!needed[idx] || dead[idx]) {
+                continue;
+            }
+            moved[idx] = instructions.size();
+            instructions.add(known[idx] ? CompiledExpression.Instruction.constant(values[idx]) : rewritten[idx].withOperands(moved));
+        }
+
+        return expression.rewrite(instructions, moved[result]);
+    }
+
+    /**
+     * Drop the branch of a conditional that is never taken, along with its BRANCH and JUMP.
+     * @param expression The expression holding the conditional.
+     * @param branch Index of the conditional's BRANCH.
+     * @param condition True if the condition is nonzero.
+     * @param dead Marks the dropped instructions.
+     * @param chosen Receives, at the index of the conditional's SELECT, the operand it chooses.
+     */
+    private static void decide(CompiledExpression expression, int branch, boolean condition, boolean[] dead, int[] chosen) {
+        final int otherwise = expression.getTarget(branch);
+        final int select = expression.getTarget(otherwise - 1);
+        if (condition) {
+            Arrays.fill(dead, otherwise, select, true);
+            dead[branch] = true;
+            dead[otherwise - 1] = true;
+        }
+        else {
+            Arrays.fill(dead, branch, otherwise, true);
+        }
+        chosen[select] = expression.getInstruction(select).getOperand(condition ? 1 : 2);
+    }
+
+    /**
+     * Merge structurally identical instructions, so that each is computed once.
+     * Impure functions are never merged, since each call may return a different value,
+     * and instructions within a branch are forgotten once it ends, since they are not evaluated unless it is taken.
+     * @return The expression without duplicates, or the expression itself if it had none.
+     */
+    public static CompiledExpression eliminate(CompiledExpression expression) {
+        final int result = expression.getResult();
+        if (result < 0) {
+            return expression;
+        }
+        final HashMap<Shape, Integer> shapes = new HashMap<>();
+        final ArrayList<Shape> remembered = new ArrayList<>();
+        final int[] branches = new int[expression.size()];
+        final ArrayList<CompiledExpression.Instruction> instructions = new ArrayList<>(expression.size());
+        final int[] moved = new int[expression.size()];
+        int depth = 0;
+        boolean changed = false;
+
+        for (int idx = 0; idx != moved.length; ++idx) {
+            final CompiledExpression.Instruction instruction = expression.getInstruction(idx).withOperands(moved);
+            switch (instruction.getType()) {
+                case BRANCH:
+                    branches[depth++] = remembered.size();
+                    break;
+                case JUMP:
+                    forget(shapes, remembered, branches[depth - 1]);
+                    break;
+                case SELECT:
+                    forget(shapes, remembered, branches[--depth]);
+                    break;
+                default:
+                    if (isPure(expression, instruction)) {
+                        final Shape shape = new Shape(instruction);
+                        final Integer merged = shapes.putIfAbsent(shape, instructions.size());
+                        if (merged != null) {
+                            moved[idx] = merged;
+                            changed = true;
+                            continue;
+                        }
+                        remembered.add(shape);
+                    }
+                    break;
+            }
+            moved[idx] = instructions.size();
+            instructions.add(instruction);
+        }
+
+        return changed ? expression.rewrite(instructions, moved[result]) : expression;
+    }
+
+    /**
+     * Forget the instructions remembered since a branch began.
+     * @param shapes Remembered instructions by their structure.
+     * @param remembered Remembered instructions in the order they were remembered.
+     * @param start Number of instructions remembered before the branch began.
+     */
+    private static void forget(HashMap<Shape, Integer> shapes, ArrayList<Shape> remembered, int start) {
+        for (int i = remembered.size() - 1; i >= start; --i) {
+            shapes.remove(remembered.remove(i));
+        }
+    }
+
+    /**
+     * Operators are assumed to be pure, while functions must be marked pure and cannot be user functions.
+     * @return True if the instruction always computes the same value from the same operands.
+     */
+    private static boolean isPure(CompiledExpression expression, CompiledExpression.Instruction instruction) {
+        if (instruction.getType() != CompiledExpression.Instruction.Type.FUNCTION) {
+            return true;
+        }
+        final MathFunction function = expression.getFunctions().getFunction(instruction.getIdentifier(), instruction.getOperandCount());
+        return function != null && function.isPure();
+    }
+
+    /**
+     * @return True if every operand of an instruction has a known value.
+     */
+    private static boolean isKnown(CompiledExpression.Instruction instruction, boolean[] known) {
+        for (int i = 0; i != instruction.getOperandCount(); ++i) {
+            if (!known[instruction.getOperand(i)]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Apply an operator to known operands.
+     * @return True if the value was computed, or false if the operator failed and must fail again when evaluated.
+     */
+    private static boolean operate(CompiledExpression.Instruction instruction, double[] values, int idx) {
+        final Operator operator = instruction.getOperator();
+        try {
+            switch (instruction.getOperandCount()) {
+                case 1:
+                    values[idx] = operator.apply(values[instruction.getOperand(0)]);
+                    break;
+                case 2:
+                    values[idx] = operator.apply(values[instruction.getOperand(0)], values[instruction.getOperand(1)]);
+                    break;
+                default:
+                    final ArrayList<Double> arguments = new ArrayList<>(instruction.getOperandCount());
+                    for (int i = 0; i != instruction.getOperandCount(); ++i) {
+                        arguments.add(values[instruction.getOperand(i)]);
+                    }
+                    values[idx] = operator.apply(arguments);
+                    break;
+            }
+            return true;
+        } catch (RuntimeException exception) {
+            return false;
+        }
+    }
+
+    /**
+     * Call a pure built-in function with known arguments.
+     * Angular functions need the angle mode, and functions taking a ParameterPack need the constants.
+     * @return True if the value was computed.
+     */
+    private static boolean call(CompiledExpression expression, CompiledExpression.Instruction instruction, double[] values, int idx, Constants constants, Calculator.Angle angle) {
+        final int arguments = instruction.getOperandCount();
+        final MathFunction function = expression.getFunctions().getFunction(instruction.getIdentifier(), arguments);
+        if (!(function instanceof JavaFunction) || !function.isPure()) {
+            return false;
+        }
+        final JavaFunction java = (JavaFunction)function;
+        try {
+            if (java.isPrimitive()) {
+                switch (arguments) {
+                    case 0:
+                        values[idx] = java.apply();
+                        return true;
+                    case 1:
+                        if (java.isAngular() && angle == null) {
+                            return false;
+                        }
+                        values[idx] = java.apply(values[instruction.getOperand(0)], angle);
+                        return true;
+                    default:
+                        values[idx] = java.apply(values[instruction.getOperand(0)], values[instruction.getOperand(1)]);
+                        return true;
+                }
+            }
+            if (constants == null || angle == null) {
+                return false;
+            }
+            final ArrayList<Number> operands = new ArrayList<>(arguments);
+            for (int i = 0; i != arguments; ++i) {
+                operands.add(values[instruction.getOperand(i)]);
+            }
+            final MathFunction.ParameterPack parameters = new MathFunction.ParameterPack(operands, expression.getFunctions(), constants, expression.getOperators(), angle);
+            values[idx] = java.apply(parameters).doubleValue();
+            return true;
+        } catch (RuntimeException exception) {
+            return false;
+        }
+    }
+
+    /**
+     * Strength reduce an operator with some unknown operands.
+     * x^2 becomes x*x with x computed once, since Math.pow(x, 2) is exactly x*x.
+     * x/c becomes x*(1/c) when c is a power of two whose reciprocal is normal, since the reciprocal is then exact.
+     * x^3 is left alone, as x*x*x rounds twice and may differ from Math.pow in the last place.
+     * A divisor chosen by a decided conditional is left alone too, as the conditional is replaced by the operand it chooses,
+     * which would keep the divisor rather than its reciprocal.
+     * @return The reduced instruction, or the instruction itself.
+     */
+    private static CompiledExpression.Instruction reduce(CompiledExpression expression, CompiledExpression.Instruction instruction, boolean[] known, double[] values, int[] uses, int[] chosen) {
+        if (instruction.getOperandCount() != 2) {
+            return instruction;
+        }
+        final DoubleBinaryOperator operation = instruction.getOperator().getBinaryOperation();
+        final int lhs = instruction.getOperand(0);
+        final int rhs = instruction.getOperand(1);
+        if (known[lhs] || !known[rhs]) {
+            return instruction;
+        }
+
+        if (operation == OperatorList.POWER && values[rhs] == 2) {
+            final Operator multiply = findMultiplication(expression.getOperators());
+            if (multiply != null) {
+                return CompiledExpression.Instruction.operator(multiply, new int[] {lhs, lhs});
+            }
+        }
+        else if (operation == OperatorList.DIVIDE && uses[rhs] == 1 && chosen[rhs] < 0 && hasExactReciprocal(values[rhs])) {
+            final Operator multiply = findMultiplication(expression.getOperators());
+            if (multiply != null) {
+                values[rhs] = 1 / values[rhs];
+                return CompiledExpression.Instruction.operator(multiply, new int[] {lhs, rhs});
+            }
+        }
+        return instruction;
+    }
+
+    /**
+     * @return True if the value is a power of two and both it and its reciprocal are normal.
+     */
+    private static boolean hasExactReciprocal(double value) {
+        final int exponent = Math.getExponent(value);
+        return exponent > Double.MIN_EXPONENT && exponent < Double.MAX_EXPONENT
+                && (Double.doubleToRawLongBits(value) & 0x000FFFFFFFFFFFFFL) == 0;
+    }
+
+    /**
+     * @return A binary operator multiplying its operands, preferring the one used for implicit multiplication, or null.
+     */
+    private static Operator findMultiplication(OperatorList operators) {
+        final PrecedenceTable table = operators.getTable();
+        if (table.getMultiplication() >= 0) {
+            final Operator implicit = table.getOperator(table.getMultiplication());
+            if (implicit.getOperands() == 2 && implicit.getBinaryOperation() == OperatorList.MULTIPLY) {
+                return implicit;
+            }
+        }
+        for (Map.Entry<String, ArrayList<Operator>> entry : operators.entrySet()) {
+            for (Operator operator : entry.getValue()) {
+                if (operator.getOperands() == 2 && operator.getBinaryOperation() == OperatorList.MULTIPLY) {
+                    return operator;
+                }
+            }
+        }
+        return null;
+    }
+}
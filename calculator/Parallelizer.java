@@ -0,0 +1,445 @@
+package calculator;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits heavy subexpressions that are independent of each other, such as the terms of a sum of user function calls,
+ * off a compiled expression, so that they are evaluated on other threads while the rest waits for their values.
+ * The cost of every instruction is estimated in instructions interpreted, counting a call to a user function by its body,
+ * and only subexpressions costing at least FORK_COST are split off, since cheaper ones finish before a thread could take them.
+ * A recursive call is estimated to cost RECURSION_COST, as how deep it goes depends on its arguments.
+ * A subexpression is only split off if every function it calls is pure, it is not within a branch of a conditional,
+ * and the rest of the expression uses none of its instructions other than cheap ones, which are computed by both.
+ * Each is evaluated as an expression of its own with the same arguments and environment, and the rest reads its value
+ * as an extra parameter, so the value is exactly that of evaluating the whole expression on one thread.
+ */
+public class Parallelizer {
+    /**
+     * Least estimated cost of a subexpression evaluated on another thread.
+     */
+    public static final long FORK_COST = 20000;
+
+    /**
+     * Estimated cost of calling a user function, besides its body.
+     */
+    private static final long CALL_COST = 4;
+
+    /**
+     * Estimated cost of calling a function through a ParameterPack.
+     */
+    private static final long PACK_COST = 8;
+
+    /**
+     * Estimated cost of a recursive call to a user function, which bounds the estimate of functions such as fib
+     * so that calls with small arguments are not split off.
+     */
+    private static final long RECURSION_COST = 1000;
+
+    /**
+     * An expression with its heavy independent subexpressions split off.
+     */
+    public static class Plan {
+        private final CompiledExpression expression;
+        private final CompiledExpression[] subexpressions;
+        private final CompiledExpression rest;
+
+        Plan(CompiledExpression expression, CompiledExpression[] subexpressions, CompiledExpression rest) {
+            this.expression = expression;
+            this.subexpressions = subexpressions;
+            this.rest = rest;
+        }
+
+        /**
+         * @return True if any subexpression was split off.
+         */
+        public boolean isSplit() {
+            return subexpressions.length != 0;
+        }
+
+        /**
+         * @return The subexpressions evaluated on other threads, which take the same arguments as the expression.
+         */
+        public List<CompiledExpression> getSubexpressions() {
+            return Collections.unmodifiableList(Arrays.asList(subexpressions));
+        }
+
+        /**
+         * @return The rest of the expression, whose parameters are those of the expression followed by the value of each subexpression.
+         */
+        public CompiledExpression getRest() {
+            return rest;
+        }
+
+        /**
+         * Evaluate the subexpressions on the threads of the pool evaluating the caller, or of the common pool,
+         * and then the rest of the expression with their values.
+         * On a single thread the whole expression is evaluated on the calling thread instead.
+         * If any subexpression fails, the whole expression is evaluated again on the calling thread,
+         * so that the error raised is the one sequential evaluation meets first, even if it lies in the rest of the expression.
+         * Subexpressions are pure, so evaluating them again only costs time.
+         * @param arguments One value per parameter, in slot order.
+         * @param constants Constants used to resolve variables.
+         * @param angle Angle mode passed to functions.
+         * @return The value of the expression.
+         */
+        double evaluate(double[] arguments, Constants constants, Calculator.Angle angle) {
+            final ForkJoinPool pool = ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : ForkJoinPool.commonPool();
+            if (!isSplit() || pool.getParallelism() < 2) {
+                return expression.interpretSequentially(arguments, Collections.emptyMap(), constants, angle);
+            }
+            final Subexpression[] tasks = new Subexpression[subexpressions.length];
+            for (int i = 0; i != tasks.length; ++i) {
+                tasks[i] = new Subexpression(subexpressions[i], arguments, constants, angle);
+            }
+            ForkJoinTask.invokeAll(tasks);
+
+            final double[] values = Arrays.copyOf(arguments, arguments.length + tasks.length);
+            for (int i = 0; i != tasks.length; ++i) {
+                if (tasks[i].failure != null) {
+                    return expression.interpretSequentially(arguments, Collections.emptyMap(), constants, angle);
+                }
+                values[arguments.length + i] = tasks[i].value;
+            }
+            return rest.interpretSequentially(values, Collections.emptyMap(), constants, angle);
+        }
+    }
+
+    /**
+     * Evaluates one subexpression, which may in turn be split.
+     */
+    private static class Subexpression extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final CompiledExpression expression;
+        private final double[] arguments;
+        private final Constants constants;
+        private final Calculator.Angle angle;
+        private double value;
+        private RuntimeException failure;
+
+        Subexpression(CompiledExpression expression, double[] arguments, Constants constants, Calculator.Angle angle) {
+            this.expression = expression;
+            this.arguments = arguments;
+            this.constants = constants;
+            this.angle = angle;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                value = expression.interpret(arguments, Collections.emptyMap(), constants, angle);
+            } catch (RuntimeException exception) {
+                //Kept rather than thrown, so that the plan evaluates the whole expression again rather than rethrowing a copy from the pool.
+                failure = exception;
+            }
+        }
+    }
+
+    private Parallelizer() {
+    }
+
+    /**
+     * Find the heavy independent subexpressions of an expression, which should be bound to snapshots of its registries.
+     * @param expression The expression to split.
+     * @return The plan evaluating the expression, which splits nothing unless there are at least two such subexpressions.
+     */
+    public static Plan split(CompiledExpression expression) {
+        final int result = expression.getResult();
+        final int size = expression.size();
+        if (result < 0) {
+            return new Plan(expression, new CompiledExpression[0], expression);
+        }
+        final HashMap<UserFunction, Long> bodies = new HashMap<>();
+        final long[] costs = new long[size];
+        final int[] branches = new int[size];
+        final int[] uses = new int[size];
+        for (int idx = 0; idx != size; ++idx) {
+            final CompiledExpression.Instruction instruction = expression.getInstruction(idx);
+            long cost = 1;
+            if (instruction.getType() == CompiledExpression.Instruction.Type.FUNCTION) {
+                cost = cost(expression.getFunctions().getFunction(instruction.getIdentifier(), instruction.getOperandCount()), expression, bodies);
+            }
+            else if (instruction.getType() == CompiledExpression.Instruction.Type.BRANCH) {
+                branches[expression.getTarget(expression.getTarget(idx) - 1)] = idx;
+            }
+            for (int i = 0; i != instruction.getOperandCount(); ++i) {
+                final int operand = instruction.getOperand(i);
+                cost = add(cost, costs[operand]);
+                ++uses[operand];
+            }
+            costs[idx] = cost;
+        }
+        if (costs[result] < 2 * FORK_COST) {
+            return new Plan(expression, new CompiledExpression[0], expression);
+        }
+
+        //Subexpressions are found from the result down, never within a branch.
+        //Purity is only checked for those heavy enough to split off.
+        final HashMap<UserFunction, Boolean> purity = new HashMap<>();
+        final ArrayList<boolean[]> members = new ArrayList<>();
+        final ArrayList<Integer> roots = new ArrayList<>();
+        final ArrayDeque<Integer> pending = new ArrayDeque<>();
+        pending.push(result);
+        while (!pending.isEmpty()) {
+            final int idx = pending.pop();
+            final CompiledExpression.Instruction instruction = expression.getInstruction(idx);
+            final int operands = instruction.getType() == CompiledExpression.Instruction.Type.SELECT ? 1 : instruction.getOperandCount();
+            long own = costs[idx];
+            final ArrayList<Integer> heavy = new ArrayList<>();
+            for (int i = 0; i != operands; ++i) {
+                final int operand = instruction.getOperand(i);
+                own -= costs[operand];
+                if (costs[operand] >= FORK_COST) {
+                    heavy.add(operand);
+                }
+            }
+            if (heavy.size() >= 2 || (heavy.size() == 1 && own < FORK_COST)) {
+                for (int i = heavy.size() - 1; i >= 0; --i) {
+                    pending.push(heavy.get(i));
+                }
+                continue;
+            }
+            if (idx != result && costs[idx] >= FORK_COST) {
+                final boolean[] subexpression = closure(expression, idx, branches);
+                if (isPure(expression, subexpression, purity) && isIndependent(expression, idx, subexpression, costs, uses)) {
+                    roots.add(idx);
+                    members.add(subexpression);
+                }
+            }
+        }
+        if (roots.size() < 2) {
+            return new Plan(expression, new CompiledExpression[0], expression);
+        }
+        Collections.sort(roots);
+        return new Plan(expression, extract(expression, roots, branches), rest(expression, roots, members, branches));
+    }
+
+    /**
+     * @return The estimated cost of calling a function, where user function bodies whose cost is being estimated are recursive calls,
+     * which are estimated to cost RECURSION_COST.
+     */
+    private static long cost(MathFunction function, CompiledExpression caller, HashMap<UserFunction, Long> bodies) {
+        if (!(function instanceof UserFunction)) {
+            return function instanceof JavaFunction && ((JavaFunction)function).isPrimitive() ? 1 : PACK_COST;
+        }
+        final UserFunction user = (UserFunction)function;
+        final Long known = bodies.get(user);
+        if (known != null) {
+            return known;
+        }
+        bodies.put(user, RECURSION_COST);
+        final CompiledExpression body = body(user, caller);
+        if (body == null) {
+            bodies.put(user, CALL_COST);
+            return CALL_COST;
+        }
+        long cost = CALL_COST;
+        for (int idx = 0; idx != body.size(); ++idx) {
+            final CompiledExpression.Instruction instruction = body.getInstruction(idx);
+            if (instruction.getType() == CompiledExpression.Instruction.Type.FUNCTION) {
+                cost = add(cost, cost(body.getFunctions().getFunction(instruction.getIdentifier(), instruction.getOperandCount()), body, bodies));
+            }
+            else {
+                cost = add(cost, 1);
+            }
+        }
+        bodies.put(user, cost);
+        return cost;
+    }
+
+    /**
+     * User functions cannot be marked pure, as they may be redefined, but the functions are a snapshot while an expression is split,
+     * so a user function is pure if every function its body calls is, where recursive calls are assumed to be.
+     * @return True if calling the function always computes the same value from the same arguments and does nothing else.
+     */
+    private static boolean isPure(MathFunction function, CompiledExpression caller, HashMap<UserFunction, Boolean> purity) {
+        if (!(function instanceof UserFunction)) {
+            return function != null && function.isPure();
+        }
+        final UserFunction user = (UserFunction)function;
+        final Boolean known = purity.get(user);
+        if (known != null) {
+            return known;
+        }
+        purity.put(user, true);
+        final CompiledExpression body = body(user, caller);
+        if (body == null) {
+            purity.put(user, false);
+            return false;
+        }
+        boolean pure = true;
+        for (int idx = 0; pure && idx != body.size(); ++idx) {
+            final CompiledExpression.Instruction instruction = body.getInstruction(idx);
+            if (instruction.getType() == CompiledExpression.Instruction.Type.FUNCTION) {
+                pure = isPure(body.getFunctions().getFunction(instruction.getIdentifier(), instruction.getOperandCount()), body, purity);
+            }
+        }
+        purity.put(user, pure);
+        return pure;
+    }
+
+    /**
+     * @return The body of a user function compiled against the caller's registries, or null if it does not compile,
+     * in which case calling it fails and it is left to do so on the calling thread.
+     */
+    private static CompiledExpression body(UserFunction function, CompiledExpression caller) {
+        try {
+            return function.compile(caller.getFunctions(), caller.getOperators());
+        } catch (RuntimeException exception) {
+            return null;
+        }
+    }
+
+    private static long add(long lhs, long rhs) {
+        return lhs + rhs < 0 ? Long.MAX_VALUE : lhs + rhs;
+    }
+
+    /**
+     * @param branches Array holding, at the index of each SELECT, the index of its BRANCH.
+     * @return The instructions evaluated to compute an instruction, including the whole of every conditional among them.
+     */
+    private static boolean[] closure(CompiledExpression expression, int root, int[] branches) {
+        final boolean[] members = new boolean[expression.size()];
+        final ArrayDeque<Integer> pending = new ArrayDeque<>();
+        members[root] = true;
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            final int idx = pending.pop();
+            final CompiledExpression.Instruction instruction = expression.getInstruction(idx);
+            for (int i = 0; i != instruction.getOperandCount(); ++i) {
+                final int operand = instruction.getOperand(i);
+                if (!members[operand]) {
+                    members[operand] = true;
+                    pending.push(operand);
+                }
+            }
+            if (instruction.getType() == CompiledExpression.Instruction.Type.SELECT) {
+                for (int inner = branches[idx]; inner != idx; ++inner) {
+                    if (!members[inner]) {
+                        members[inner] = true;
+                        pending.push(inner);
+                    }
+                }
+            }
+        }
+        return members;
+    }
+
+    /**
+     * @return True if every function a subexpression calls is pure, including those within its conditionals whose values are unused.
+     */
+    private static boolean isPure(CompiledExpression expression, boolean[] members, HashMap<UserFunction, Boolean> purity) {
+        for (int idx = 0; idx != members.length; ++idx) {
+            final CompiledExpression.Instruction instruction = expression.getInstruction(idx);
+            if (members[idx] && instruction.getType() == CompiledExpression.Instruction.Type.FUNCTION
+                    && !isPure(expression.getFunctions().getFunction(instruction.getIdentifier(), instruction.getOperandCount()), expression, purity)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A subexpression is independent if every instruction other than its root used outside of it is cheap,
+     * so that both it and the rest can compute the instruction for themselves.
+     */
+    private static boolean isIndependent(CompiledExpression expression, int root, boolean[] members, long[] costs, int[] uses) {
+        final int[] inner = new int[members.length];
+        for (int idx = 0; idx != members.length; ++idx) {
+            if (!members[idx]) {
+                continue;
+            }
+            final CompiledExpression.Instruction instruction = expression.getInstruction(idx);
+            for (int i = 0; i != instruction.getOperandCount(); ++i) {
+                ++inner[instruction.getOperand(i)];
+            }
+        }
+        for (int idx = 0; idx != members.length; ++idx) {
+            if (members[idx] && idx != root && inner[idx] != uses[idx] && costs[idx] >= FORK_COST / 100) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return An expression computing each root from the same arguments.
+     */
+    private static CompiledExpression[] extract(CompiledExpression expression, List<Integer> roots, int[] branches) {
+        final CompiledExpression[] subexpressions = new CompiledExpression[roots.size()];
+        for (int r = 0; r != subexpressions.length; ++r) {
+            final boolean[] members = closure(expression, roots.get(r), branches);
+            final ArrayList<CompiledExpression.Instruction> instructions = new ArrayList<>();
+            final int[] moved = new int[expression.size()];
+            for (int idx = 0; idx != members.length; ++idx) {
+                if (members[idx]) {
+                    moved[idx] = instructions.size();
+                    instructions.add(expression.getInstruction(idx).withOperands(moved));
+                }
+            }
+            subexpressions[r] = expression.rewrite(instructions, moved[roots.get(r)]);
+        }
+        return subexpressions;
+    }
+
+    /**
+     * @return The expression with each root replaced by a parameter following those of the expression,
+     * without the instructions only the roots used.
+     */
+    private static CompiledExpression rest(CompiledExpression expression, List<Integer> roots, List<boolean[]> members, int[] branches) {
+        final int size = expression.size();
+        final boolean[] kept = new boolean[size];
+        Arrays.fill(kept, true);
+        for (boolean[] subexpression : members) {
+            for (int idx = 0; idx != size; ++idx) {
+                kept[idx] &= !subexpression[idx];
+            }
+        }
+        final boolean[] placeholder = new boolean[size];
+        for (int root : roots) {
+            placeholder[root] = true;
+            kept[root] = true;
+        }
+        //Cheap instructions shared with a subexpression are kept for the rest too.
+        for (int idx = size - 1; idx >= 0; --idx) {
+            if (!kept[idx] || placeholder[idx]) {
+                continue;
+            }
+            final CompiledExpression.Instruction instruction = expression.getInstruction(idx);
+            for (int i = 0; i != instruction.getOperandCount(); ++i) {
+                kept[instruction.getOperand(i)] = true;
+            }
+            if (instruction.getType() == CompiledExpression.Instruction.Type.SELECT) {
+                Arrays.fill(kept, branches[idx], idx, true);
+            }
+        }
+
+        final ArrayList<String> parameters = new ArrayList<>(expression.getParameters());
+        final ArrayList<CompiledExpression.Instruction> instructions = new ArrayList<>();
+        final int[] moved = new int[size];
+        for (int idx = 0; idx != size; ++idx) {
+            if (!kept[idx]) {
+                continue;
+            }
+            moved[idx] = instructions.size();
+            if (placeholder[idx]) {
+                //Parameter names cannot begin with #, so these never clash with the expression's own.
+                instructions.add(CompiledExpression.Instruction.parameter("#" + (parameters.size() - expression.getParameters().size()), parameters.size()));
+                parameters.add("#" + (parameters.size() - expression.getParameters().size()));
+            }
+            else {
+                instructions.add(expression.getInstruction(idx).withOperands(moved));
+            }
+        }
+        return new CompiledExpression(instructions, moved[expression.getResult()], parameters, expression.getFunctions(), expression.getOperators(),
+                expression.getConstants(), expression.getAngle(), expression.getMaxDepth(), expression.getTierThreshold());
+    }
+}
@@ -0,0 +1,167 @@
+package calculator;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Snapshot of an OperatorList arranged for parsing.
+ * Operator identifiers are numbered as symbols and every operator is numbered by its position in the table.
+ * Binding powers are precomputed from precedence and associativity:
+ * an operator continues the right operand of another iff its left power is greater than the other's right power.
+ */
+public class PrecedenceTable {
+    private final String[] symbols;
+    private final Operator[] operators;
+    private final int[] canonical;
+    private final int[] unary;
+    private final int[] binary;
+    private final int[] leftPower;
+    private final int[] rightPower;
+    private final OperatorTrie trie;
+    private final int multiplication;
+
+    public PrecedenceTable(OperatorList list) {
+        final ArrayList<String> names = new ArrayList<>();
+        final ArrayList<Operator> all = new ArrayList<>();
+        int weakest = 0;
+
+        for (Map.Entry<String, ArrayList<Operator>> entry : list.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                continue;
+            }
+            names.add(entry.getKey());
+            for (Operator operator : entry.getValue()) {
+                all.add(operator);
+                weakest = Math.max(weakest, operator.getPrecedence());
+            }
+        }
+
+        symbols = names.toArray(new String[0]);
+        operators = all.toArray(new Operator[0]);
+        canonical = new int[symbols.length];
+        unary = new int[symbols.length];
+        binary = new int[symbols.length];
+        leftPower = new int[operators.length];
+        rightPower = new int[operators.length];
+
+        for (int id = 0; id != operators.length; ++id) {
+            final Operator operator = operators[id];
+            //Lower precedence values have priority, so they receive greater powers.
+            //Equal precedence continues to the right only for right associative operators.
+            final int power = 2 * (weakest - operator.getPrecedence() + 1);
+            final boolean right = operator.getAssociativity() == Operator.Associativity.RIGHT_TO_LEFT;
+            leftPower[id] = power + (right ? 1 : 0);
+            rightPower[id] = power;
+        }
+        for (int symbol = 0; symbol != symbols.length; ++symbol) {
+            unary[symbol] = preferenceOrAny(symbols[symbol], 1);
+            binary[symbol] = preferenceOrAny(symbols[symbol], 2);
+        }
+
+        for (int symbol = 0; symbol != symbols.length; ++symbol) {
+            final int target = indexOf(list.getAlias(symbols[symbol]));
+            canonical[symbol] = target >= 0 && isEquivalent(list, symbols[symbol], symbols[target]) ? target : symbol;
+        }
+
+        trie = new OperatorTrie(symbols);
+        final int times = indexOf("*");
+        multiplication = times < 0 ? -1 : binary[times];
+    }
+
+    /**
+     * Mirror OperatorList.getPreferenceOrAny, returning an operator id.
+     */
+    private int preferenceOrAny(String symbol, int operands) {
+        int any = -1;
+        for (int id = 0; id != operators.length; ++id) {
+            if (operators[id].getIdentifier().equals(symbol)) {
+                if (operators[id].getOperands() == operands) {
+                    return id;
+                }
+                if (any < 0) {
+                    any = id;
+                }
+            }
+        }
+        return any;
+    }
+
+    /**
+     * @return True if both identifiers have overloads of the same operands, precedence and associativity,
+     *         so that they parse identically.
+     */
+    private static boolean isEquivalent(OperatorList list, String alias, String identifier) {
+        for (String[] pair : new String[][] {{alias, identifier}, {identifier, alias}}) {
+            for (Map.Entry<String, ArrayList<Operator>> entry : list.entrySet()) {
+                if (!entry.getKey().equals(pair[0])) {
+                    continue;
+                }
+                for (Operator operator : entry.getValue()) {
+                    final Operator other = list.get(pair[1], operator.getOperands());
+                    if (other == null || other.getPrecedence() != operator.getPrecedence()
+                            || other.getAssociativity() != operator.getAssociativity()) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(String symbol) {
+        for (int id = 0; id != symbols.length; ++id) {
+            if (symbols[id].equals(symbol)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return Trie whose matches are symbol ids of this table.
+     */
+    public OperatorTrie getTrie() {
+        return trie;
+    }
+
+    public String getSymbol(int symbol) {
+        return symbols[symbol];
+    }
+
+    /**
+     * @param symbol The symbol id.
+     * @return Symbol id of the spelling the symbol is an alias of, or the symbol itself.
+     */
+    public int getCanonical(int symbol) {
+        return canonical[symbol];
+    }
+
+    /**
+     * Choose the operator for a symbol, preferring one with the given number of operands.
+     * @param symbol The symbol id.
+     * @param operands The preferred number of operands.
+     * @return The operator id.
+     */
+    public int select(int symbol, int operands) {
+        return operands == 1 ? unary[symbol] : binary[symbol];
+    }
+
+    /**
+     * @return Operator id of the binary "*" used for implicit multiplication, or -1 if there is none.
+     */
+    public int getMultiplication() {
+        return multiplication;
+    }
+
+    public Operator getOperator(int id) {
+        return operators[id];
+    }
+
+    public int getLeftPower(int id) {
+        return leftPower[id];
+    }
+
+    public int getRightPower(int id) {
+        return rightPower[id];
+    }
+}
@@ -0,0 +1,453 @@
+package calculator;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled expression lowered to code for a stack machine.
+ * The code is a flat int array of opcodes, each followed by its operands, which index pools of numbers,
+ * variable names, operators and functions. Running the code needs no class generation,
+ * and a tape refers to operators and functions by name, so it may be serialized and run against any registries.
+ */
+public class Tape implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Push numbers[k].
+     */
+    public static final int CONSTANT = 0;
+    /**
+     * Push the argument in slot s.
+     */
+    public static final int SLOT = 1;
+    /**
+     * Push the value of the variable names[n].
+     */
+    public static final int VARIABLE = 2;
+    /**
+     * Replace the top of the stack with operator o applied to it.
+     */
+    public static final int UNARY = 3;
+    /**
+     * Replace the top two values with operator o applied to them.
+     */
+    public static final int BINARY = 4;
+    /**
+     * Replace the top a values with operator o applied to them, followed by a.
+     */
+    public static final int OPERATOR = 5;
+    /**
+     * Replace the top a values with function f applied to them, followed by a.
+     */
+    public static final int CALL = 6;
+    /**
+     * Pop the top of the stack, continuing at t if it is zero, followed by t.
+     */
+    public static final int BRANCH = 7;
+    /**
+     * Continue at t, followed by t.
+     */
+    public static final int JUMP = 8;
+
+    /**
+     * Operators and functions resolved against a pair of registries.
+     */
+    private static class Binding {
+        final Functions functions;
+        final int functionsVersion;
+        final OperatorList operators;
+        final int operatorsVersion;
+        final Operator[] bound;
+        final MathFunction[] targets;
+
+        Binding(Functions functions, OperatorList operators, Operator[] bound, MathFunction[] targets) {
+            this.functions = functions;
+            this.functionsVersion = functions.getVersion();
+            this.operators = operators;
+            this.operatorsVersion = operators.getVersion();
+            this.bound = bound;
+            this.targets = targets;
+        }
+
+        boolean isCurrent(Functions functions, OperatorList operators) {
+            return this.functions == functions && this.operators == operators
+                    && functionsVersion == functions.getVersion() && operatorsVersion == operators.getVersion();
+        }
+    }
+
+    private final int[] code;
+    private final double[] numbers;
+    private final String[] names;
+    private final String[] operatorSymbols;
+    private final int[] operatorOperands;
+    private final String[] functionNames;
+    private final int[] functionArguments;
+    private final int parameters;
+    private final int maxStack;
+    private transient Operator[] compiledOperators;
+    private transient OperatorList compiledList;
+    private transient volatile Binding binding;
+
+    private Tape(int[] code, double[] numbers, String[] names, Operator[] operators, String[] functionNames, int[] functionArguments, int parameters, int maxStack, OperatorList list) {
+        this.code = code;
+        this.numbers = numbers;
+        this.names = names;
+        this.functionNames = functionNames;
+        this.functionArguments = functionArguments;
+        this.parameters = parameters;
+        this.maxStack = maxStack;
+        this.operatorSymbols = new String[operators.length];
+        this.operatorOperands = new int[operators.length];
+        for (int i = 0; i != operators.length; ++i) {
+            operatorSymbols[i] = operators[i].getIdentifier();
+            operatorOperands[i] = operators[i].getOperands();
+        }
+        this.compiledOperators = operators;
+        this.compiledList = list;
+    }
+
+    /**
+     * Lower a compiled expression, emitting every operand before the instruction using it.
+     * A conditional emits its condition, a BRANCH past the branch taken when the condition is nonzero,
+     * that branch followed by a JUMP past the other, and then the other branch.
+     * @param expression The expression to lower.
+     * @return Tape computing the same value as the expression.
+     */
+    public static Tape lower(CompiledExpression expression) {
+        final Pool<Double> numbers = new Pool<>(new HashMap<>());
+        final Pool<String> names = new Pool<>(new HashMap<>());
+        final Pool<Operator> operators = new Pool<>(new IdentityHashMap<>());
+        final Pool<String> functions = new Pool<>(new HashMap<>());
+        final ArrayList<Integer> arities = new ArrayList<>();
+        int[] code = new int[Math.max(16, 3 * expression.size())];
+        int length = 0;
+        int depth = 0;
+        int maxStack = 0;
+
+        if (expression.getResult() >= 0) {
+            //Walk the instructions depth first without recursing, since expressions may nest deeply.
+            int[] pending = new int[16];
+            int[] visited = new int[16];
+            int[] jumps = new int[16];
+            int top = 0;
+            pending[0] = expression.getResult();
+            visited[0] = 0;
+
+            while (top >= 0) {
+                final CompiledExpression.Instruction instruction = expression.getInstruction(pending[top]);
+                if (visited[top] < instruction.getOperandCount()) {
+                    if (instruction.getType() == CompiledExpression.Instruction.Type.SELECT && visited[top] != 0) {
+                        if (length + 2 > code.length) {
+                            code = Arrays.copyOf(code, code.length * 2);
+                        }
+                        if (visited[top] == 2) {
+                            //The branch taken ends by jumping past the other, where the BRANCH continues.
+                            code[length++] = JUMP;
+                            code[jumps[top]] = length + 1;
+                        }
+                        else {
+                            code[length++] = BRANCH;
+                        }
+                        jumps[top] = length++;
+                        //Only one branch leaves its value on the stack.
+                        --depth;
+                    }
+                    final int operand = instruction.getOperand(visited[top]++);
+                    if (++top == pending.length) {
+                        pending = Arrays.copyOf(pending, top * 2);
+                        visited = Arrays.copyOf(visited, top * 2);
+                        jumps = Arrays.copyOf(jumps, top * 2);
+                    }
+                    pending[top] = operand;
+                    visited[top] = 0;
+                    continue;
+                }
+                --top;
+
+                if (length + 3 > code.length) {
+                    code = Arrays.copyOf(code, code.length * 2);
+                }
+                final int operands = instruction.getOperandCount();
+                switch (instruction.getType()) {
+                    case CONSTANT:
+                        code[length++] = CONSTANT;
+                        code[length++] = numbers.intern(instruction.getValue());
+                        break;
+                    case PARAMETER:
+                        code[length++] = SLOT;
+                        code[length++] = instruction.getSlot();
+                        break;
+                    case VARIABLE:
+                        code[length++] = VARIABLE;
+                        code[length++] = names.intern(instruction.getIdentifier());
+                        break;
+                    case OPERATOR: {
+                        final Operator operator = instruction.getOperator();
+                        final boolean direct = operands == 1 && operator.getUnaryOperation() != null
+                                || operands == 2 && operator.getBinaryOperation() != null;
+                        code[length++] = direct ? (operands == 1 ? UNARY : BINARY) : OPERATOR;
+                        code[length++] = operators.intern(operator);
+                        if (!direct) {
+                            code[length++] = operands;
+                        }
+                        break;
+                    }
+                    case FUNCTION: {
+                        final int function = functions.intern(instruction.getIdentifier() + "/" + operands);
+                        if (function == arities.size()) {
+                            arities.add(operands);
+                        }
+                        code[length++] = CALL;
+                        code[length++] = function;
+                        code[length++] = operands;
+                        break;
+                    }
+                    case SELECT:
+                        code[jumps[top + 1]] = length;
+                        //The BRANCH consumed the condition, and the branches left one value.
+                        continue;
+                    default:
+                        break;
+                }
+                depth += 1 - operands;
+                maxStack = Math.max(maxStack, depth);
+            }
+        }
+
+        final double[] pooled = new double[numbers.size()];
+        for (int i = 0; i != pooled.length; ++i) {
+            pooled[i] = numbers.get(i);
+        }
+        final String[] functionNames = new String[functions.size()];
+        final int[] functionArguments = new int[functions.size()];
+        for (int i = 0; i != functionNames.length; ++i) {
+            final String key = functions.get(i);
+            functionNames[i] = key.substring(0, key.lastIndexOf('/'));
+            functionArguments[i] = arities.get(i);
+        }
+        return new Tape(Arrays.copyOf(code, length), pooled, names.toArray(new String[0]), operators.toArray(new Operator[0]),
+                functionNames, functionArguments, expression.getParameters().size(), maxStack, expression.getOperators());
+    }
+
+    /**
+     * @return The opcodes and their operands.
+     */
+    public int[] getCode() {
+        return code.clone();
+    }
+
+    /**
+     * @return The number of positional parameters the tape reads.
+     */
+    public int getParameterCount() {
+        return parameters;
+    }
+
+    /**
+     * @return The most values on the stack at once.
+     */
+    public int getMaxStack() {
+        return maxStack;
+    }
+
+    /**
+     * @return Names of every variable resolved while running.
+     */
+    public List<String> getVariables() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    /**
+     * Run the tape.
+     * @param arguments One value per parameter, in slot order.
+     * @param functions Functions invoked by name.
+     * @param operators Operators invoked by identifier and number of operands.
+     * @param constants Constants used to resolve variables.
+     * @param angle Angle mode passed to functions.
+     * @return The value of the expression.
+     */
+    public double execute(double[] arguments, Functions functions, OperatorList operators, Constants constants, Calculator.Angle angle) {
+        return execute(arguments, Collections.emptyMap(), functions, operators, constants, angle);
+    }
+
+    /**
+     * Run the tape.
+     * @param arguments One value per parameter, in slot order.
+     * @param bindings Values for variables, which shadow constants of the same name.
+     * @param functions Functions invoked by name.
+     * @param operators Operators invoked by identifier and number of operands.
+     * @param constants Constants used to resolve variables.
+     * @param angle Angle mode passed to functions.
+     * @return The value of the expression.
+     */
+    public double execute(double[] arguments, Map<String, Double> bindings, Functions functions, OperatorList operators, Constants constants, Calculator.Angle angle) {
+        if (arguments.length != parameters) {
+            throw new RuntimeException("Expected " + parameters + " arguments but received " + arguments.length);
+        }
+        if (code.length == 0) {
+            throw new RuntimeException("Cannot evaluate an empty expression.");
+        }
+        Binding current = binding;
+        if (current == null || !current.isCurrent(functions, operators)) {
+            current = bind(functions, operators);
+            binding = current;
+        }
+        final Operator[] bound = current.bound;
+        final MathFunction[] targets = current.targets;
+        final int[] code = this.code;
+        final double[] numbers = this.numbers;
+
+        final EvaluationStack stack = EvaluationStack.current();
+        final int frame = stack.reserve(maxStack);
+        double[] values = stack.getValues();
+        Constants scope = bindings.isEmpty() ? constants : null;
+        int top = frame - 1;
+
+        try {
+            int pc = 0;
+            while (pc != code.length) {
+                switch (code[pc]) {
+                    case CONSTANT:
+                        values[++top] = numbers[code[pc + 1]];
+                        pc += 2;
+                        break;
+                    case SLOT:
+                        values[++top] = arguments[code[pc + 1]];
+                        pc += 2;
+                        break;
+                    case VARIABLE:
+                        values[++top] = CompiledExpression.resolve(names[code[pc + 1]], bindings, constants);
+                        pc += 2;
+                        break;
+                    case UNARY:
+                        values[top] = bound[code[pc + 1]].apply(values[top]);
+                        pc += 2;
+                        break;
+                    case BINARY: {
+                        final double rhs = values[top--];
+                        values[top] = bound[code[pc + 1]].apply(values[top], rhs);
+                        pc += 2;
+                        break;
+                    }
+                    case OPERATOR: {
+                        final int count = code[pc + 2];
+                        final ArrayList<Double> operands = new ArrayList<>(count);
+                        for (int i = top - count + 1; i <= top; ++i) {
+                            operands.add(values[i]);
+                        }
+                        top -= count - 1;
+                        values[top] = bound[code[pc + 1]].apply(operands);
+                        pc += 3;
+                        break;
+                    }
+                    case BRANCH:
+                        pc = values[top--] == 0 ? code[pc + 1] : pc + 2;
+                        break;
+                    case JUMP:
+                        pc = code[pc + 1];
+                        break;
+                    case CALL: {
+                        final int count = code[pc + 2];
+                        MathFunction function = targets[code[pc + 1]];
+                        if (function == null) {
+                            //Fail as the interpreter does.
+                            function = functions.getFunction(functionNames[code[pc + 1]], count);
+                        }
+                        top -= count - 1;
+                        final double value;
+                        if (function instanceof JavaFunction && ((JavaFunction)function).isPrimitive()) {
+                            final JavaFunction primitive = (JavaFunction)function;
+                            value = count == 0 ? primitive.apply()
+                                    : count == 1 ? primitive.apply(values[top], angle)
+                                    : primitive.apply(values[top], values[top + 1]);
+                        }
+                        else {
+                            if (scope == null) {
+                                scope = new Constants(constants);
+                                scope.putAll(bindings);
+                            }
+                            if (function instanceof UserFunction) {
+                                final double[] passed = new double[count];
+                                System.arraycopy(values, top, passed, 0, count);
+                                value = ((UserFunction)function).compile(functions, operators).evaluate(passed, scope, angle);
+                            }
+                            else {
+                                final ArrayList<Number> operands = new ArrayList<>(count);
+                                for (int i = 0; i != count; ++i) {
+                                    operands.add(values[top + i]);
+                                }
+                                final MathFunction.ParameterPack pack = new MathFunction.ParameterPack(operands, functions, scope, operators, angle);
+                                value = functions.apply(functionNames[code[pc + 1]], pack).doubleValue();
+                            }
+                            //The call may have grown the stack.
+                            values = stack.getValues();
+                        }
+                        values[top] = value;
+                        pc += 3;
+                        break;
+                    }
+                    default:
+                        throw new RuntimeException("Invalid opcode " + code[pc] + ".");
+                }
+            }
+            return values[top];
+        } finally {
+            stack.release(frame);
+        }
+    }
+
+    /**
+     * Resolve operators and functions by name.
+     * Operators of the list the tape was lowered from are kept as they were, as the interpreter keeps them.
+     */
+    private Binding bind(Functions functions, OperatorList operators) {
+        Operator[] bound = compiledList == operators ? compiledOperators : null;
+        if (bound == null) {
+            bound = new Operator[operatorSymbols.length];
+            for (int i = 0; i != bound.length; ++i) {
+                bound[i] = operators.getPreferenceOrAny(operatorSymbols[i], operatorOperands[i]);
+                if (bound[i] == null) {
+                    throw new RuntimeException("No operator found.");
+                }
+            }
+        }
+        final MathFunction[] targets = new MathFunction[functionNames.length];
+        for (int i = 0; i != targets.length; ++i) {
+            try {
+                targets[i] = functions.getFunction(functionNames[i], functionArguments[i]);
+            } catch (RuntimeException exception) {
+                targets[i] = null;
+            }
+        }
+        return new Binding(functions, operators, bound, targets);
+    }
+
+    /**
+     * Numbers distinct values in order of first appearance.
+     */
+    private static class Pool<T> extends ArrayList<T> {
+        private static final long serialVersionUID = 1L;
+
+        private final Map<T, Integer> ids;
+
+        Pool(Map<T, Integer> ids) {
+            this.ids = ids;
+        }
+
+        int intern(T value) {
+            final Integer id = ids.get(value);
+            if (id != null) {
+                return id;
+            }
+            ids.put(value, size());
+            add(value);
+            return size() - 1;
+        }
+    }
+}
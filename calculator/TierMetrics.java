@@ -0,0 +1,76 @@
+package calculator;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts transitions of compiled expressions between the interpreter and generated code.
+ */
+public class TierMetrics {
+    /**
+     * Metrics shared by every compiled expression.
+     */
+    public static final TierMetrics GLOBAL = new TierMetrics();
+
+    private final AtomicLong promotions = new AtomicLong();
+    private final AtomicLong demotions = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong generationNanos = new AtomicLong();
+
+    /**
+     * Record an expression promoted to generated code.
+     * @param nanos Time spent generating the code.
+     */
+    public void promoted(long nanos) {
+        promotions.incrementAndGet();
+        generationNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Record generated code discarded because the functions or operators it was generated from changed.
+     */
+    public void demoted() {
+        demotions.incrementAndGet();
+    }
+
+    /**
+     * Record an expression left to the interpreter because its code could not be generated.
+     */
+    public void failed() {
+        failures.incrementAndGet();
+    }
+
+    public long getPromotions() {
+        return promotions.get();
+    }
+
+    public long getDemotions() {
+        return demotions.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return Total time spent generating code for promoted expressions.
+     */
+    public long getGenerationNanos() {
+        return generationNanos.get();
+    }
+
+    /**
+     * Reset every count to zero.
+     */
+    public void reset() {
+        promotions.set(0);
+        demotions.set(0);
+        failures.set(0);
+        generationNanos.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "promotions=" + getPromotions() + ", demotions=" + getDemotions() + ", failures=" + getFailures()
+                + ", generationNanos=" + getGenerationNanos();
+    }
+}
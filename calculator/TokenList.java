@@ -0,0 +1,165 @@
+package calculator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Compact list of tokens produced by the Lexer.
+ * Each token has a kind, a range within the expression, and either a numeric value or an interned symbol.
+ */
+public class TokenList {
+    public static final int NUMBER = 0;
+    public static final int IDENTIFIER = 1;
+    public static final int OPERATOR = 2;
+    public static final int OPENING = 3;
+    public static final int CLOSING = 4;
+    public static final int SEPARATOR = 5;
+
+    private final String expression;
+    private int size;
+    private int[] kinds;
+    private int[] starts;
+    private int[] ends;
+    private int[] symbols;
+    private int[] operators;
+    private boolean[] spaced;
+    private double[] numbers;
+
+    private final ArrayList<String> symbolNames;
+    private final HashMap<String, Integer> symbolIds;
+
+    public TokenList(String expression) {
+        final int capacity = 16;
+        this.expression = expression;
+        this.kinds = new int[capacity];
+        this.starts = new int[capacity];
+        this.ends = new int[capacity];
+        this.symbols = new int[capacity];
+        this.operators = new int[capacity];
+        this.spaced = new boolean[capacity];
+        this.numbers = new double[capacity];
+        this.symbolNames = new ArrayList<>();
+        this.symbolIds = new HashMap<>();
+    }
+
+    /**
+     * Append a token.
+     * @param kind One of the token kinds.
+     * @param start Index of the token's first character.
+     * @param end Index after the token's last character.
+     * @param whitespace True if whitespace separates this token from the previous one.
+     * @param symbol The identifier or operator, or null for other kinds.
+     * @param number The value of a NUMBER token.
+     */
+    public void add(int kind, int start, int end, boolean whitespace, String symbol, double number) {
+        if (size == kinds.length) {
+            final int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            symbols = Arrays.copyOf(symbols, capacity);
+            operators = Arrays.copyOf(operators, capacity);
+            spaced = Arrays.copyOf(spaced, capacity);
+            numbers = Arrays.copyOf(numbers, capacity);
+        }
+        kinds[size] = kind;
+        starts[size] = start;
+        ends[size] = end;
+        spaced[size] = whitespace;
+        numbers[size] = number;
+        symbols[size] = symbol == null ? -1 : intern(symbol);
+        operators[size] = -1;
+        ++size;
+    }
+
+    /**
+     * Append an OPERATOR token.
+     * @param start Index of the token's first character.
+     * @param end Index after the token's last character.
+     * @param whitespace True if whitespace separates this token from the previous one.
+     * @param symbol The operator's identifier.
+     * @param operator Symbol id of the operator within the PrecedenceTable it was matched with.
+     */
+    public void addOperator(int start, int end, boolean whitespace, String symbol, int operator) {
+        add(OPERATOR, start, end, whitespace, symbol, 0);
+        operators[size-1] = operator;
+    }
+
+    private int intern(String symbol) {
+        final Integer id = symbolIds.get(symbol);
+        if (id != null) {
+            return id;
+        }
+        symbolNames.add(symbol);
+        symbolIds.put(symbol, symbolNames.size() - 1);
+        return symbolNames.size() - 1;
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getKind(int token) {
+        return kinds[token];
+    }
+
+    public int getStart(int token) {
+        return starts[token];
+    }
+
+    public int getEnd(int token) {
+        return ends[token];
+    }
+
+    /**
+     * @param token The token to inspect.
+     * @return True if whitespace separates the token from the one before it.
+     */
+    public boolean isSpaced(int token) {
+        return spaced[token];
+    }
+
+    public double getNumber(int token) {
+        return numbers[token];
+    }
+
+    /**
+     * @param token The token to inspect.
+     * @return Id of the token's interned symbol, shared by every token with the same text, or -1.
+     */
+    public int getSymbolId(int token) {
+        return symbols[token];
+    }
+
+    /**
+     * @param token The token to inspect.
+     * @return The PrecedenceTable symbol id of an OPERATOR token, or -1.
+     */
+    public int getOperator(int token) {
+        return operators[token];
+    }
+
+    public String getSymbol(int token) {
+        return symbols[token] < 0 ? null : symbolNames.get(symbols[token]);
+    }
+
+    /**
+     * @return The number of distinct symbols among the tokens.
+     */
+    public int getSymbolCount() {
+        return symbolNames.size();
+    }
+
+    /**
+     * @param token The token to inspect.
+     * @return The token's first character.
+     */
+    public char getCharacter(int token) {
+        return expression.charAt(starts[token]);
+    }
+}
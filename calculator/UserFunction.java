@@ -1,11 +1,35 @@
 package calculator;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 
+/**
+ * A function defined by an expression of its variables.
+ * User functions are never modified once defined; they are redefined by replacing them within their functions.
+ */
 public class UserFunction extends MathFunction {
-    private String expression;
-    private ArrayList<String> variables;
+    /**
+     * A compiled body along with the registries and versions it was compiled against.
+     */
+    private static class Body {
+        final CompiledExpression expression;
+        final int functionsVersion;
+        final int operatorsVersion;
+
+        Body(CompiledExpression expression, int functionsVersion, int operatorsVersion) {
+            this.expression = expression;
+            this.functionsVersion = functionsVersion;
+            this.operatorsVersion = operatorsVersion;
+        }
+
+        boolean isCurrent(Functions functions, OperatorList operators) {
+            return expression.getFunctions() == functions && expression.getOperators() == operators
+                    && functionsVersion == functions.getVersion() && operatorsVersion == operators.getVersion();
+        }
+    }
+
+    private final String expression;
+    private final ArrayList<String> variables;
+    private volatile Body body;
 
     public UserFunction(String definition) {
         this.variables = new ArrayList<>();
@@ -18,15 +42,42 @@ public class UserFunction extends MathFunction {
 
     @Override
     public Number apply(ParameterPack pack) {
-        final Constants constants = (Constants)pack.constants.clone();
-        for (int i = 0; i != variables.size(); ++i) {
-            final String variable = variables.get(i);
-            final Number value = pack.values.get(i);
-            constants.put(variable, value.doubleValue());
+        final double[] arguments = new double[variables.size()];
+        for (int i = 0; i != arguments.length; ++i) {
+            arguments[i] = pack.values.get(i).doubleValue();
         }
 
-        final Calculator calculator = new Calculator(pack.functions, pack.operators, constants);
-        return calculator.evaluate(expression);
+        return compile(pack.functions, pack.operators).evaluate(arguments, pack.constants, pack.angle);
+    }
+
+    /**
+     * Whether a body is pure depends on the functions it calls, which may be redefined at any time,
+     * so user functions are never treated as pure.
+     * @return False.
+     */
+    @Override
+    public boolean isPure() {
+        return false;
+    }
+
+    /**
+     * Obtain the body compiled against a set of functions and operators.
+     * The body is only recompiled when the registries differ or have been modified since.
+     * @param functions Functions the body may invoke.
+     * @param operators Operators used to parse the body.
+     * @return The compiled body, whose parameter slots match the function's variables.
+     */
+    public CompiledExpression compile(Functions functions, OperatorList operators) {
+        Body current = body;
+        if (current == null || !current.isCurrent(functions, operators)) {
+            final int functionsVersion = functions.getVersion();
+            final int operatorsVersion = operators.getVersion();
+            final ExpressionCompiler compiler = new ExpressionCompiler(functions, operators, variables);
+            final CompiledExpression compiled = compiler.compile(expression, 0, expression.length(), null, null);
+            current = new Body(compiled, functionsVersion, operatorsVersion);
+            body = current;
+        }
+        return current.expression;
     }
 
     public String getDefinition() {
@@ -43,20 +94,6 @@ public class UserFunction extends MathFunction {
         return variables;
     }
 
-    public void setExpression(String expression) {
-        this.expression = expression;
-    }
-
-    public void setIdentifier(String identifier) {
-        this.identifier = identifier;
-    }
-
-    public void setVariables(String parameters) {
-        ArrayList<String> newVars = new ArrayList<>();
-        extractVariables(newVars, parameters, 0);
-        variables = newVars;
-    }
-
     private int extractHeader(String definition) {
         for (int i = 0; i != definition.length(); ++i) {
             final char token = definition.charAt(i);
@@ -0,0 +1,69 @@
+package calculator;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * Checks that evaluating an already compiled expression allocates nothing once warmed up,
+ * whether it is interpreted or runs as generated code, and including calls to user functions.
+ * Allocated bytes are read from the thread's com.sun.management.ThreadMXBean counter.
+ */
+public class AllocationCheck {
+    private static final int WARMUP = 200_000;
+    private static final int EVALUATIONS = 1_000_000;
+    private static final int ROUNDS = 3;
+
+    private static final String[] EXPRESSIONS = {
+        "x * y + 3 * x - y / 2",
+        "sin(x) * nthroot(y, 3) + choose(7, 3) - max(x, y) / degrees(x) + x^2",
+        "if(x > y, sqrt(x - y), abs(x) + cos(y)) && y || x",
+    };
+
+    public static void main(String[] args) {
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            System.out.println("Allocated bytes cannot be measured by this JVM.");
+            System.exit(1);
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        final long thread = Thread.currentThread().getId();
+
+        boolean allocated = false;
+        for (int tierThreshold : new int[] {-1, Calculator.DEFAULT_TIER_THRESHOLD}) {
+            final Calculator calculator = new Calculator();
+            calculator.setAngle(Calculator.Angle.RADIANS);
+            calculator.setTierThreshold(tierThreshold);
+            for (String text : EXPRESSIONS) {
+                final CompiledExpression expression = calculator.compile(text, List.of("x", "y"));
+                final double[] arguments = new double[2];
+                double sum = evaluate(expression, arguments, WARMUP);
+
+                //One-off allocations, such as while the JIT replaces a running loop, are not charged by taking the least of several rounds.
+                long bytes = Long.MAX_VALUE;
+                for (int round = 0; round != ROUNDS; ++round) {
+                    final long before = threads.getThreadAllocatedBytes(thread);
+                    sum += evaluate(expression, arguments, EVALUATIONS);
+                    bytes = Math.min(bytes, threads.getThreadAllocatedBytes(thread) - before);
+                }
+
+                System.out.println(expression.getTier() + " " + text + ": " + bytes + " bytes over " + EVALUATIONS + " evaluations (sum " + sum + ")");
+                allocated |= bytes != 0;
+            }
+        }
+        if (allocated) {
+            System.out.println("FAILED: evaluation allocated.");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    private static double evaluate(CompiledExpression expression, double[] arguments, int evaluations) {
+        double sum = 0;
+        for (int i = 0; i != evaluations; ++i) {
+            arguments[0] = 1 + (i & 7);
+            arguments[1] = 0.5 + (i & 3);
+            sum += expression.evaluate(arguments);
+        }
+        return sum;
+    }
+}
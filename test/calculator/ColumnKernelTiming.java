@@ -0,0 +1,93 @@
+package calculator;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Times batch evaluation with the operator kernels of ColumnKernels against the scalar columnar path,
+ * which calls each operator's lambda once per row. The scalar path is reached by operators that apply the same operations
+ * through lambdas of their own, so that ColumnInterpreter finds no kernel for them.
+ * Reports the best of several rounds in nanoseconds per row, and exits with status 1 if the two paths disagree on any row.
+ */
+public class ColumnKernelTiming {
+    private static final int ROWS = 1 << 20;
+    private static final int ROUNDS = 15;
+
+    private static final String[] EXPRESSIONS = {
+        "x * y + 3 * x - y / 2",
+        "√(x * x + y * y) - -x / y",
+        "(x < y) + (x >= y) * x ^ 2",
+        "if(x > y, x - y, y - x) * 2",
+    };
+
+    public static void main(String[] args) {
+        final Random random = new Random(22);
+        final double[] xs = new double[ROWS];
+        final double[] ys = new double[ROWS];
+        for (int i = 0; i != ROWS; ++i) {
+            xs[i] = random.nextDouble();
+            ys[i] = random.nextDouble();
+        }
+        final Map<String, double[]> columns = Map.of("x", xs, "y", ys);
+
+        final Calculator kernels = new Calculator(Functions.JMATH, OperatorList.PEMDAS, Constants.JCONSTANTS);
+        final Calculator scalar = new Calculator(Functions.JMATH, scalarOperators(), Constants.JCONSTANTS);
+        boolean differed = false;
+        for (String text : EXPRESSIONS) {
+            final CompiledExpression withKernels = compile(kernels, text);
+            final CompiledExpression withoutKernels = compile(scalar, text);
+            final double[] expected = new double[ROWS];
+            final double[] actual = new double[ROWS];
+            double best = Double.MAX_VALUE;
+            double bestScalar = Double.MAX_VALUE;
+            for (int round = 0; round != ROUNDS; ++round) {
+                final long start = System.nanoTime();
+                withKernels.evaluateBatch(columns, actual);
+                final long middle = System.nanoTime();
+                withoutKernels.evaluateBatch(columns, expected);
+                final long end = System.nanoTime();
+                best = Math.min(best, (double)(middle - start) / ROWS);
+                bestScalar = Math.min(bestScalar, (double)(end - middle) / ROWS);
+            }
+            for (int i = 0; i != ROWS; ++i) {
+                if (Double.compare(actual[i], expected[i]) != 0) {
+                    System.out.println(text + ": row " + i + " is " + actual[i] + " with kernels but " + expected[i] + " without");
+                    differed = true;
+                    break;
+                }
+            }
+            System.out.printf("%s: kernels %.2f ns/row, scalar %.2f ns/row%n", text, best, bestScalar);
+        }
+        if (differed) {
+            System.out.println("FAILED: the kernels disagree with the scalar path.");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    private static CompiledExpression compile(Calculator calculator, String text) {
+        calculator.setAngle(Calculator.Angle.RADIANS);
+        calculator.setCache(null);
+        calculator.setTierThreshold(-1);
+        return calculator.compile(text, List.of("x", "y"));
+    }
+
+    /**
+     * @return The operators the expressions use, applying the shared operations through lambdas ColumnKernels does not recognize.
+     */
+    private static OperatorList scalarOperators() {
+        final OperatorList operators = new OperatorList();
+        operators.add("<", 6, (lhs, rhs) -> OperatorList.LESS.applyAsDouble(lhs, rhs));
+        operators.add(">", 6, (lhs, rhs) -> OperatorList.GREATER.applyAsDouble(lhs, rhs));
+        operators.add(">=", 6, (lhs, rhs) -> OperatorList.GREATER_EQUAL.applyAsDouble(lhs, rhs));
+        operators.add("+", 5, (lhs, rhs) -> OperatorList.ADD.applyAsDouble(lhs, rhs));
+        operators.add("-", 5, (lhs, rhs) -> OperatorList.SUBTRACT.applyAsDouble(lhs, rhs));
+        operators.add("/", 4, (lhs, rhs) -> OperatorList.DIVIDE.applyAsDouble(lhs, rhs));
+        operators.add("*", 4, (lhs, rhs) -> OperatorList.MULTIPLY.applyAsDouble(lhs, rhs));
+        operators.add("-", 3, (value) -> OperatorList.NEGATE.applyAsDouble(value), Operator.Associativity.RIGHT_TO_LEFT);
+        operators.add("√", 3, (value) -> OperatorList.SQRT.applyAsDouble(value), Operator.Associativity.RIGHT_TO_LEFT);
+        operators.add("^", 3, (lhs, rhs) -> OperatorList.POWER.applyAsDouble(lhs, rhs), Operator.Associativity.RIGHT_TO_LEFT);
+        return operators;
+    }
+}
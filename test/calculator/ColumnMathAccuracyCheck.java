@@ -0,0 +1,179 @@
+package calculator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks ColumnMath against StrictMath, kernel by kernel, for the error bounds its class documentation states.
+ * Each kernel is swept over its reduced range and the inputs at its edges, through both the batch loops and the rows
+ * selected one at a time, and tan in every angle mode.
+ * The shared reductions, of angles by π/2 and of exponents by ln 2, are covered through the kernels using them.
+ */
+public class ColumnMathAccuracyCheck {
+    private static final int SAMPLES = 400_000;
+    private static final long SEED = 23;
+
+    //The limits of ColumnMath's reduced ranges.
+    private static final double REDUCTION_LIMIT = 1647099.0;
+    private static final double EXP_LIMIT = 708.0;
+
+    public static void main(String[] args) {
+        final Random random = new Random(SEED);
+        boolean failed = false;
+        for (ColumnMath.Kernel kernel : ColumnMath.Kernel.values()) {
+            final Calculator.Angle[] angles = kernel == ColumnMath.Kernel.TAN ? Calculator.Angle.values() : new Calculator.Angle[] {null};
+            for (Calculator.Angle angle : angles) {
+                final double[] inputs = inputs(kernel, angle, random);
+                final double[] batch = new double[inputs.length];
+                final double[] selected = new double[inputs.length];
+                //Batches are at most a chunk long, as ColumnInterpreter passes them.
+                final double[] values = new double[ColumnStack.CHUNK];
+                final int[] rows = new int[ColumnStack.CHUNK];
+                for (int offset = 0; offset < inputs.length; offset += ColumnStack.CHUNK) {
+                    final int count = Math.min(ColumnStack.CHUNK, inputs.length - offset);
+                    ColumnMath.apply(kernel, inputs, offset, angle, values, null, count);
+                    System.arraycopy(values, 0, batch, offset, count);
+
+                    //Every third row is computed again one at a time, as rows left after a branch are.
+                    int selections = 0;
+                    for (int row = 0; row < count; row += 3) {
+                        rows[selections++] = row;
+                    }
+                    ColumnMath.apply(kernel, inputs, offset, angle, values, rows, selections);
+                    for (int k = 0; k != selections; ++k) {
+                        selected[offset + rows[k]] = values[rows[k]];
+                    }
+                }
+
+                double worst = 0;
+                double worstInput = 0;
+                for (int i = 0; i != inputs.length; ++i) {
+                    final double expected = reference(kernel, angle == null ? inputs[i] : angle.convertValue(inputs[i]));
+                    double error = ulps(batch[i], expected);
+                    if (i % ColumnStack.CHUNK % 3 == 0) {
+                        error = Math.max(error, ulps(selected[i], expected));
+                    }
+                    if (error > worst) {
+                        worst = error;
+                        worstInput = inputs[i];
+                    }
+                }
+                final boolean within = worst <= bound(kernel);
+                System.out.println(kernel + (angle == null ? "" : " " + angle) + ": " + inputs.length + " inputs, worst "
+                        + worst + " ulps at " + worstInput + " (bound " + bound(kernel) + ")" + (within ? "" : " FAILED"));
+                failed |= !within;
+            }
+        }
+
+        if (failed) {
+            System.out.println("FAILED: ColumnMath exceeded its error bounds.");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    /**
+     * @return The error bound stated by ColumnMath, in ulps of StrictMath's result.
+     */
+    private static double bound(ColumnMath.Kernel kernel) {
+        switch (kernel) {
+            case TAN:
+            case SINH:
+                return 2;
+            case TANH:
+                return 4;
+            default:
+                return 1;
+        }
+    }
+
+    private static double reference(ColumnMath.Kernel kernel, double x) {
+        switch (kernel) {
+            case TAN:
+                return StrictMath.tan(x);
+            case SINH:
+                return StrictMath.sinh(x);
+            case COSH:
+                return StrictMath.cosh(x);
+            default:
+                return StrictMath.tanh(x);
+        }
+    }
+
+    /**
+     * @return How many ulps of the expected value the actual one is from it, infinite if only one of them is finite.
+     */
+    private static double ulps(double actual, double expected) {
+        if (Double.compare(actual, expected) == 0) {
+            return 0;
+        }
+        if (!Double.isFinite(actual) || !Double.isFinite(expected)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return Math.abs(actual - expected) / Math.ulp(expected);
+    }
+
+    /**
+     * @return Inputs spread over the kernel's reduced range, in units of the angle mode, followed by the edges of every range.
+     */
+    private static double[] inputs(ColumnMath.Kernel kernel, Calculator.Angle angle, Random random) {
+        final List<Double> inputs = new ArrayList<>();
+        //Scales a limit in radians to the units of the angle mode.
+        final double scale = angle == null ? 1 : 1 / angle.convertValue(1);
+        switch (kernel) {
+            case TAN:
+                uniform(inputs, random, REDUCTION_LIMIT * scale);
+                uniform(inputs, random, 4 * Math.PI * scale);
+                //Arguments near multiples of π/2 leave little after reduction.
+                for (int k = -64; k <= 64; ++k) {
+                    double x = k * (Math.PI / 2) * scale;
+                    for (int step = 0; step != 4; ++step) {
+                        inputs.add(x);
+                        inputs.add(-x);
+                        x = Math.nextUp(x);
+                    }
+                }
+                break;
+            case SINH:
+            case COSH:
+                uniform(inputs, random, EXP_LIMIT);
+                uniform(inputs, random, 2);
+                break;
+            default:
+                uniform(inputs, random, 22);
+                uniform(inputs, random, 1);
+                break;
+        }
+
+        final double[] edges = {
+            0, Double.MIN_VALUE, 3 * Double.MIN_VALUE, Double.MIN_NORMAL / 3, Math.nextDown(Double.MIN_NORMAL), Double.MIN_NORMAL,
+            0x1p-27, 0x1p-26, 0.5, 1, Math.nextDown(1.0), Math.nextUp(1.0), Math.PI / 4, Math.PI / 2, Math.PI,
+            Math.nextDown(EXP_LIMIT), EXP_LIMIT, Math.nextUp(EXP_LIMIT), 709.78, 710,
+            Math.nextDown(REDUCTION_LIMIT), REDUCTION_LIMIT, Math.nextUp(REDUCTION_LIMIT), 1e300, Double.MAX_VALUE,
+            Double.POSITIVE_INFINITY
+        };
+        for (double edge : edges) {
+            inputs.add(edge);
+            inputs.add(-edge);
+            inputs.add(edge * scale);
+            inputs.add(-edge * scale);
+        }
+        for (int n = -22; n <= 22; ++n) {
+            inputs.add(Double.parseDouble("1e" + n));
+        }
+        inputs.add(Double.NaN);
+
+        final double[] values = new double[inputs.size()];
+        for (int i = 0; i != values.length; ++i) {
+            values[i] = inputs.get(i);
+        }
+        return values;
+    }
+
+    private static void uniform(List<Double> inputs, Random random, double limit) {
+        for (int i = 0; i != SAMPLES; ++i) {
+            inputs.add((2 * random.nextDouble() - 1) * limit);
+        }
+    }
+}
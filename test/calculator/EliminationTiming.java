@@ -0,0 +1,108 @@
+package calculator;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Times formulas that repeat terms, as compiled and after Optimizer.eliminate alone has merged the repeats,
+ * both interpreted and as generated code. Constant folding and inlining are left out, so only the merging is measured.
+ * Reports the best of several rounds in nanoseconds per evaluation,
+ * and exits with status 1 if merging changed the value of any evaluation.
+ */
+public class EliminationTiming {
+    private static final int EVALUATIONS = 1_000_000;
+    private static final int ROUNDS = 10;
+
+    private static final String[] EXPRESSIONS = {
+        "sqrt(x^2+y^2)/(x^2+y^2)",
+        "sin(x*y)+cos(x*y)+sin(x*y)*cos(x*y)",
+        "(x+y)^2+ln(x+y)*(x+y)",
+        "exp(-(x-y)^2/2)*(x-y)+exp(-(x-y)^2/2)",
+    };
+
+    public static void main(String[] args) {
+        final Calculator calculator = new Calculator();
+        calculator.setAngle(Calculator.Angle.RADIANS);
+        calculator.setCache(null);
+        calculator.setTierThreshold(-1);
+
+        boolean changed = false;
+        for (String text : EXPRESSIONS) {
+            final CompiledExpression compiled = calculator.compile(text, List.of("x", "y"));
+            final CompiledExpression eliminated = Optimizer.eliminate(compiled);
+            final Evaluator generated = CodeGenerator.generate(compiled);
+            final Evaluator generatedEliminated = CodeGenerator.generate(eliminated);
+
+            final double interpreted = time(compiled);
+            final double interpretedEliminated = time(eliminated);
+            final double executed = time(generated);
+            final double executedEliminated = time(generatedEliminated);
+            System.out.printf("%s: %d -> %d instructions, interpreter %.1f -> %.1f ns, generated %.1f -> %.1f ns%n",
+                    text, compiled.size(), eliminated.size(), interpreted, interpretedEliminated, executed, executedEliminated);
+
+            final double[] arguments = new double[2];
+            for (int i = 0; i != 1000; ++i) {
+                arguments[0] = 0.25 + 0.01 * i;
+                arguments[1] = 1.5 - 0.003 * i;
+                final double expected = interpret(compiled, arguments);
+                if (Double.compare(expected, interpret(eliminated, arguments)) != 0
+                        || Double.compare(expected, generatedEliminated.eval(arguments)) != 0) {
+                    System.out.println(text + " differs at x = " + arguments[0] + ", y = " + arguments[1]);
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        if (changed) {
+            System.out.println("FAILED: merging changed a value.");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    private static double interpret(CompiledExpression expression, double[] arguments) {
+        return expression.interpret(arguments, Collections.emptyMap(), expression.getConstants(), expression.getAngle());
+    }
+
+    private static double time(CompiledExpression expression) {
+        final double[] arguments = new double[2];
+        long best = Long.MAX_VALUE;
+        double sum = 0;
+        for (int round = 0; round != ROUNDS; ++round) {
+            final long start = System.nanoTime();
+            for (int i = 0; i != EVALUATIONS; ++i) {
+                arguments[0] = 0.5 + (i & 7);
+                arguments[1] = 0.25 + (i & 3);
+                sum += interpret(expression, arguments);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return check(sum, best);
+    }
+
+    private static double time(Evaluator evaluator) {
+        final double[] arguments = new double[2];
+        long best = Long.MAX_VALUE;
+        double sum = 0;
+        for (int round = 0; round != ROUNDS; ++round) {
+            final long start = System.nanoTime();
+            for (int i = 0; i != EVALUATIONS; ++i) {
+                arguments[0] = 0.5 + (i & 7);
+                arguments[1] = 0.25 + (i & 3);
+                sum += evaluator.eval(arguments);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return check(sum, best);
+    }
+
+    /**
+     * @return Nanoseconds per evaluation, once the sum is used so that the evaluations cannot be skipped.
+     */
+    private static double check(double sum, long nanoseconds) {
+        if (sum == 0.125) {
+            System.out.println(sum);
+        }
+        return (double)nanoseconds / EVALUATIONS;
+    }
+}
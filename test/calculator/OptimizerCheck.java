@@ -0,0 +1,60 @@
+package calculator;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks that optimizing an expression, and generating code for the optimized form, leaves its value unchanged,
+ * for expressions whose rewrites have been wrong before, such as dividing by a conditional whose condition is known.
+ */
+public class OptimizerCheck {
+    private static final String[] FUNCTIONS = {
+        "half(v) = v / if(1, 2, 3)",
+    };
+
+    private static final String[] EXPRESSIONS = {
+        "x / if(1, 4, 3)",
+        "x / if(0, 3, 4)",
+        "x / pick(1, 4, 3)",
+        "x / if(1, 4, 3) + 4",
+        "x / if(1, if(0, 3, 4), 5)",
+        "half(x)",
+        "x / 4 + x / 0.5",
+        "x ^ 2 + if(x > 2, x / 8, x ^ 2)",
+        "(x + 1) / 2 * (x + 1) / 2",
+    };
+
+    private static final double[] ARGUMENTS = {8, -3, 0.5, 0, Double.NaN};
+
+    public static void main(String[] args) {
+        for (String function : FUNCTIONS) {
+            Functions.JMATH.loadFunctionFromString(function);
+        }
+        final Calculator calculator = new Calculator();
+        calculator.setAngle(Calculator.Angle.RADIANS);
+        calculator.setCache(null);
+        calculator.setTierThreshold(-1);
+
+        boolean differed = false;
+        for (String text : EXPRESSIONS) {
+            final CompiledExpression expression = calculator.compile(text, List.of("x"));
+            final CompiledExpression optimized = expression.optimize(expression.getConstants(), expression.getAngle());
+            final Evaluator generated = CodeGenerator.generate(optimized);
+            for (double x : ARGUMENTS) {
+                final double[] arguments = {x};
+                final double expected = expression.interpret(arguments, Collections.emptyMap(), expression.getConstants(), expression.getAngle());
+                final double actual = optimized.interpret(arguments, Collections.emptyMap(), optimized.getConstants(), optimized.getAngle());
+                final double executed = generated.eval(arguments);
+                if (Double.compare(expected, actual) != 0 || Double.compare(expected, executed) != 0) {
+                    System.out.println(text + " at x = " + x + " is " + expected + " but " + actual + " optimized and " + executed + " generated");
+                    differed = true;
+                }
+            }
+        }
+        if (differed) {
+            System.out.println("FAILED: optimizing changed a value.");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+}
@@ -0,0 +1,84 @@
+package calculator;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Times evaluateParallel over pools of one thread up to one per available processor, against evaluateBatch on the calling thread.
+ * Reports the best of several rounds in nanoseconds per row, and checks that every pool gives the same bits as evaluateBatch on every row.
+ */
+public class ParallelBatchTiming {
+    private static final int ROWS = 1 << 22;
+    private static final int ROUNDS = 10;
+
+    private static final String[] EXPRESSIONS = {
+        "x * y + 3 * x - y / 2",
+        "tan(x) + sinh(y) * cosh(x) - tanh(x - y)",
+        "if(x > y, √(x - y), sin(y) / (1 + x))",
+        "nthroot(x, 3) + choose(7, 3) * y",
+    };
+
+    public static void main(String[] args) {
+        final Random random = new Random(24);
+        final double[] xs = new double[ROWS];
+        final double[] ys = new double[ROWS];
+        for (int i = 0; i != ROWS; ++i) {
+            xs[i] = 4 * random.nextDouble() - 2;
+            ys[i] = 4 * random.nextDouble() - 2;
+        }
+        final Map<String, double[]> columns = Map.of("x", xs, "y", ys);
+
+        final int processors = Runtime.getRuntime().availableProcessors();
+        final ForkJoinPool[] pools = new ForkJoinPool[processors];
+        for (int threads = 1; threads <= processors; ++threads) {
+            pools[threads - 1] = new ForkJoinPool(threads);
+        }
+
+        final Calculator calculator = new Calculator();
+        calculator.setAngle(Calculator.Angle.RADIANS);
+        calculator.setCache(null);
+        calculator.setTierThreshold(-1);
+        boolean differed = false;
+        for (String text : EXPRESSIONS) {
+            final CompiledExpression expression = calculator.compile(text, List.of("x", "y"));
+            final double[] expected = new double[ROWS];
+            final double[] actual = new double[ROWS];
+            double sequential = Double.MAX_VALUE;
+            for (int round = 0; round != ROUNDS; ++round) {
+                final long start = System.nanoTime();
+                expression.evaluateBatch(columns, expected);
+                sequential = Math.min(sequential, (double)(System.nanoTime() - start) / ROWS);
+            }
+            System.out.printf("%s: evaluateBatch %.2f ns/row%n", text, sequential);
+
+            for (ForkJoinPool pool : pools) {
+                double best = Double.MAX_VALUE;
+                for (int round = 0; round != ROUNDS; ++round) {
+                    final long start = System.nanoTime();
+                    expression.evaluateParallel(columns, actual, expression.getConstants(), expression.getAngle(), pool);
+                    best = Math.min(best, (double)(System.nanoTime() - start) / ROWS);
+                }
+                System.out.printf("    %d thread%s: %.2f ns/row, %.2fx%n",
+                        pool.getParallelism(), pool.getParallelism() == 1 ? "" : "s", best, sequential / best);
+                for (int i = 0; i != ROWS; ++i) {
+                    if (Double.compare(actual[i], expected[i]) != 0) {
+                        System.out.println(text + ": row " + i + " is " + actual[i] + " with " + pool.getParallelism()
+                                + " threads but " + expected[i] + " with evaluateBatch");
+                        differed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        for (ForkJoinPool pool : pools) {
+            pool.shutdown();
+        }
+        if (differed) {
+            System.out.println("FAILED: evaluateParallel disagrees with evaluateBatch.");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+}
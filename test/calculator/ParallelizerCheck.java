@@ -0,0 +1,79 @@
+package calculator;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Checks that evaluating the subexpressions of a split expression on other threads gives the value or the error
+ * sequential evaluation gives, including when both a subexpression and the rest of the expression fail.
+ * Expressions expected to split are also checked to have split.
+ */
+public class ParallelizerCheck {
+    private static final int PARALLELISM = 4;
+    private static final int MAX_DEPTH = 50;
+
+    private static final String[] EXPRESSIONS = {
+        "q12(x) + q12(x + 1) + q12(x + 2)",
+        "q12(x) + nope(x) + q12(x + 5)",
+        "zz + hd(x) + hd(x + 1)",
+        "hd(x) + hd(x + 1) + zz",
+        "hd(x) + q12(x + 1) + zz",
+        "q12(x) + hd(x + 1) + 1 / x",
+    };
+
+    public static void main(String[] args) throws Exception {
+        Functions.JMATH.loadFunctionFromString("q0(v) = sin(v) * cos(v) + sqrt(abs(v))");
+        for (int i = 1; i <= 14; ++i) {
+            Functions.JMATH.loadFunctionFromString("q" + i + "(v) = q" + (i - 1) + "(v) + q" + (i - 1) + "(v / 2 + 1)");
+        }
+        Functions.JMATH.loadFunctionFromString("deep(n) = if(n < 1, 0, 1 + deep(n - 1))");
+        Functions.JMATH.loadFunctionFromString("hd(v) = q14(v) + deep(100)");
+
+        final Calculator calculator = new Calculator();
+        calculator.setAngle(Calculator.Angle.RADIANS);
+        calculator.setCache(null);
+        calculator.setMaxDepth(MAX_DEPTH);
+
+        final ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+        boolean differed = false;
+        for (String text : EXPRESSIONS) {
+            final CompiledExpression expression = calculator.compile(text, List.of("x"));
+            final CompiledExpression optimized = expression.optimize(expression.getConstants(), expression.getAngle());
+            final Parallelizer.Plan plan = optimized.split();
+            if (!plan.isSplit()) {
+                System.out.println(text + " was not split");
+                differed = true;
+                continue;
+            }
+            for (double x : new double[] {0.5, 0}) {
+                final double[] arguments = {x};
+                final String expected = outcome(() -> optimized.interpretSequentially(arguments, Collections.emptyMap(), optimized.getConstants(), optimized.getAngle()));
+                final String actual = pool.submit(() -> outcome(() -> plan.evaluate(arguments, optimized.getConstants(), optimized.getAngle()))).get();
+                System.out.println(text + " at x = " + x + ": " + actual + (expected.equals(actual) ? "" : " but sequentially " + expected));
+                differed |= !expected.equals(actual);
+            }
+        }
+        pool.shutdown();
+        if (differed) {
+            System.out.println("FAILED: parallel evaluation differed from sequential evaluation.");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    private interface Evaluation {
+        double evaluate();
+    }
+
+    /**
+     * @return The value of the evaluation, or the message of the error it raised.
+     */
+    private static String outcome(Evaluation evaluation) {
+        try {
+            return Double.toString(evaluation.evaluate());
+        } catch (RuntimeException exception) {
+            return "error \"" + exception.getMessage() + "\"";
+        }
+    }
+}
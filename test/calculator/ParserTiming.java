@@ -0,0 +1,88 @@
+package calculator;
+
+/**
+ * Times compiling deeply nested and very long expressions, which exercise the parser's handling of brackets
+ * and of long runs of operators. Compiled expressions are not cached, so every round parses again.
+ * Reports the best of several rounds, and exits with status 1 if an expression compiles to the wrong value.
+ */
+public class ParserTiming {
+    private static final int ROUNDS = 40;
+
+    public static void main(String[] args) {
+        final Calculator calculator = new Calculator();
+        calculator.setAngle(Calculator.Angle.RADIANS);
+        calculator.setCache(null);
+
+        boolean wrong = false;
+        wrong |= time(calculator, "nested 500 deep", nested(500), 501);
+        wrong |= time(calculator, "nested 2000 deep", nested(2000), 2001);
+        wrong |= time(calculator, "15000 terms", terms(15000), 15000);
+        wrong |= time(calculator, "15000 implicit products", products(15000), 15000);
+        if (wrong) {
+            System.out.println("FAILED: an expression compiled to the wrong value.");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    /**
+     * @return Whether the expression evaluated to something other than the expected value.
+     */
+    private static boolean time(Calculator calculator, String name, String text, double expected) {
+        long best = Long.MAX_VALUE;
+        CompiledExpression expression = null;
+        for (int round = 0; round != ROUNDS; ++round) {
+            final long start = System.nanoTime();
+            expression = calculator.compile(text);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        final double value = expression.evaluate();
+        System.out.printf("%s (%d characters): %.1f us%n", name, text.length(), best / 1e3);
+        if (value != expected) {
+            System.out.println(name + " is " + value + " rather than " + expected);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return (1+(1+(...(1+1)...))) nested to a depth, which sums to depth + 1.
+     */
+    private static String nested(int depth) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i != depth; ++i) {
+            builder.append("(1+");
+        }
+        builder.append('1');
+        for (int i = 0; i != depth; ++i) {
+            builder.append(')');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return 1 * 2 / 2 - 1 + 1 + 2 * 2 / 2 - 2 + 1 + ... mixing operators of different priorities, whose value is count.
+     */
+    private static String terms(int count) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 1; i <= count; ++i) {
+            if (i != 1) {
+                builder.append(" + ");
+            }
+            builder.append(i).append(" * 2 / 2 - ").append(i).append(" + 1");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return (count)(1)(1)... where every operand is multiplied implicitly, whose value is count.
+     */
+    private static String products(int count) {
+        final StringBuilder builder = new StringBuilder("(");
+        builder.append(count).append(')');
+        for (int i = 1; i != count; ++i) {
+            builder.append("(1)");
+        }
+        return builder.toString();
+    }
+}